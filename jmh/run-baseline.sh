@@ -0,0 +1,9 @@
+#!/bin/sh
+# Собирает проект и модуль бенчмарков и записывает результаты в baseline/<дата>.json.
+# Аргументы передаются JMH, например: ./run-baseline.sh MessageBenchmark
+set -e
+cd "$(dirname "$0")"
+(cd .. && mvn -B -q -DskipTests install)
+mvn -B -q package
+mkdir -p baseline
+java -jar target/benchmarks.jar -rf json -rff "baseline/$(date +%Y-%m-%d).json" "$@"
@@ -0,0 +1,52 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение извлечения статьи через полный DOM и через потоковый разбор.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    private static final String URL = Fixtures.ARTICLE_URL;
+    private static final String HASH = "fixture";
+
+    private ArticleExtractor dom;
+    private ArticleExtractor stream;
+    private byte[] page;
+
+    @Setup
+    public void setUp() throws IOException {
+        ExtractionRules rules = ExtractionRules.load(null);
+        dom = new ArticleExtractor(ArticleExtractor.Mode.DOM, rules);
+        stream = new ArticleExtractor(ArticleExtractor.Mode.STREAM, rules);
+        page = Fixtures.load(Fixtures.ARTICLE_PAGE);
+    }
+
+    @Benchmark
+    public Article domExtraction() throws IOException {
+        return dom.extract(page, URL, HASH);
+    }
+
+    @Benchmark
+    public Article streamExtraction() throws IOException {
+        return stream.extract(page, URL, HASH);
+    }
+}
@@ -0,0 +1,43 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Загрузка страниц-образцов из ресурсов модуля бенчмарков.
+ */
+final class Fixtures {
+
+    static final String ARTICLE_PAGE = "fixtures/habr-article.html";
+    static final String ARTICLE_URL = "https://habr.com/ru/news/000000/";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Читает ресурс целиком.
+     *
+     * @param name Имя ресурса.
+     * @return Содержимое ресурса.
+     * @throws IOException Если ресурс не найден или не читается.
+     */
+    static byte[] load(String name) throws IOException {
+        try (InputStream input = Fixtures.class.getClassLoader().getResourceAsStream(name)) {
+            if (input == null) {
+                throw new IOException("Fixture not found: " + name);
+            }
+            return input.readAllBytes();
+        }
+    }
+
+    /**
+     * Извлекает статью со страницы-образца.
+     *
+     * @return Статья.
+     * @throws IOException Если страница не читается.
+     */
+    static Article article() throws IOException {
+        ArticleExtractor extractor = new ArticleExtractor(ArticleExtractor.Mode.DOM, ExtractionRules.load(null));
+        return extractor.extract(load(ARTICLE_PAGE), ARTICLE_URL, UrlHasher.hash(ARTICLE_URL).toString());
+    }
+}
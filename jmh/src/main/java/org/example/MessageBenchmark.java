@@ -0,0 +1,99 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кодирование и декодирование сообщений очередей и документов Elasticsearch.
+ * Статья берется со страницы-образца, поэтому размер текста соответствует реальной статье.
+ * Параметр codecName сравнивает прежний JSON с двоичным форматом без сжатия и со сжатием текста LZ4.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    @Param({"json", "binary", "binary-lz4"})
+    public String codecName;
+
+    private MessageCodec codec;
+    private Article article;
+    private LinkMessage link;
+    private byte[] articleMessage;
+    // Маппер, через который клиент Elasticsearch сериализовал статьи до ArticleCodec
+    private final JsonMapper mapper = JsonMapper.builder().build();
+
+    @Setup
+    public void setUp() throws IOException {
+        switch (codecName) {
+            case "binary":
+                codec = BinaryMessageCodec.UNCOMPRESSED;
+                break;
+            case "binary-lz4":
+                codec = BinaryMessageCodec.LZ4;
+                break;
+            default:
+                codec = JsonMessageCodec.INSTANCE;
+        }
+        article = Fixtures.article();
+        link = new LinkMessage(article.getUrl(), article.getHash());
+        articleMessage = codec.encodeArticle(article);
+    }
+
+    /**
+     * Сообщение очереди ссылок, как его формирует GetLink.
+     */
+    @Benchmark
+    public byte[] encodeLinkMessage() throws IOException {
+        return codec.encodeLink(link);
+    }
+
+    /**
+     * Сообщение очереди информации, как его формирует Parser.
+     */
+    @Benchmark
+    public byte[] encodeArticleMessage() throws IOException {
+        return codec.encodeArticle(article);
+    }
+
+    /**
+     * Разбор сообщения очереди информации, как в PublishInfo.
+     */
+    @Benchmark
+    public Article decodeArticleMessage() throws IOException {
+        return codec.decodeArticle(articleMessage);
+    }
+
+    /**
+     * Сериализация документа для запроса bulk через {@link ArticleCodec}.
+     */
+    @Benchmark
+    public byte[] encodeEsDocument() throws IOException {
+        return ArticleCodec.toJson(article);
+    }
+
+    /**
+     * Прежняя сериализация документа через ObjectMapper.
+     */
+    @Benchmark
+    public byte[] legacyEncodeEsDocument() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(article);
+    }
+}
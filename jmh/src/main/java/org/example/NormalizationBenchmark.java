@@ -0,0 +1,80 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Пропускная способность извлечения и нормализации текста в документах в секунду:
+ * нормализация одной статьи и обработка пакета страниц последовательно и параллельно.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormalizationBenchmark {
+
+    private static final int BATCH = 64;
+    private static final String URL = Fixtures.ARTICLE_URL;
+    private static final String HASH = "fixture";
+
+    private ArticleExtractor extractor;
+    private TextNormalizer normalizer;
+    private Article article;
+    private List<byte[]> pages;
+
+    @Setup
+    public void setUp() throws IOException {
+        ExtractionRules rules = ExtractionRules.load(null);
+        extractor = new ArticleExtractor(ArticleExtractor.Mode.STREAM, rules);
+        normalizer = new TextNormalizer(rules);
+        article = Fixtures.article();
+        byte[] page = Fixtures.load(Fixtures.ARTICLE_PAGE);
+        pages = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            pages.add(page);
+        }
+    }
+
+    @Benchmark
+    public Article normalize() {
+        return normalizer.normalize(article);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Article> pipelineSequential() {
+        return pages.stream().map(this::extractAndNormalize).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Article> pipelineParallel() {
+        return pages.parallelStream().map(this::extractAndNormalize).collect(Collectors.toList());
+    }
+
+    private Article extractAndNormalize(byte[] page) {
+        try {
+            return normalizer.normalize(extractor.extract(page, URL, HASH));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+#!/bin/sh
+# Собирает проект и нагрузочный тест, запускает его и записывает отчет в results/<дата-время>.txt.
+# Аргументы переопределяют loadtest.properties, например: ./run-loadtest.sh site.list-pages=500 site.error-rate=0.05
+# Код выхода 1, если не выполнены пороги gate.* — так тест используется как проверка изменений масштабирования.
+set -e
+cd "$(dirname "$0")"
+(cd .. && mvn -B -q -DskipTests install)
+mvn -B -q package
+mkdir -p results
+report="results/$(date +%Y-%m-%d-%H%M%S).txt"
+status=0
+java -jar target/loadtest.jar "$@" > "$report" || status=$?
+cat "$report"
+exit $status
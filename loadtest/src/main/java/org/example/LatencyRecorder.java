@@ -0,0 +1,55 @@
+package org.example;
+
+import java.util.Arrays;
+
+/**
+ * Точная запись задержек для отчета нагрузочного теста.
+ * Хранит все значения, поэтому квантили вычисляются без погрешности корзин
+ * {@link MetricsRegistry.Histogram}; рассчитан на десятки и сотни тысяч значений за прогон.
+ */
+final class LatencyRecorder {
+
+    private long[] values = new long[1024];
+    private int size;
+
+    /**
+     * Записывает задержку.
+     *
+     * @param nanos Задержка в наносекундах.
+     */
+    synchronized void record(long nanos) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = nanos;
+    }
+
+    /**
+     * Записывает задержку, прошедшую с момента startNanos.
+     *
+     * @param startNanos Значение {@link System#nanoTime()} в начале операции.
+     */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    synchronized int count() {
+        return size;
+    }
+
+    /**
+     * Возвращает квантиль задержки.
+     *
+     * @param q Квантиль от 0 до 1.
+     * @return Задержка в миллисекундах или NaN, если значений нет.
+     */
+    synchronized double quantileMillis(double q) {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        long[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(size - 1, Math.max(0, Math.ceil(q * size) - 1));
+        return sorted[index] / 1e6;
+    }
+}
@@ -0,0 +1,403 @@
+package org.example;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Нагрузочный тест конвейера GetLink -> Parser -> PublishInfo без сети и внешних сервисов.
+ * Сайт ({@link StubSite}), RabbitMQ ({@link StubBroker}) и Elasticsearch ({@link StubElasticsearch})
+ * заменены заглушками в этом же процессе, а этапы краулера — настоящие, с настройками из
+ * loadtest.properties. Прогон идет до опустошения очередей, как запуск краулера без --continuous.
+ * В отчете:
+ * - пропускная способность: загруженных страниц статей в минуту и записанных документов в секунду
+ *   за время от запуска до записи последнего документа;
+ * - задержки этапов: p50/p99 загрузки, разбора и _bulk — оценка по корзинам гистограмм {@link CrawlMetrics},
+ *   ожидание в очереди и обработка сообщения — точно по отметкам заглушки брокера,
+ *   от публикации ссылки до записи документа — точно;
+ * - память: наибольшая занятая куча во время прогона и после сборки мусора в конце, сборки мусора.
+ * Пороги gate.* превращают тест в проверку: если они не выполнены или документы потеряны, код выхода 1.
+ * Заглушки работают в том же процессе и делят с краулером процессор и кучу.
+ */
+public class LoadTest {
+
+    private static final String RESOURCE = "loadtest.properties";
+    private static final String LINK_QUEUE = "link";
+    private static final String INFO_QUEUE = "info";
+    private static final int ES_THREADS = 8;
+
+    public static void main(String[] args) throws Exception {
+        CrawlerConfig config = loadConfig(args);
+        MessageCodec codec = MessageCodec.forName(config.getString("queue.message-format"));
+        RecrawlPolicy policy = new RecrawlPolicy(config.getInt("queue.link.max-priority"), 10,
+                3_600_000L, 2_592_000_000L);
+        int parseThreads = config.getInt("parse.threads");
+        if (parseThreads <= 0) {
+            parseThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        // Время публикации каждой новой ссылки: задержка до записи документа считается по _id
+        Map<String, Long> linkPublished = new ConcurrentHashMap<>();
+        AtomicInteger discovered = new AtomicInteger();
+        LatencyRecorder endToEnd = new LatencyRecorder();
+        StubBroker broker = new StubBroker();
+        broker.setPublishListener((queue, properties, body) -> {
+            if (!LINK_QUEUE.equals(queue)) {
+                return;
+            }
+            try {
+                String hash = MessageCodec.forContentType(properties.getContentType()).decodeLink(body).getHash();
+                if (linkPublished.putIfAbsent(hash, System.nanoTime()) == null) {
+                    discovered.incrementAndGet();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Undecodable link message", e);
+            }
+        });
+
+        Path dataDir = Files.createTempDirectory("loadtest");
+        HeapSampler heap = new HeapSampler(config.getLong("report.heap-sample-ms"));
+        long inFlightBytes = config.getLong("fetch.in-flight-bytes");
+        ByteBudget bodyBudget = new ByteBudget(inFlightBytes > 0 ? inFlightBytes : Long.MAX_VALUE);
+        BufferPool bodyBuffers = new BufferPool(config.getLong("fetch.buffer-pool.max-bytes"));
+        long startNanos;
+        boolean passed;
+        try (StubSite site = new StubSite(config.getInt("site.list-pages"), config.getInt("site.articles-per-page"),
+                     config.getInt("site.paragraphs"), config.getInt("site.comments"),
+                     config.getLong("site.latency-ms"), config.getLong("site.latency-jitter-ms"),
+                     config.getDouble("site.error-rate"), config.getInt("site.error-status"),
+                     config.getInt("site.threads"));
+             StubElasticsearch elasticsearch = new StubElasticsearch(config.getLong("es.latency-ms"),
+                     config.getDouble("es.reject-rate"), ES_THREADS, id -> {
+                         Long published = linkPublished.remove(id);
+                         if (published != null) {
+                             endToEnd.recordSince(published);
+                         }
+                     });
+             PolitenessScheduler scheduler = new PolitenessScheduler(config.getDouble("fetch.max-rate"),
+                     config.getDouble("fetch.min-rate"), config.getDouble("fetch.burst"));
+             FetchEngine fetchEngine = new FetchEngine(
+                     Duration.ofMillis(config.getLong("fetch.connect-timeout-ms")),
+                     Duration.ofMillis(config.getLong("fetch.request-timeout-ms")),
+                     config.getInt("fetch.max-per-host"), scheduler, Duration.ofHours(1), null,
+                     config.getInt("fetch.max-body-bytes"), bodyBudget, bodyBuffers)) {
+            ExtractionRules rules = siteRules(site.getHost());
+            ArticleExtractor extractor = new ArticleExtractor(
+                    ArticleExtractor.Mode.valueOf(config.getString("extraction.mode").toUpperCase(Locale.ROOT)), rules);
+            ParseStage parseStage = new ParseStage(extractor,
+                    config.getBoolean("extraction.normalize") ? new TextNormalizer(rules) : null, parseThreads);
+            ElasticSearchManager elasticsearchManager = new ElasticSearchManager(List.of(elasticsearch.getUrl()),
+                    ElasticSearchManager.ClientOptions.DEFAULT, ElasticSearchManager.IndexOptions.DEFAULT);
+            SeenUrlFilter seenUrls = new SeenUrlFilter(dataDir.resolve("seen-urls.bloom"),
+                    Math.max(1000, site.getArticles() * 2L), 0.0001);
+            CrawlFrontier frontier = new CrawlFrontier(dataDir.resolve("frontier.log"), 3, 1000);
+            try {
+                elasticsearchManager.init();
+                // Очереди объявляются до запуска этапов, как в Main: иначе первые ссылки некуда публиковать
+                try (Connection connection = broker.newConnection();
+                     Channel channel = connection.createChannel()) {
+                    QueueConsumer.declareQueue(channel, LINK_QUEUE, policy.queueArguments());
+                    QueueConsumer.declareQueue(channel, INFO_QUEUE, null);
+                }
+
+                long idleTimeoutMillis = config.getLong("consumer.idle-timeout-ms");
+                GetLink getLink = new GetLink(site.listUrl(), broker, LINK_QUEUE, fetchEngine, seenUrls,
+                        config.getInt("site.list-pages"), rules, codec, frontier, policy);
+                List<Parser> parsers = new ArrayList<>();
+                for (int i = 0; i < config.getInt("parse.consumers"); i++) {
+                    parsers.add(new Parser(broker, LINK_QUEUE, INFO_QUEUE, fetchEngine, parseStage, codec,
+                            config.getInt("parse.prefetch"), idleTimeoutMillis, frontier, policy));
+                }
+                SimHashIndex nearDuplicates = new SimHashIndex(100_000, 3);
+                List<PublishInfo> indexers = new ArrayList<>();
+                for (int i = 0; i < config.getInt("index.consumers"); i++) {
+                    indexers.add(new PublishInfo(broker, INFO_QUEUE, elasticsearchManager,
+                            config.getInt("index.bulk.actions"), config.getLong("index.bulk.bytes"),
+                            config.getLong("index.bulk.linger-ms"), config.getInt("index.bulk.max-in-flight"),
+                            config.getInt("index.prefetch"), idleTimeoutMillis, nearDuplicates, frontier));
+                }
+                CrawlPipeline pipeline = new CrawlPipeline(List.of(getLink::run), parsers, indexers,
+                        List.of(fetchEngine.getStats(), parseStage.getStats()), config.getLong("stats.interval-ms"));
+
+                heap.start();
+                startNanos = System.nanoTime();
+                pipeline.run();
+                heap.stop();
+            } finally {
+                parseStage.close();
+                elasticsearchManager.close();
+                frontier.close();
+                seenUrls.close();
+                broker.close();
+            }
+
+            Report report = new Report(config, site, elasticsearch, broker, heap, endToEnd, bodyBudget, bodyBuffers,
+                    discovered.get(), startNanos);
+            report.print();
+            passed = report.passed();
+        } finally {
+            deleteRecursively(dataDir);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Читает настройки теста из ресурса и аргументов вида параметр=значение.
+     *
+     * @param args Аргументы командной строки.
+     * @return Настройки.
+     * @throws IOException Если ресурс не читается.
+     */
+    private static CrawlerConfig loadConfig(String[] args) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream input = LoadTest.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (input == null) {
+                throw new IOException("Load test configuration resource not found: " + RESOURCE);
+            }
+            properties.load(new InputStreamReader(input, StandardCharsets.UTF_8));
+        }
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String key = separator > 0 ? arg.substring(0, separator) : arg;
+            if (separator <= 0 || !properties.containsKey(key)) {
+                throw new IllegalArgumentException("Unknown load test parameter: " + arg);
+            }
+            properties.setProperty(key, arg.substring(separator + 1));
+        }
+        return new CrawlerConfig(properties);
+    }
+
+    /**
+     * Возвращает правила Habr, привязанные к хосту заглушки сайта.
+     *
+     * @param host Хост заглушки.
+     * @return Правила извлечения.
+     * @throws IOException Если встроенные правила не читаются.
+     */
+    private static ExtractionRules siteRules(String host) throws IOException {
+        ExtractionRules.SiteProfile habr = ExtractionRules.load(null).forHost("habr.com");
+        return new ExtractionRules(List.of(new ExtractionRules.SiteProfile(habr.getName(), List.of(host),
+                habr.getListItem(), habr.getListLink(), habr.getTitle(), habr.getAuthor(), habr.getTime(),
+                habr.getBody(), habr.getParagraph(), habr.getBoilerplate())));
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Периодический замер занятой кучи и счетчики сборок мусора за прогон.
+     */
+    private static final class HeapSampler {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final long intervalMillis;
+        private final AtomicLong peakBytes = new AtomicLong();
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "heap-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private long startCollections;
+        private long startCollectionMillis;
+        private long collections;
+        private long collectionMillis;
+
+        private HeapSampler(long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+
+        private void start() {
+            startCollections = totalCollections();
+            startCollectionMillis = totalCollectionMillis();
+            executor.scheduleAtFixedRate(this::sample, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            peakBytes.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        }
+
+        private void stop() {
+            executor.shutdown();
+            sample();
+            collections = totalCollections() - startCollections;
+            collectionMillis = totalCollectionMillis() - startCollectionMillis;
+        }
+
+        /**
+         * Занятая куча после полной сборки мусора: то, что краулер удерживает после прогона.
+         */
+        private long retainedBytes() {
+            System.gc();
+            return memory.getHeapMemoryUsage().getUsed();
+        }
+
+        private static long totalCollections() {
+            long total = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                total += Math.max(0, collector.getCollectionCount());
+            }
+            return total;
+        }
+
+        private static long totalCollectionMillis() {
+            long total = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                total += Math.max(0, collector.getCollectionTime());
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Отчет о прогоне и проверка порогов.
+     */
+    private static final class Report {
+        private final CrawlerConfig config;
+        private final StubSite site;
+        private final StubElasticsearch elasticsearch;
+        private final StubBroker broker;
+        private final HeapSampler heap;
+        private final LatencyRecorder endToEnd;
+        private final ByteBudget bodyBudget;
+        private final BufferPool bodyBuffers;
+        private final int discovered;
+        private final double seconds;
+        private final List<String> failures = new ArrayList<>();
+
+        private Report(CrawlerConfig config, StubSite site, StubElasticsearch elasticsearch, StubBroker broker,
+                       HeapSampler heap, LatencyRecorder endToEnd, ByteBudget bodyBudget, BufferPool bodyBuffers,
+                       int discovered, long startNanos) {
+            this.config = config;
+            this.site = site;
+            this.elasticsearch = elasticsearch;
+            this.broker = broker;
+            this.heap = heap;
+            this.endToEnd = endToEnd;
+            this.bodyBudget = bodyBudget;
+            this.bodyBuffers = bodyBuffers;
+            this.discovered = discovered;
+            // Время до записи последнего документа: простой потребителей перед завершением не учитывается
+            long endNanos = elasticsearch.getLastIndexedNanos() > startNanos
+                    ? elasticsearch.getLastIndexedNanos() : System.nanoTime();
+            this.seconds = (endNanos - startNanos) / 1e9;
+        }
+
+        private void print() {
+            StubBroker.QueueStats links = broker.stats(LINK_QUEUE);
+            StubBroker.QueueStats info = broker.stats(INFO_QUEUE);
+            int indexed = endToEnd.count();
+            double pagesPerMinute = site.getArticleRequests() * 60 / seconds;
+            // Отклоненные этапами сообщения лежат в очередях .dead: они не потеряны, а отброшены
+            long failed = links.getDeadLettered() + info.getDeadLettered() + links.getDropped() + info.getDropped();
+            long lost = discovered - indexed - failed;
+
+            System.out.printf(Locale.ROOT, "Load test: %d articles on %d list pages, site latency %d+%d ms, "
+                            + "error rate %.1f%% (HTTP %d), Elasticsearch latency %d ms, reject rate %.1f%%%n",
+                    site.getArticles(), config.getInt("site.list-pages"), config.getLong("site.latency-ms"),
+                    config.getLong("site.latency-jitter-ms"), config.getDouble("site.error-rate") * 100,
+                    config.getInt("site.error-status"), config.getLong("es.latency-ms"),
+                    config.getDouble("es.reject-rate") * 100);
+            System.out.printf(Locale.ROOT, "%-28s %.2f s (until the last document was indexed)%n", "Duration", seconds);
+            System.out.printf(Locale.ROOT, "%-28s %d requests, %d article pages, %d errors, %.1f MB%n", "Site",
+                    site.getRequests(), site.getArticleRequests(), site.getErrors(), site.getBytes() / 1e6);
+            System.out.printf(Locale.ROOT, "%-28s %d discovered, %d indexed, %d failed, %d lost%n", "Articles",
+                    discovered, indexed, failed, lost);
+            System.out.printf(Locale.ROOT, "%-28s %d requests, %d documents written, %d rejected%n", "Elasticsearch",
+                    elasticsearch.getBulkRequests(), elasticsearch.getIndexed(), elasticsearch.getRejected());
+            System.out.printf(Locale.ROOT, "%-28s %.0f article pages/min, %.1f documents/s%n", "Throughput",
+                    pagesPerMinute, indexed / seconds);
+            System.out.println();
+            System.out.printf(Locale.ROOT, "%-28s %10s %10s %10s%n", "Latency, ms", "p50", "p99", "count");
+            histogramRow("fetch (HTTP 200)*", CrawlMetrics.fetchSeconds("200"));
+            histogramRow("parse*", CrawlMetrics.PARSE_SECONDS);
+            latencyRow("link queue wait", links.getWait());
+            latencyRow("link processing", links.getProcessing());
+            latencyRow("info queue wait", info.getWait());
+            latencyRow("info processing", info.getProcessing());
+            histogramRow("elasticsearch _bulk*", CrawlMetrics.BULK_SECONDS);
+            latencyRow("end-to-end", endToEnd);
+            System.out.println("* estimated from metric histogram buckets");
+            System.out.println();
+            System.out.printf(Locale.ROOT, "%-28s peak %.1f MB, retained %.1f MB, max %.1f MB%n", "Heap",
+                    heap.peakBytes.get() / 1e6, heap.retainedBytes() / 1e6,
+                    Runtime.getRuntime().maxMemory() / 1e6);
+            System.out.printf(Locale.ROOT, "%-28s %d collections, %d ms%n", "GC", heap.collections,
+                    heap.collectionMillis);
+            System.out.printf(Locale.ROOT, "%-28s %d truncated, %d bytes in flight at exit, %d pooled buffers (%.1f MB)%n",
+                    "Response bodies", CrawlMetrics.FETCH_TRUNCATED.get(), bodyBudget.getUsed(), bodyBuffers.size(),
+                    bodyBuffers.getPooledBytes() / 1e6);
+            long retried = 0;
+            for (String delayQueue : Parser.delayQueues(LINK_QUEUE)) {
+                StubBroker.QueueStats delayed = broker.stats(delayQueue);
+                retried += delayed != null ? delayed.getDeadLettered() : 0;
+            }
+            System.out.printf(Locale.ROOT, "%-28s %d requeued, %d retried via %s.*%n", "Link queue",
+                    links.getRequeued(), retried, Parser.delayQueue(LINK_QUEUE));
+
+            if (indexed == 0) {
+                failures.add("no documents indexed");
+            }
+            if (lost > 0) {
+                failures.add(lost + " articles lost between discovery and Elasticsearch");
+            }
+            if (bodyBudget.getUsed() > 0) {
+                // Каждый результат загрузки должен быть закрыт, иначе бюджет со временем остановит загрузку
+                failures.add(bodyBudget.getUsed() + " bytes of response bodies not released");
+            }
+            long minPagesPerMinute = config.getLong("gate.min-pages-per-minute");
+            if (minPagesPerMinute > 0 && pagesPerMinute < minPagesPerMinute) {
+                failures.add(String.format(Locale.ROOT, "throughput %.0f pages/min is below %d",
+                        pagesPerMinute, minPagesPerMinute));
+            }
+            long maxEndToEndMillis = config.getLong("gate.max-end-to-end-p99-ms");
+            double endToEndP99 = endToEnd.quantileMillis(0.99);
+            if (maxEndToEndMillis > 0 && !(endToEndP99 <= maxEndToEndMillis)) {
+                failures.add(String.format(Locale.ROOT, "end-to-end p99 %.0f ms is above %d ms",
+                        endToEndP99, maxEndToEndMillis));
+            }
+            System.out.println();
+            System.out.println(failures.isEmpty() ? "Gate: PASSED" : "Gate: FAILED: " + String.join("; ", failures));
+        }
+
+        private boolean passed() {
+            return failures.isEmpty();
+        }
+
+        private static void latencyRow(String name, LatencyRecorder latency) {
+            System.out.printf(Locale.ROOT, "  %-26s %10.1f %10.1f %10d%n", name, latency.quantileMillis(0.5),
+                    latency.quantileMillis(0.99), latency.count());
+        }
+
+        private static void histogramRow(String name, MetricsRegistry.Histogram histogram) {
+            System.out.printf(Locale.ROOT, "  %-26s %10.1f %10.1f %10d%n", name, histogram.quantile(0.5) * 1000,
+                    histogram.quantile(0.99) * 1000, histogram.getCount());
+        }
+    }
+}
@@ -0,0 +1,549 @@
+package org.example;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.impl.AMQImpl;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Замена RabbitMQ в том же процессе для нагрузочного теста.
+ * Фабрика соединений возвращает соединения и каналы, которые реализуют только то, чем пользуются
+ * этапы краулера: объявление очередей с x-max-priority и x-dead-letter-routing-key, публикацию
+ * в обменник по умолчанию, basicQos, basicConsume и basicCancel, ack и nack (в том числе multiple)
+ * и TTL сообщения (expiration) или очереди (x-message-ttl) с возвратом в очередь dead letter. Остальные методы бросают
+ * UnsupportedOperationException, чтобы тест не прошел молча на непроверенном пути.
+ * Как и у брокера, доставки канала идут по очереди в одном потоке, неподтвержденных сообщений
+ * на канале не больше prefetch, а при закрытии канала они возвращаются в очередь.
+ * По каждой очереди считаются задержка от публикации до доставки и от доставки до подтверждения.
+ */
+final class StubBroker extends ConnectionFactory {
+
+    private static final String MAX_PRIORITY_ARGUMENT = "x-max-priority";
+    private static final String DEAD_LETTER_ARGUMENT = "x-dead-letter-routing-key";
+    private static final String MESSAGE_TTL_ARGUMENT = "x-message-ttl";
+
+    /**
+     * Получатель уведомлений о публикации сообщений.
+     */
+    interface PublishListener {
+        void onPublish(String queue, AMQP.BasicProperties properties, byte[] body);
+    }
+
+    private final Object lock = new Object();
+    private final Map<String, StubQueue> queues = new HashMap<>();
+    private final AtomicInteger channelNumbers = new AtomicInteger();
+    private final AtomicInteger consumerTags = new AtomicInteger();
+    private final ScheduledExecutorService expirations = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stub-broker-ttl");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile PublishListener publishListener;
+    private long sequence;
+
+    void setPublishListener(PublishListener publishListener) {
+        this.publishListener = publishListener;
+    }
+
+    @Override
+    public Connection newConnection() {
+        return proxy(Connection.class, new StubConnection());
+    }
+
+    /**
+     * Возвращает статистику очереди.
+     *
+     * @param queue Имя очереди.
+     * @return Статистика или null, если очередь не объявлена.
+     */
+    QueueStats stats(String queue) {
+        synchronized (lock) {
+            StubQueue stubQueue = queues.get(queue);
+            return stubQueue != null ? stubQueue.stats : null;
+        }
+    }
+
+    /**
+     * Останавливает таймеры TTL.
+     */
+    void close() {
+        expirations.shutdownNow();
+    }
+
+    private static <T> T proxy(Class<T> type, Object target) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    return target.toString();
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    break;
+            }
+            Method implementation;
+            try {
+                implementation = target.getClass().getDeclaredMethod(method.getName(), Object[].class);
+                implementation.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new UnsupportedOperationException("StubBroker does not support " + method);
+            }
+            try {
+                return implementation.invoke(target, (Object) (args != null ? args : new Object[0]));
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(StubBroker.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Статистика очереди; значения меняются под блокировкой брокера.
+     */
+    static final class QueueStats {
+        private final LatencyRecorder wait = new LatencyRecorder();
+        private final LatencyRecorder processing = new LatencyRecorder();
+        private long published;
+        private long acked;
+        private long requeued;
+        private long deadLettered;
+        private long dropped;
+
+        /**
+         * Задержка от публикации (или возврата в очередь) до доставки потребителю.
+         */
+        LatencyRecorder getWait() {
+            return wait;
+        }
+
+        /**
+         * Задержка от доставки до подтверждения: время обработки сообщения этапом.
+         */
+        LatencyRecorder getProcessing() {
+            return processing;
+        }
+
+        long getPublished() {
+            return published;
+        }
+
+        long getAcked() {
+            return acked;
+        }
+
+        long getRequeued() {
+            return requeued;
+        }
+
+        long getDeadLettered() {
+            return deadLettered;
+        }
+
+        /**
+         * Сообщения, отклоненные без возврата в очередь и без очереди dead letter.
+         */
+        long getDropped() {
+            return dropped;
+        }
+    }
+
+    private static final class Message {
+        private final AMQP.BasicProperties properties;
+        private final byte[] body;
+        private final int priority;
+        private final long sequence;
+        private long enqueuedNanos = System.nanoTime();
+        private boolean redelivered;
+
+        private Message(AMQP.BasicProperties properties, byte[] body, int priority, long sequence) {
+            this.properties = properties;
+            this.body = body;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Delivery {
+        private final StubQueue queue;
+        private final Message message;
+        private final long deliveredNanos = System.nanoTime();
+
+        private Delivery(StubQueue queue, Message message) {
+            this.queue = queue;
+            this.message = message;
+        }
+    }
+
+    private static final class Subscription {
+        private final String tag;
+        private final StubChannel channel;
+        private final Consumer consumer;
+
+        private Subscription(String tag, StubChannel channel, Consumer consumer) {
+            this.tag = tag;
+            this.channel = channel;
+            this.consumer = consumer;
+        }
+    }
+
+    private static final class StubQueue {
+        private final String name;
+        private final int maxPriority;
+        private final String deadLetterQueue;
+        private final long messageTtlMillis;
+        // Старший приоритет первым, при равном — в порядке публикации
+        private final PriorityQueue<Message> messages = new PriorityQueue<>(
+                Comparator.comparingInt((Message message) -> -message.priority)
+                        .thenComparingLong(message -> message.sequence));
+        private final List<Subscription> subscriptions = new ArrayList<>();
+        private final QueueStats stats = new QueueStats();
+        private int nextSubscription;
+
+        private StubQueue(String name, Map<?, ?> arguments) {
+            this.name = name;
+            Object maxPriority = arguments != null ? arguments.get(MAX_PRIORITY_ARGUMENT) : null;
+            this.maxPriority = maxPriority instanceof Number ? ((Number) maxPriority).intValue() : 0;
+            Object deadLetter = arguments != null ? arguments.get(DEAD_LETTER_ARGUMENT) : null;
+            this.deadLetterQueue = deadLetter != null ? deadLetter.toString() : null;
+            Object messageTtl = arguments != null ? arguments.get(MESSAGE_TTL_ARGUMENT) : null;
+            this.messageTtlMillis = messageTtl instanceof Number ? ((Number) messageTtl).longValue() : -1;
+        }
+    }
+
+    /**
+     * Кладет сообщение в очередь. Вызывается под блокировкой брокера.
+     */
+    private void enqueue(StubQueue queue, AMQP.BasicProperties properties, byte[] body) {
+        Integer requested = properties != null ? properties.getPriority() : null;
+        int priority = queue.maxPriority > 0 && requested != null
+                ? Math.max(0, Math.min(queue.maxPriority, requested)) : 0;
+        Message message = new Message(properties, body, priority, sequence++);
+        queue.messages.add(message);
+        queue.stats.published++;
+        String expiration = properties != null ? properties.getExpiration() : null;
+        long ttlMillis = queue.messageTtlMillis;
+        if (expiration != null) {
+            // Как у брокера, действует меньший из TTL сообщения и очереди
+            long messageTtl = Long.parseLong(expiration);
+            ttlMillis = ttlMillis < 0 ? messageTtl : Math.min(ttlMillis, messageTtl);
+        }
+        if (ttlMillis >= 0) {
+            expirations.schedule(() -> expire(queue, message), ttlMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void expire(StubQueue queue, Message message) {
+        synchronized (lock) {
+            if (queue.messages.remove(message)) {
+                deadLetter(queue, message);
+                dispatchAll();
+            }
+        }
+    }
+
+    /**
+     * Переносит сообщение в очередь dead letter без TTL, как брокер после истечения TTL или nack.
+     * Вызывается под блокировкой брокера.
+     */
+    private void deadLetter(StubQueue queue, Message message) {
+        StubQueue target = queue.deadLetterQueue != null ? queues.get(queue.deadLetterQueue) : null;
+        if (target == null) {
+            queue.stats.dropped++;
+            return;
+        }
+        queue.stats.deadLettered++;
+        AMQP.BasicProperties properties = message.properties != null
+                ? message.properties.builder().expiration(null).build() : null;
+        enqueue(target, properties, message.body);
+    }
+
+    /**
+     * Доставляет сообщения всех очередей подписчикам, у каналов которых есть место до prefetch.
+     * Вызывается под блокировкой брокера; сами доставки выполняются в потоках каналов.
+     */
+    private void dispatchAll() {
+        for (StubQueue queue : queues.values()) {
+            int attempts = 0;
+            while (!queue.messages.isEmpty() && !queue.subscriptions.isEmpty()
+                    && attempts < queue.subscriptions.size()) {
+                Subscription subscription = queue.subscriptions.get(
+                        queue.nextSubscription++ % queue.subscriptions.size());
+                StubChannel channel = subscription.channel;
+                if (channel.prefetch > 0 && channel.unacked.size() >= channel.prefetch) {
+                    attempts++;
+                    continue;
+                }
+                attempts = 0;
+                Message message = queue.messages.poll();
+                queue.stats.wait.recordSince(message.enqueuedNanos);
+                long deliveryTag = ++channel.deliveryTag;
+                channel.unacked.put(deliveryTag, new Delivery(queue, message));
+                Envelope envelope = new Envelope(deliveryTag, message.redelivered, "", queue.name);
+                channel.deliveries.execute(() -> {
+                    if (!channel.open) {
+                        return;
+                    }
+                    try {
+                        subscription.consumer.handleDelivery(subscription.tag, envelope, message.properties,
+                                message.body);
+                    } catch (IOException | RuntimeException e) {
+                        channel.nack(deliveryTag, false, true);
+                    }
+                });
+            }
+        }
+    }
+
+    private final class StubConnection {
+        private final List<StubChannel> channels = new ArrayList<>();
+        private volatile boolean open = true;
+
+        Object createChannel(Object[] args) {
+            StubChannel channel = new StubChannel(channelNumbers.incrementAndGet());
+            synchronized (channels) {
+                channels.add(channel);
+            }
+            return proxy(Channel.class, channel);
+        }
+
+        Object close(Object[] args) {
+            List<StubChannel> open;
+            synchronized (channels) {
+                open = new ArrayList<>(channels);
+                channels.clear();
+            }
+            for (StubChannel channel : open) {
+                channel.close(new Object[0]);
+            }
+            this.open = false;
+            return null;
+        }
+
+        Object abort(Object[] args) {
+            return close(args);
+        }
+
+        Object isOpen(Object[] args) {
+            return open;
+        }
+
+        @Override
+        public String toString() {
+            return "StubConnection";
+        }
+    }
+
+    private final class StubChannel {
+        private final int number;
+        private final TreeMap<Long, Delivery> unacked = new TreeMap<>();
+        private final ExecutorService deliveries;
+        private int prefetch;
+        private long deliveryTag;
+        private volatile boolean open = true;
+
+        private StubChannel(int number) {
+            this.number = number;
+            this.deliveries = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "stub-broker-channel-" + number);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        Object getChannelNumber(Object[] args) {
+            return number;
+        }
+
+        Object isOpen(Object[] args) {
+            return open;
+        }
+
+        Object queueDeclare(Object[] args) {
+            String name = (String) args[0];
+            synchronized (lock) {
+                StubQueue queue = queues.computeIfAbsent(name, key -> new StubQueue(key, (Map<?, ?>) args[4]));
+                return new AMQImpl.Queue.DeclareOk(name, queue.messages.size(), queue.subscriptions.size());
+            }
+        }
+
+        Object basicQos(Object[] args) {
+            // basicQos(count), basicQos(count, global) или basicQos(size, count, global)
+            int count = (Integer) (args.length == 3 ? args[1] : args[0]);
+            synchronized (lock) {
+                prefetch = count;
+            }
+            return null;
+        }
+
+        Object basicPublish(Object[] args) {
+            // basicPublish(exchange, routingKey, [mandatory, [immediate,]] properties, body)
+            String routingKey = (String) args[1];
+            AMQP.BasicProperties properties = (AMQP.BasicProperties) args[args.length - 2];
+            byte[] body = (byte[]) args[args.length - 1];
+            synchronized (lock) {
+                StubQueue queue = queues.get(routingKey);
+                if (queue == null) {
+                    // Брокер молча отбрасывает сообщения без маршрута
+                    return null;
+                }
+                enqueue(queue, properties, body);
+                dispatchAll();
+            }
+            PublishListener listener = publishListener;
+            if (listener != null) {
+                listener.onPublish(routingKey, properties, body);
+            }
+            return null;
+        }
+
+        Object basicConsume(Object[] args) {
+            // basicConsume(queue, [autoAck,] callback): подтверждение всегда ручное
+            String name = (String) args[0];
+            Consumer consumer = (Consumer) args[args.length - 1];
+            String tag = "stub-consumer-" + consumerTags.incrementAndGet();
+            synchronized (lock) {
+                StubQueue queue = queues.get(name);
+                if (queue == null) {
+                    throw new IllegalStateException("Queue " + name + " is not declared");
+                }
+                queue.subscriptions.add(new Subscription(tag, this, consumer));
+                deliveries.execute(() -> consumer.handleConsumeOk(tag));
+                dispatchAll();
+            }
+            return tag;
+        }
+
+        Object basicCancel(Object[] args) {
+            String tag = (String) args[0];
+            synchronized (lock) {
+                for (StubQueue queue : queues.values()) {
+                    Iterator<Subscription> iterator = queue.subscriptions.iterator();
+                    while (iterator.hasNext()) {
+                        Subscription subscription = iterator.next();
+                        if (subscription.tag.equals(tag)) {
+                            iterator.remove();
+                            deliveries.execute(() -> subscription.consumer.handleCancelOk(tag));
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        Object basicAck(Object[] args) {
+            long tag = (Long) args[0];
+            boolean multiple = (Boolean) args[1];
+            synchronized (lock) {
+                for (Delivery delivery : take(tag, multiple)) {
+                    delivery.queue.stats.processing.recordSince(delivery.deliveredNanos);
+                    delivery.queue.stats.acked++;
+                }
+                dispatchAll();
+            }
+            return null;
+        }
+
+        Object basicNack(Object[] args) {
+            nack((Long) args[0], (Boolean) args[1], (Boolean) args[2]);
+            return null;
+        }
+
+        Object basicReject(Object[] args) {
+            nack((Long) args[0], false, (Boolean) args[1]);
+            return null;
+        }
+
+        private void nack(long tag, boolean multiple, boolean requeue) {
+            synchronized (lock) {
+                for (Delivery delivery : take(tag, multiple)) {
+                    delivery.queue.stats.processing.recordSince(delivery.deliveredNanos);
+                    if (requeue) {
+                        requeue(delivery);
+                    } else {
+                        deadLetter(delivery.queue, delivery.message);
+                    }
+                }
+                dispatchAll();
+            }
+        }
+
+        private void requeue(Delivery delivery) {
+            Message message = delivery.message;
+            message.redelivered = true;
+            message.enqueuedNanos = System.nanoTime();
+            delivery.queue.messages.add(message);
+            delivery.queue.stats.requeued++;
+        }
+
+        /**
+         * Забирает неподтвержденные доставки по тегу; подтверждение неизвестного тега игнорируется.
+         * Вызывается под блокировкой брокера.
+         */
+        private List<Delivery> take(long tag, boolean multiple) {
+            List<Delivery> taken = new ArrayList<>();
+            if (multiple) {
+                Map<Long, Delivery> head = unacked.headMap(tag, true);
+                taken.addAll(head.values());
+                head.clear();
+            } else {
+                Delivery delivery = unacked.remove(tag);
+                if (delivery != null) {
+                    taken.add(delivery);
+                }
+            }
+            return taken;
+        }
+
+        Object close(Object[] args) {
+            synchronized (lock) {
+                if (!open) {
+                    return null;
+                }
+                open = false;
+                for (StubQueue queue : queues.values()) {
+                    queue.subscriptions.removeIf(subscription -> subscription.channel == this);
+                }
+                // Неподтвержденные сообщения закрытого канала возвращаются в очередь
+                for (Delivery delivery : unacked.values()) {
+                    requeue(delivery);
+                }
+                unacked.clear();
+                dispatchAll();
+            }
+            deliveries.shutdown();
+            return null;
+        }
+
+        Object abort(Object[] args) {
+            return close(args);
+        }
+
+        @Override
+        public String toString() {
+            return "StubChannel " + number;
+        }
+    }
+}
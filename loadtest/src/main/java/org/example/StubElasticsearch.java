@@ -0,0 +1,300 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Заглушка Elasticsearch на локальном HTTP-сервере для нагрузочного теста.
+ * Отвечает на запросы, которые делает {@link ElasticSearchManager}: шаблон индексов, проверка
+ * и создание индекса с псевдонимом, список индексов псевдонима, _mget отпечатков по _id
+ * и _bulk с операциями create и update.
+ * Документы не хранятся: для каждого _id запоминается только отпечаток содержимого, поэтому
+ * повторная запись проходит тот же путь, что и с настоящим кластером (409 на create, update по отпечатку).
+ * Ответ на _bulk задерживается на заданное время, а доля операций отклоняется с кодом 429.
+ */
+final class StubElasticsearch implements AutoCloseable {
+
+    private static final String CONTENT_TYPE = "application/json";
+    private static final String PRODUCT_HEADER = "X-Elastic-Product";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final double rejectRate;
+    private final Consumer<String> indexedListener;
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+    private final Set<String> indices = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<String>> aliases = new ConcurrentHashMap<>();
+    private final AtomicInteger bulkRequests = new AtomicInteger();
+    private final AtomicInteger indexed = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private volatile long lastIndexedNanos;
+
+    /**
+     * Конструктор. Запускает сервер на свободном порту локального адреса.
+     *
+     * @param latencyMillis   Задержка ответа на _bulk в миллисекундах.
+     * @param rejectRate      Доля операций _bulk, отклоненных с кодом 429.
+     * @param threads         Количество потоков сервера: одновременных запросов _bulk.
+     * @param indexedListener Получатель _id каждого записанного документа.
+     * @throws IOException Если сервер не запускается.
+     */
+    StubElasticsearch(long latencyMillis, double rejectRate, int threads, Consumer<String> indexedListener)
+            throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.rejectRate = rejectRate;
+        this.indexedListener = indexedListener;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "stub-es-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    int getBulkRequests() {
+        return bulkRequests.get();
+    }
+
+    /**
+     * Количество документов, созданных или обновленных через _bulk.
+     */
+    int getIndexed() {
+        return indexed.get();
+    }
+
+    int getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Время записи последнего документа по {@link System#nanoTime()} или 0, если документов не было.
+     */
+    long getLastIndexedNanos() {
+        return lastIndexedNanos;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (path.equals("/_bulk") || path.endsWith("/_bulk")) {
+                respond(exchange, 200, bulk(new String(body, StandardCharsets.UTF_8)));
+            } else if (path.equals("/_mget")) {
+                respond(exchange, 200, mget(new String(body, StandardCharsets.UTF_8)));
+            } else if (path.startsWith("/_index_template/")) {
+                respond(exchange, 200, new JSONObject().put("acknowledged", true));
+            } else if (path.startsWith("/_alias/") && "HEAD".equals(method)) {
+                respondEmpty(exchange, aliases.containsKey(path.substring("/_alias/".length())) ? 200 : 404);
+            } else if (path.startsWith("/_alias/") && "GET".equals(method)) {
+                getAlias(exchange, path.substring("/_alias/".length()));
+            } else if ("HEAD".equals(method)) {
+                respondEmpty(exchange, indices.contains(path.substring(1)) ? 200 : 404);
+            } else if ("PUT".equals(method) && path.lastIndexOf('/') == 0) {
+                respond(exchange, 200, createIndex(path.substring(1), new String(body, StandardCharsets.UTF_8)));
+            } else {
+                respond(exchange, 400, error("illegal_argument_exception",
+                        "StubElasticsearch does not support " + method + " " + path).put("status", 400));
+            }
+        } catch (JSONException e) {
+            respond(exchange, 400, error("parse_exception", e.getMessage()).put("status", 400));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private JSONObject createIndex(String index, String body) {
+        indices.add(index);
+        if (!body.isEmpty()) {
+            JSONObject requestAliases = new JSONObject(body).optJSONObject("aliases");
+            if (requestAliases != null) {
+                for (String alias : requestAliases.keySet()) {
+                    aliases.computeIfAbsent(alias, name -> ConcurrentHashMap.newKeySet()).add(index);
+                }
+            }
+        }
+        return new JSONObject()
+                .put("acknowledged", true)
+                .put("shards_acknowledged", true)
+                .put("index", index);
+    }
+
+    /**
+     * Отвечает списком индексов псевдонима в формате GET /_alias/{name}.
+     */
+    private void getAlias(HttpExchange exchange, String alias) throws IOException {
+        Set<String> aliasIndices = aliases.get(alias);
+        if (aliasIndices == null) {
+            respond(exchange, 404, new JSONObject()
+                    .put("error", "alias [" + alias + "] missing")
+                    .put("status", 404));
+            return;
+        }
+        JSONObject response = new JSONObject();
+        for (String index : aliasIndices) {
+            response.put(index, new JSONObject().put("aliases", new JSONObject().put(alias, new JSONObject())));
+        }
+        respond(exchange, 200, response);
+    }
+
+    /**
+     * Отвечает на _mget отпечатками записанных документов. Индексы не различаются:
+     * документ найден в том индексе, о котором спросили.
+     */
+    private JSONObject mget(String body) {
+        JSONArray docs = new JSONArray();
+        JSONArray requested = new JSONObject(body).optJSONArray("docs");
+        if (requested != null) {
+            for (int i = 0; i < requested.length(); i++) {
+                JSONObject doc = requested.getJSONObject(i);
+                String id = doc.getString("_id");
+                String fingerprint = fingerprints.get(id);
+                JSONObject item = new JSONObject()
+                        .put("_index", doc.optString("_index", firstIndex()))
+                        .put("_id", id)
+                        .put("found", fingerprint != null);
+                if (fingerprint != null) {
+                    item.put("_version", 1)
+                            .put("_seq_no", 0)
+                            .put("_primary_term", 1)
+                            .put("_source", new JSONObject().put(ArticleDocument.FINGERPRINT_FIELD, fingerprint));
+                }
+                docs.put(item);
+            }
+        }
+        return new JSONObject().put("docs", docs);
+    }
+
+    /**
+     * Выполняет запрос _bulk: строки NDJSON идут парами «операция — документ».
+     */
+    private JSONObject bulk(String body) {
+        bulkRequests.incrementAndGet();
+        long startNanos = System.nanoTime();
+        JSONArray items = new JSONArray();
+        boolean errors = false;
+        String[] lines = body.split("\n");
+        for (int i = 0; i + 1 < lines.length; i += 2) {
+            JSONObject action = new JSONObject(lines[i]);
+            String operation = action.keys().next();
+            String id = action.getJSONObject(operation).getString("_id");
+            JSONObject document = new JSONObject(lines[i + 1]);
+            JSONObject item = new JSONObject().put("_index", firstIndex()).put("_id", id);
+            if (rejectRate > 0 && ThreadLocalRandom.current().nextDouble() < rejectRate) {
+                rejected.incrementAndGet();
+                item.put("status", 429).put("error", errorCause("es_rejected_execution_exception",
+                        "rejected execution of stub bulk operation"));
+                errors = true;
+            } else if ("update".equals(operation)) {
+                JSONObject doc = document.optJSONObject("doc");
+                if (fingerprints.replace(id, doc != null ? doc.optString(ArticleDocument.FINGERPRINT_FIELD) : "") == null) {
+                    item.put("status", 404).put("error", errorCause("document_missing_exception",
+                            "[" + id + "]: document missing"));
+                    errors = true;
+                } else {
+                    item.put("status", 200).put("result", "updated").put("_version", 2);
+                    indexed(id);
+                }
+            } else if ("create".equals(operation)
+                    && fingerprints.putIfAbsent(id, document.optString(ArticleDocument.FINGERPRINT_FIELD)) != null) {
+                item.put("status", 409).put("error", errorCause("version_conflict_engine_exception",
+                        "[" + id + "]: version conflict, document already exists"));
+                errors = true;
+            } else {
+                fingerprints.put(id, document.optString(ArticleDocument.FINGERPRINT_FIELD));
+                item.put("status", 201).put("result", "created").put("_version", 1);
+                indexed(id);
+            }
+            if (!item.has("error")) {
+                item.put("_shards", shards()).put("_seq_no", 0).put("_primary_term", 1);
+            }
+            items.put(new JSONObject().put(operation, item));
+        }
+        long remainingMillis = latencyMillis - (System.nanoTime() - startNanos) / 1_000_000;
+        if (remainingMillis > 0) {
+            try {
+                Thread.sleep(remainingMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return new JSONObject()
+                .put("took", (System.nanoTime() - startNanos) / 1_000_000)
+                .put("errors", errors)
+                .put("items", items);
+    }
+
+    private void indexed(String id) {
+        indexed.incrementAndGet();
+        lastIndexedNanos = System.nanoTime();
+        indexedListener.accept(id);
+    }
+
+    private String firstIndex() {
+        return indices.isEmpty() ? "article" : indices.iterator().next();
+    }
+
+    private static JSONObject shards() {
+        return new JSONObject().put("total", 1).put("successful", 1).put("skipped", 0).put("failed", 0);
+    }
+
+    private static JSONObject errorCause(String type, String reason) {
+        return new JSONObject().put("type", type).put("reason", reason);
+    }
+
+    private static JSONObject error(String type, String reason) {
+        JSONObject cause = errorCause(type, reason);
+        return new JSONObject().put("error", new JSONObject(cause.toMap())
+                .put("root_cause", new JSONArray().put(cause)));
+    }
+
+    private static void respond(HttpExchange exchange, int status, JSONObject json) throws IOException {
+        byte[] data = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.getResponseHeaders().set(PRODUCT_HEADER, "Elasticsearch");
+        exchange.sendResponseHeaders(status, data.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(data);
+        }
+    }
+
+    private static void respondEmpty(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set(PRODUCT_HEADER, "Elasticsearch");
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    /**
+     * Останавливает сервер.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+}
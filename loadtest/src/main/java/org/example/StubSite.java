@@ -0,0 +1,259 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Синтетический сайт новостей в разметке Habr на локальном HTTP-сервере.
+ * Отдает robots.txt, страницы списка /ru/news/ и /ru/news/pageN/ и страницы статей /ru/news/ID/.
+ * Текст статьи генерируется заново при каждом запросе из номера статьи, поэтому одна и та же статья
+ * всегда одинакова, а сайт не держит страницы в памяти процесса и не искажает замер кучи.
+ * Ответ задерживается на заданное время; на долю запросов статей сайт отвечает ошибкой.
+ */
+final class StubSite implements AutoCloseable {
+
+    static final String LIST_PATH = "/ru/news/";
+    private static final Pattern PAGE_PATH = Pattern.compile("/ru/news/page(\\d+)/");
+    private static final Pattern ARTICLE_PATH = Pattern.compile("/ru/news/(\\d+)/");
+    private static final String CONTENT_TYPE = "text/html; charset=utf-8";
+    private static final String[] WORDS = {
+            "данные", "сервер", "запрос", "очередь", "индекс", "поиск", "страница", "статья", "модель",
+            "система", "память", "поток", "задача", "результат", "время", "скорость", "нагрузка", "кластер",
+            "сеть", "клиент", "ответ", "ошибка", "версия", "библиотека", "код", "проект", "команда",
+            "разработчик", "пользователь", "база", "кеш", "диск", "процессор", "ядро", "Java", "Linux",
+            "Elasticsearch", "RabbitMQ", "HTTP", "API", "и", "в", "на", "с", "для", "по", "не", "как"
+    };
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int listPages;
+    private final int articlesPerPage;
+    private final int paragraphs;
+    private final int comments;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final int errorStatus;
+    private final long startMillis = System.currentTimeMillis();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger articleRequests = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Конструктор. Запускает сервер на свободном порту локального адреса.
+     *
+     * @param listPages       Количество страниц списка.
+     * @param articlesPerPage Количество статей на странице списка.
+     * @param paragraphs      Количество абзацев в статье.
+     * @param comments        Количество комментариев под статьей.
+     * @param latencyMillis   Задержка ответа в миллисекундах.
+     * @param jitterMillis    Максимальная случайная добавка к задержке.
+     * @param errorRate       Доля запросов статей, на которые сайт отвечает ошибкой.
+     * @param errorStatus     Код ответа с ошибкой.
+     * @param threads         Количество потоков сервера.
+     * @throws IOException Если сервер не запускается.
+     */
+    StubSite(int listPages, int articlesPerPage, int paragraphs, int comments, long latencyMillis,
+             long jitterMillis, double errorRate, int errorStatus, int threads) throws IOException {
+        this.listPages = listPages;
+        this.articlesPerPage = articlesPerPage;
+        this.paragraphs = paragraphs;
+        this.comments = comments;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "stub-site-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getHost() {
+        return server.getAddress().getHostString();
+    }
+
+    /**
+     * Возвращает URL первой страницы списка.
+     *
+     * @return URL страницы списка.
+     */
+    String listUrl() {
+        return "http://" + getHost() + ":" + server.getAddress().getPort() + LIST_PATH;
+    }
+
+    int getArticles() {
+        return listPages * articlesPerPage;
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    int getArticleRequests() {
+        return articleRequests.get();
+    }
+
+    int getErrors() {
+        return errors.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            sleep(latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0));
+            String path = exchange.getRequestURI().getPath();
+            if ("/robots.txt".equals(path)) {
+                respond(exchange, 200, "text/plain", "User-agent: *\nAllow: /\n");
+                return;
+            }
+            if (LIST_PATH.equals(path)) {
+                respond(exchange, 200, CONTENT_TYPE, listPage(1));
+                return;
+            }
+            Matcher page = PAGE_PATH.matcher(path);
+            if (page.matches()) {
+                respond(exchange, 200, CONTENT_TYPE, listPage(Integer.parseInt(page.group(1))));
+                return;
+            }
+            Matcher article = ARTICLE_PATH.matcher(path);
+            if (article.matches()) {
+                articleRequests.incrementAndGet();
+                int id = Integer.parseInt(article.group(1));
+                if (id < 1 || id > getArticles()) {
+                    respond(exchange, 404, CONTENT_TYPE, "<html><body>Not found</body></html>");
+                } else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    errors.incrementAndGet();
+                    respond(exchange, errorStatus, CONTENT_TYPE, "<html><body>Error</body></html>");
+                } else {
+                    respond(exchange, 200, CONTENT_TYPE, articlePage(id));
+                }
+                return;
+            }
+            respond(exchange, 404, CONTENT_TYPE, "<html><body>Not found</body></html>");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] data = body.getBytes(StandardCharsets.UTF_8);
+        bytes.addAndGet(data.length);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, data.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(data);
+        }
+    }
+
+    /**
+     * Строит страницу списка; за последней страницей идут пустые.
+     */
+    private String listPage(int page) {
+        StringBuilder html = new StringBuilder(articlesPerPage * 400 + 512);
+        html.append("<!DOCTYPE html><html lang=\"ru\"><head><meta charset=\"utf-8\"><title>Новости / Хабр</title>")
+                .append("</head><body><div class=\"tm-articles-list\">");
+        if (page >= 1 && page <= listPages) {
+            for (int i = 0; i < articlesPerPage; i++) {
+                int id = (page - 1) * articlesPerPage + i + 1;
+                html.append("<article class=\"tm-articles-list__item\" id=\"").append(id).append("\">")
+                        .append("<div class=\"tm-article-snippet\"><h2 class=\"tm-title tm-title_h2\">")
+                        .append("<a class=\"tm-title__link\" href=\"").append(LIST_PATH).append(id).append("/\">")
+                        .append("<span>").append(title(id)).append("</span></a></h2></div></article>");
+            }
+        }
+        return html.append("</div></body></html>").toString();
+    }
+
+    /**
+     * Строит страницу статьи: заголовок, автор, время, тело из абзацев и ветка комментариев после него.
+     */
+    private String articlePage(int id) {
+        Random random = new Random(id);
+        String time = Instant.ofEpochMilli(startMillis - id * 60_000L).toString();
+        StringBuilder html = new StringBuilder((paragraphs + comments) * 600 + 1024);
+        html.append("<!DOCTYPE html><html lang=\"ru\"><head><meta charset=\"utf-8\"><title>")
+                .append(title(id)).append(" / Хабр</title></head><body>")
+                .append("<div class=\"tm-article-presenter__body\"><div class=\"tm-article-snippet__meta\">")
+                .append("<a class=\"tm-user-info__username\" href=\"/ru/users/author").append(id % 97).append("/\">")
+                .append("author").append(id % 97).append("</a>")
+                .append("<span class=\"tm-article-datetime-published\"><time datetime=\"").append(time)
+                .append("\" title=\"").append(time).append("\">").append(time).append("</time></span></div>")
+                .append("<h1 class=\"tm-title tm-title_h1\" lang=\"ru\"><span>").append(title(id)).append("</span></h1>")
+                .append("<div id=\"post-content-body\"><div class=\"article-formatted-body article-formatted-body_version-2\">")
+                .append("<div xmlns=\"http://www.w3.org/1999/xhtml\">");
+        for (int i = 0; i < paragraphs; i++) {
+            html.append("<p>");
+            appendSentence(html, random, 40 + random.nextInt(40));
+            html.append("</p>");
+        }
+        html.append("</div></div></div></div><div class=\"tm-comments\">");
+        for (int i = 0; i < comments; i++) {
+            html.append("<div class=\"tm-comment\"><span class=\"tm-comment__author\">reader").append(i)
+                    .append("</span><div class=\"tm-comment__body-content\"><p>");
+            appendSentence(html, random, 10 + random.nextInt(30));
+            html.append("</p></div></div>");
+        }
+        return html.append("</div></body></html>").toString();
+    }
+
+    private static String title(int id) {
+        return "Статья " + id + ": " + WORDS[id % WORDS.length] + " и " + WORDS[(id * 7) % WORDS.length];
+    }
+
+    private static void appendSentence(StringBuilder html, Random random, int words) {
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                html.append(' ');
+            }
+            html.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        html.append('.');
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Останавливает сервер.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,168 @@
+package org.example;
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Класс для пакетного подтверждения сообщений RabbitMQ.
+ * Вместо подтверждения каждого сообщения отправляет один basicAck(tag, true)
+ * для непрерывного диапазона обработанных сообщений. Сообщения могут завершаться
+ * в произвольном порядке: подтверждение уходит только до первого еще не обработанного тега.
+ * Вызовы канала передаются исполнителю канала в том порядке, в котором приняты решения,
+ * поэтому подтверждать можно из любого потока, а канал используется только потоком-владельцем.
+ */
+public class AckBatcher implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AckBatcher.class);
+
+    private final Channel channel;
+    private final Executor channelExecutor;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final MetricsRegistry.Counter acked;
+    private final MetricsRegistry.Counter requeued;
+    private final MetricsRegistry.Counter rejected;
+
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+    // Тег -> true, если сообщение нужно подтвердить; false, если оно уже отклонено
+    private final NavigableMap<Long, Boolean> completed = new TreeMap<>();
+    private int completedSinceFlush;
+
+    /**
+     * Конструктор.
+     *
+     * @param channel          Канал, из которого получены сообщения.
+     * @param queue            Очередь, из которой получены сообщения; используется в метриках.
+     * @param batchSize        Количество обработанных сообщений, после которого отправляется подтверждение.
+     * @param flushIntervalMillis Максимальная задержка подтверждения в миллисекундах.
+     */
+    public AckBatcher(Channel channel, String queue, int batchSize, long flushIntervalMillis) {
+        this(channel, queue, batchSize, flushIntervalMillis, Runnable::run);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param channel             Канал, из которого получены сообщения.
+     * @param queue               Очередь, из которой получены сообщения; используется в метриках.
+     * @param batchSize           Количество обработанных сообщений, после которого отправляется подтверждение.
+     * @param flushIntervalMillis Максимальная задержка подтверждения в миллисекундах.
+     * @param channelExecutor     Исполнитель вызовов канала: поток-владелец канала.
+     */
+    public AckBatcher(Channel channel, String queue, int batchSize, long flushIntervalMillis,
+                      Executor channelExecutor) {
+        this.channel = channel;
+        this.channelExecutor = channelExecutor;
+        this.acked = CrawlMetrics.acked(queue);
+        this.requeued = CrawlMetrics.nacked(queue, true);
+        this.rejected = CrawlMetrics.nacked(queue, false);
+        this.batchSize = Math.max(1, batchSize);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ack-batcher-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Регистрирует полученное сообщение, которое еще обрабатывается.
+     *
+     * @param deliveryTag Тег доставки.
+     */
+    public synchronized void track(long deliveryTag) {
+        inFlight.add(deliveryTag);
+    }
+
+    /**
+     * Отмечает сообщение как успешно обработанное.
+     *
+     * @param deliveryTag Тег доставки.
+     */
+    public synchronized void ack(long deliveryTag) {
+        inFlight.remove(deliveryTag);
+        completed.put(deliveryTag, true);
+        acked.increment();
+        if (++completedSinceFlush >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Отклоняет сообщение сразу, не дожидаясь пакета.
+     *
+     * @param deliveryTag Тег доставки.
+     * @param requeue     true, если сообщение нужно вернуть в очередь.
+     */
+    public synchronized void nack(long deliveryTag, boolean requeue) {
+        inFlight.remove(deliveryTag);
+        (requeue ? requeued : rejected).increment();
+        channelExecutor.execute(() -> {
+            try {
+                channel.basicNack(deliveryTag, false, requeue);
+            } catch (IOException e) {
+                logger.error("Error rejecting delivery {}", deliveryTag, e);
+            }
+        });
+        completed.put(deliveryTag, false);
+    }
+
+    /**
+     * Подтверждает все сообщения до первого еще не обработанного одним вызовом basicAck(tag, true).
+     */
+    public synchronized void flush() {
+        long limit = inFlight.isEmpty() ? Long.MAX_VALUE : inFlight.first();
+        long lastAck = -1;
+        Iterator<Map.Entry<Long, Boolean>> iterator = completed.headMap(limit, false).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Boolean> entry = iterator.next();
+            if (entry.getValue()) {
+                lastAck = entry.getKey();
+            }
+            iterator.remove();
+        }
+        completedSinceFlush = 0;
+
+        if (lastAck < 0) {
+            return;
+        }
+        long upTo = lastAck;
+        channelExecutor.execute(() -> {
+            try {
+                channel.basicAck(upTo, true);
+            } catch (IOException e) {
+                logger.error("Error acknowledging deliveries up to {}", upTo, e);
+            }
+        });
+    }
+
+    /**
+     * Возвращает количество сообщений, которые получены, но еще не подтверждены.
+     *
+     * @return Количество неподтвержденных сообщений.
+     */
+    public synchronized int pending() {
+        return inFlight.size() + completed.size();
+    }
+
+    /**
+     * Подтверждает оставшиеся обработанные сообщения и останавливает таймер.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        flush();
+    }
+}
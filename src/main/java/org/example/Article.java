@@ -1,18 +1,16 @@
 package org.example;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import org.json.JSONObject;
-
 /**
- * Класс, представляющий статью с её основными атрибутами.
+ * Неизменяемый класс, представляющий статью с её основными атрибутами.
+ * Сериализуется в JSON через {@link ArticleCodec}.
  */
-public class Article {
-    private String hash;
-    private String url;
-    private String title;
-    private String text;
-    private String author;
-    private String time;
+public final class Article {
+    private final String hash;
+    private final String url;
+    private final String title;
+    private final String text;
+    private final String author;
+    private final String time;
 
     /**
      * Конструктор класса Article.
@@ -33,74 +31,32 @@ public class Article {
         this.time = time;
     }
 
-    // Геттеры и сеттеры для каждого атрибута
+    // Геттеры для каждого атрибута
 
     public String getHash() {
         return hash;
     }
 
-    public void setHash(String hash) {
-        this.hash = hash;
-    }
-
     public String getUrl() {
         return url;
     }
 
-    public void setUrl(String url) {
-        this.url = url;
-    }
-
     public String getTitle() {
         return title;
     }
 
-    public void setTitle(String title) {
-        this.title = title;
-    }
-
     public String getText() {
         return text;
     }
 
-    public void setText(String text) {
-        this.text = text;
-    }
-
     public String getAuthor() {
         return author;
     }
 
-    public void setAuthor(String author) {
-        this.author = author;
-    }
-
     public String getTime() {
         return time;
     }
 
-    public void setTime(String time) {
-        this.time = time;
-    }
-
-    /**
-     * Метод для создания объекта Article из JSON-строки.
-     *
-     * @param jsonData JSON-объект с данными статьи.
-     * @return Объект Article.
-     * @throws JsonProcessingException Если произошла ошибка при обработке JSON.
-     */
-    public static Article fromJsonString(JSONObject jsonData) throws JsonProcessingException {
-        String hash = jsonData.getString("hash");
-        String url = jsonData.getString("url");
-        String title = jsonData.getString("title");
-        String text = jsonData.getString("text");
-        String author = jsonData.getString("author");
-        String time = jsonData.getString("time");
-
-        return new Article(hash, url, title, text, author, time);
-    }
-
     @Override
     public String toString() {
         return "Article{" +
@@ -112,4 +68,22 @@ public class Article {
                 ", time='" + time + '\'' +
                 '}';
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Article)) {
+            return false;
+        }
+        Article other = (Article) o;
+        return hash.equals(other.hash) && url.equals(other.url) && title.equals(other.title)
+                && text.equals(other.text) && author.equals(other.author) && time.equals(other.time);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash.hashCode();
+    }
 }
@@ -0,0 +1,145 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+
+/**
+ * Потоковый сериализатор статьи в JSON на Jackson Streaming API.
+ * Один и тот же формат используется для сообщений очереди информации и для документа
+ * в запросе _bulk Elasticsearch: статья пишется прямо в генератор и читается прямо из парсера,
+ * без промежуточных деревьев JSON и без рефлексии ObjectMapper.
+ */
+public final class ArticleCodec {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private ArticleCodec() {
+    }
+
+    /**
+     * Сериализует статью в JSON в кодировке UTF-8.
+     *
+     * @param article Статья.
+     * @return JSON-документ.
+     * @throws IOException Если возникает ошибка записи.
+     */
+    public static byte[] toJson(Article article) throws IOException {
+        // Текст статьи занимает основную часть документа, поэтому буфер выделяется под него сразу
+        try (ByteArrayBuilder output = new ByteArrayBuilder(article.getText().length() + 256);
+             JsonGenerator generator = FACTORY.createGenerator(output, JsonEncoding.UTF8)) {
+            write(article, generator);
+            generator.flush();
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * Разбирает статью из JSON.
+     *
+     * @param json JSON-документ в UTF-8.
+     * @return Статья.
+     * @throws IOException Если документ некорректен или в нем нет обязательных полей.
+     */
+    public static Article fromJson(byte[] json) throws IOException {
+        try (JsonParser parser = createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Article JSON must be an object");
+            }
+            return read(parser);
+        }
+    }
+
+    /**
+     * Создает потоковый парсер для JSON-документа.
+     *
+     * @param json JSON-документ в UTF-8.
+     * @return Парсер Jackson.
+     * @throws IOException Если парсер не создается.
+     */
+    static JsonParser createParser(byte[] json) throws IOException {
+        return FACTORY.createParser(json);
+    }
+
+    /**
+     * Записывает статью как объект JSON.
+     *
+     * @param article   Статья.
+     * @param generator Генератор Jackson.
+     * @throws IOException Если возникает ошибка записи.
+     */
+    public static void write(Article article, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        writeFields(article, generator);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Записывает поля статьи в уже открытый объект JSON.
+     *
+     * @param article   Статья.
+     * @param generator Генератор Jackson.
+     * @throws IOException Если возникает ошибка записи.
+     */
+    static void writeFields(Article article, JsonGenerator generator) throws IOException {
+        generator.writeStringField("hash", article.getHash());
+        generator.writeStringField("url", article.getUrl());
+        generator.writeStringField("title", article.getTitle());
+        generator.writeStringField("author", article.getAuthor());
+        generator.writeStringField("time", article.getTime());
+        generator.writeStringField("text", article.getText());
+    }
+
+    /**
+     * Читает статью из парсера, стоящего на начале объекта. Неизвестные поля пропускаются.
+     *
+     * @param parser Парсер Jackson.
+     * @return Статья.
+     * @throws IOException Если документ некорректен или в нем нет обязательных полей.
+     */
+    public static Article read(JsonParser parser) throws IOException {
+        String hash = null;
+        String url = null;
+        String title = null;
+        String text = null;
+        String author = null;
+        String time = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "hash":
+                    hash = parser.getValueAsString();
+                    break;
+                case "url":
+                    url = parser.getValueAsString();
+                    break;
+                case "title":
+                    title = parser.getValueAsString();
+                    break;
+                case "text":
+                    text = parser.getValueAsString();
+                    break;
+                case "author":
+                    author = parser.getValueAsString();
+                    break;
+                case "time":
+                    time = parser.getValueAsString();
+                    break;
+                default:
+                    if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                    }
+            }
+        }
+        if (hash == null || url == null || title == null || text == null || author == null || time == null) {
+            throw new IOException("Article JSON is missing required fields");
+        }
+        return new Article(hash, url, title, text, author, time);
+    }
+}
@@ -0,0 +1,114 @@
+package org.example;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpSerializable;
+import co.elastic.clients.json.jackson.JacksonJsonpGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jakarta.json.stream.JsonGenerator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Документ статьи для запросов записи в Elasticsearch.
+ * Клиент Elasticsearch вызывает {@link #serialize}, и документ пишется прямо в генератор Jackson
+ * запроса: если статья пришла из очереди в JSON, исходные байты сообщения копируются потоком
+ * токенов, иначе статья записывается через {@link ArticleCodec}. ObjectMapper и промежуточные
+ * деревья JSON при этом не используются.
+ * К полям статьи добавляется отпечаток содержимого {@link ContentFingerprint}: поля
+ * {@value #FINGERPRINT_FIELD} и {@value #SIMHASH_FIELD}, а также язык текста {@value #LANGUAGE_FIELD}
+ * ({@link TextNormalizer#detectLanguage}).
+ */
+public final class ArticleDocument implements JsonpSerializable {
+
+    public static final String FINGERPRINT_FIELD = "fingerprint";
+    public static final String SIMHASH_FIELD = "simhash";
+    public static final String LANGUAGE_FIELD = "language";
+    private static final int FIELDS_OVERHEAD = 192;
+
+    private final Article article;
+    private final byte[] json;
+    private final ContentFingerprint fingerprint;
+    private final String language;
+
+    /**
+     * Конструктор для статьи, которую нужно сериализовать.
+     *
+     * @param article Статья.
+     */
+    public ArticleDocument(Article article) {
+        this(article, null);
+    }
+
+    /**
+     * Конструктор для статьи, уже представленной в JSON формата {@link ArticleCodec}.
+     *
+     * @param article Статья.
+     * @param json    JSON-документ статьи в UTF-8 или null.
+     */
+    public ArticleDocument(Article article, byte[] json) {
+        this.article = article;
+        this.json = json;
+        this.fingerprint = ContentFingerprint.of(article);
+        this.language = TextNormalizer.detectLanguage(article.getText());
+    }
+
+    public Article getArticle() {
+        return article;
+    }
+
+    public String getId() {
+        return article.getHash();
+    }
+
+    public ContentFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Оценивает размер документа в запросе _bulk.
+     *
+     * @return Размер в байтах.
+     */
+    public int sizeBytes() {
+        if (json != null) {
+            return json.length + FIELDS_OVERHEAD;
+        }
+        return article.getHash().length() + article.getUrl().length() + article.getTitle().length()
+                + article.getAuthor().length() + article.getTime().length() + article.getText().length()
+                + FIELDS_OVERHEAD;
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator, JsonpMapper mapper) {
+        if (!(generator instanceof JacksonJsonpGenerator)) {
+            throw new IllegalStateException("ArticleDocument requires JacksonJsonpMapper");
+        }
+        com.fasterxml.jackson.core.JsonGenerator jackson = ((JacksonJsonpGenerator) generator).jacksonGenerator();
+        try {
+            jackson.writeStartObject();
+            if (json == null) {
+                ArticleCodec.writeFields(article, jackson);
+            } else {
+                try (JsonParser parser = ArticleCodec.createParser(json)) {
+                    parser.nextToken();
+                    // Поля на FIELD_NAME копируются вместе со значением
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        jackson.copyCurrentStructure(parser);
+                    }
+                }
+            }
+            jackson.writeStringField(FINGERPRINT_FIELD, fingerprint.getContentHash().toString());
+            jackson.writeNumberField(SIMHASH_FIELD, fingerprint.getSimHash());
+            jackson.writeStringField(LANGUAGE_FIELD, language);
+            jackson.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
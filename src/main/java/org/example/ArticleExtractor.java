@@ -0,0 +1,158 @@
+package org.example;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.StreamParser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Класс для извлечения полей статьи из HTML-страницы.
+ * Поддерживает два режима:
+ * DOM — полный разбор страницы в документ Jsoup и выборка полей селекторами;
+ * STREAM — однопроходный разбор через {@link StreamParser}: элементы обрабатываются по мере закрытия,
+ * прочитанные абзацы удаляются из дерева, а разбор останавливается сразу после тела статьи,
+ * поэтому комментарии и подвал страницы не разбираются.
+ * Селекторы полей берутся из профиля сайта в {@link ExtractionRules} по хосту страницы.
+ */
+public class ArticleExtractor {
+
+    /**
+     * Режим извлечения.
+     */
+    public enum Mode {
+        DOM,
+        STREAM
+    }
+
+    private final Mode mode;
+    private final ExtractionRules rules;
+
+    /**
+     * Конструктор.
+     *
+     * @param mode  Режим извлечения.
+     * @param rules Правила извлечения для сайтов.
+     */
+    public ArticleExtractor(Mode mode, ExtractionRules rules) {
+        this.mode = mode;
+        this.rules = rules;
+    }
+
+    /**
+     * Извлекает статью из тела HTTP-ответа.
+     *
+     * @param body Тело ответа в UTF-8.
+     * @param url  URL статьи.
+     * @param hash Хеш статьи.
+     * @return Статья.
+     * @throws IOException Если возникает ошибка при разборе страницы или для сайта нет правил.
+     */
+    public Article extract(byte[] body, String url, String hash) throws IOException {
+        return extract(body, body.length, url, hash);
+    }
+
+    /**
+     * Извлекает статью из начала массива, например из буфера {@link BufferPool}.
+     *
+     * @param body   Массив с телом ответа в UTF-8.
+     * @param length Длина тела в байтах.
+     * @param url    URL статьи.
+     * @param hash   Хеш статьи.
+     * @return Статья.
+     * @throws IOException Если возникает ошибка при разборе страницы или для сайта нет правил.
+     */
+    public Article extract(byte[] body, int length, String url, String hash) throws IOException {
+        ExtractionRules.SiteProfile profile = rules.forUrl(url);
+        return mode == Mode.STREAM
+                ? extractStream(profile, body, length, url, hash)
+                : extractDom(profile, body, length, url, hash);
+    }
+
+    /**
+     * Извлекает статью через полный разбор страницы в DOM.
+     *
+     * @param profile Профиль сайта.
+     * @param body   Массив с телом ответа в UTF-8.
+     * @param length Длина тела в байтах.
+     * @param url    URL статьи.
+     * @param hash   Хеш статьи.
+     * @return Статья.
+     * @throws IOException Если возникает ошибка при разборе страницы.
+     */
+    Article extractDom(ExtractionRules.SiteProfile profile, byte[] body, int length, String url, String hash)
+            throws IOException {
+        Document doc = Jsoup.parse(new ByteArrayInputStream(body, 0, length), "UTF-8", url);
+        String title = profile.getTitle().select(doc);
+        String author = profile.getAuthor().select(doc);
+        String time = profile.getTime().select(doc);
+        StringBuilder text = new StringBuilder();
+        doc.select(profile.getParagraph().getEvaluator())
+                .forEach(paragraph -> text.append(paragraph.text()).append("\n"));
+
+        return new Article(hash, url, title, text.toString(), author, time);
+    }
+
+    /**
+     * Извлекает статью за один проход без построения полного дерева документа.
+     *
+     * @param profile Профиль сайта.
+     * @param body   Массив с телом ответа в UTF-8.
+     * @param length Длина тела в байтах.
+     * @param url    URL статьи.
+     * @param hash   Хеш статьи.
+     * @return Статья.
+     * @throws IOException Если возникает ошибка при разборе страницы.
+     */
+    Article extractStream(ExtractionRules.SiteProfile profile, byte[] body, int length, String url, String hash)
+            throws IOException {
+        String title = null;
+        String author = null;
+        String time = null;
+        StringBuilder text = new StringBuilder();
+        boolean bodyClosed = false;
+
+        try (StreamParser streamer = new StreamParser(org.jsoup.parser.Parser.htmlParser())) {
+            // StreamParser читает с пометками (mark/reset), которые InputStreamReader не поддерживает
+            streamer.parse(new BufferedReader(new InputStreamReader(
+                    new ByteArrayInputStream(body, 0, length), StandardCharsets.UTF_8)), url);
+            Iterator<Element> elements = streamer.iterator();
+            while (elements.hasNext()) {
+                // Элемент выдается, когда закрыт его тег, поэтому его предки уже известны
+                Element element = elements.next();
+                if (title == null && profile.getTitle().matches(element)) {
+                    title = profile.getTitle().value(element);
+                } else if (author == null && profile.getAuthor().matches(element)) {
+                    author = profile.getAuthor().value(element);
+                } else if (time == null && profile.getTime().matches(element)) {
+                    time = profile.getTime().value(element);
+                } else if (profile.getParagraph().matches(element)) {
+                    text.append(element.text()).append("\n");
+                    element.remove();
+                } else if (profile.getBody().matches(element)) {
+                    bodyClosed = true;
+                }
+
+                if (bodyClosed && title != null && author != null && time != null) {
+                    streamer.stop();
+                    break;
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return new Article(hash, url,
+                title == null ? "" : title,
+                text.toString(),
+                author == null ? "" : author,
+                time == null ? "" : time);
+    }
+}
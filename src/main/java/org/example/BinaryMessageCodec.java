@@ -0,0 +1,213 @@
+package org.example;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Компактный двоичный формат сообщений.
+ * Сообщение начинается с байта версии и байта флагов; строки записываются как длина в формате varint
+ * и байты UTF-8, ключ статьи — 16 байтами {@link HashKey}. Текст статьи может быть сжат LZ4,
+ * если он длиннее порога и сжатие дает выигрыш; это отмечается флагом, поэтому получателю
+ * не нужно знать настройки отправителя.
+ */
+public final class BinaryMessageCodec implements MessageCodec {
+
+    public static final String CONTENT_TYPE = "application/vnd.javacrawler.v1+binary";
+    public static final BinaryMessageCodec UNCOMPRESSED = new BinaryMessageCodec(false);
+    public static final BinaryMessageCodec LZ4 = new BinaryMessageCodec(true);
+
+    private static final byte VERSION = 1;
+    private static final int FLAG_TEXT_LZ4 = 1;
+    private static final int MIN_COMPRESS_LENGTH = 512;
+    // Предел размера сообщения RabbitMQ по умолчанию: распакованный текст не может быть больше
+    private static final int MAX_MESSAGE_BYTES = 128 * 1024 * 1024;
+    // LZ4 сжимает не лучше чем в 255 раз, поэтому длина из сообщения проверяется и по сжатой длине
+    private static final int MAX_LZ4_RATIO = 255;
+
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final boolean compressText;
+
+    private BinaryMessageCodec(boolean compressText) {
+        this.compressText = compressText;
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encodeLink(LinkMessage message) {
+        byte[] link = message.getLink().getBytes(StandardCharsets.UTF_8);
+        Output output = new Output(link.length + 24);
+        output.write(VERSION);
+        output.write(0);
+        output.writeBlock(link);
+        output.writeKey(HashKey.parse(message.getHash()));
+        return output.toByteArray();
+    }
+
+    @Override
+    public LinkMessage decodeLink(byte[] body) throws IOException {
+        try {
+            ByteBuffer input = ByteBuffer.wrap(body);
+            readHeader(input);
+            String link = readString(input);
+            String hash = readKey(input).toString();
+            return new LinkMessage(link, hash);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Invalid link message", e);
+        }
+    }
+
+    @Override
+    public byte[] encodeArticle(Article article) {
+        byte[] text = article.getText().getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = null;
+        int compressedLength = 0;
+        if (compressText && text.length >= MIN_COMPRESS_LENGTH) {
+            compressed = new byte[COMPRESSOR.maxCompressedLength(text.length)];
+            compressedLength = COMPRESSOR.compress(text, 0, text.length, compressed, 0, compressed.length);
+            if (compressedLength >= text.length) {
+                compressed = null;
+            }
+        }
+
+        Output output = new Output((compressed == null ? text.length : compressedLength) + 512);
+        output.write(VERSION);
+        output.write(compressed == null ? 0 : FLAG_TEXT_LZ4);
+        output.writeKey(HashKey.parse(article.getHash()));
+        output.writeString(article.getUrl());
+        output.writeString(article.getTitle());
+        output.writeString(article.getAuthor());
+        output.writeString(article.getTime());
+        if (compressed == null) {
+            output.writeBlock(text);
+        } else {
+            output.writeVarInt(text.length);
+            output.writeVarInt(compressedLength);
+            output.write(compressed, 0, compressedLength);
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public Article decodeArticle(byte[] body) throws IOException {
+        try {
+            ByteBuffer input = ByteBuffer.wrap(body);
+            int flags = readHeader(input);
+            String hash = readKey(input).toString();
+            String url = readString(input);
+            String title = readString(input);
+            String author = readString(input);
+            String time = readString(input);
+            String text;
+            if ((flags & FLAG_TEXT_LZ4) != 0) {
+                int length = readVarInt(input);
+                int compressedLength = readVarInt(input);
+                if (compressedLength > input.remaining()) {
+                    throw new IOException("Compressed text length exceeds message size");
+                }
+                if (length > MAX_MESSAGE_BYTES || length > (long) compressedLength * MAX_LZ4_RATIO) {
+                    throw new IOException("Decompressed text length " + length + " is out of bounds");
+                }
+                byte[] raw = new byte[length];
+                int read = DECOMPRESSOR.decompress(body, input.position(), raw, 0, length);
+                if (read != compressedLength) {
+                    throw new IOException("Corrupted compressed text");
+                }
+                text = new String(raw, StandardCharsets.UTF_8);
+            } else {
+                text = readString(input);
+            }
+            return new Article(hash, url, title, text, author, time);
+        } catch (BufferUnderflowException | IllegalArgumentException | LZ4Exception e) {
+            throw new IOException("Invalid article message", e);
+        }
+    }
+
+    private static int readHeader(ByteBuffer input) throws IOException {
+        byte version = input.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary message version: " + version);
+        }
+        return input.get();
+    }
+
+    private static HashKey readKey(ByteBuffer input) {
+        return new HashKey(input.getLong(), input.getLong());
+    }
+
+    private static String readString(ByteBuffer input) throws IOException {
+        int length = readVarInt(input);
+        if (length > input.remaining()) {
+            throw new IOException("String length exceeds message size");
+        }
+        String value = new String(input.array(), input.arrayOffset() + input.position(), length, StandardCharsets.UTF_8);
+        input.position(input.position() + length);
+        return value;
+    }
+
+    private static int readVarInt(ByteBuffer input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = input.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Negative length in message");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in message");
+    }
+
+    /**
+     * Буфер записи с методами для полей формата.
+     */
+    private static final class Output extends ByteArrayOutputStream {
+
+        Output(int size) {
+            super(size);
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeBlock(byte[] bytes) {
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeString(String value) {
+            writeBlock(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeKey(HashKey key) {
+            writeLong(key.getHigh());
+            writeLong(key.getLow());
+        }
+
+        private void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (value >>> shift));
+            }
+        }
+    }
+}
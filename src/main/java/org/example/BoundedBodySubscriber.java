@@ -0,0 +1,273 @@
+package org.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.IntConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Получатель тела ответа с ограничением размера.
+ * Фрагменты тела по мере поступления распаковываются из gzip (если ответ сжат) прямо в буфер из пула,
+ * без промежуточного массива со сжатым телом. Когда распакованное тело достигает лимита,
+ * получение останавливается и соединение закрывается: остаток страницы не загружается и не распаковывается,
+ * а тело отмечается обрезанным. Контрольная сумма gzip не проверяется, так как обрезанное тело ее не содержит.
+ */
+final class BoundedBodySubscriber implements HttpResponse.BodySubscriber<BufferPool.Buffer> {
+
+    private static final int CHUNK_BYTES = 16 * 1024;
+    // Флаги заголовка gzip (RFC 1952)
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    // Шаги разбора заголовка gzip по порядку полей
+    private static final int FIXED = 0;
+    private static final int EXTRA_LENGTH = 1;
+    private static final int EXTRA = 2;
+    private static final int NAME = 3;
+    private static final int COMMENT = 4;
+    private static final int CRC = 5;
+    private static final int DONE = 6;
+    private static final int[] STEP_FLAGS = {0, FEXTRA, FEXTRA, FNAME, FCOMMENT, FHCRC};
+    private static final int FIXED_HEADER_BYTES = 10;
+
+    private final BufferPool.Buffer buffer;
+    private final int maxBytes;
+    private final Inflater inflater;
+    private final IntConsumer onData;
+    private final CompletableFuture<BufferPool.Buffer> result = new CompletableFuture<>();
+    private final byte[] probe = new byte[1];
+    private Flow.Subscription subscription;
+    private long receivedBytes;
+    private boolean truncated;
+    private int headerStep = FIXED;
+    private int headerBytes;
+    private int flags;
+    private int skip;
+
+    /**
+     * Конструктор.
+     *
+     * @param buffer        Буфер для распакованного тела.
+     * @param gzip          true, если тело сжато gzip.
+     * @param contentLength Длина тела из заголовка Content-Length или -1.
+     * @param maxBytes      Максимальный размер распакованного тела.
+     * @param onData        Получатель количества байтов, дописанных в буфер.
+     */
+    BoundedBodySubscriber(BufferPool.Buffer buffer, boolean gzip, long contentLength, int maxBytes,
+                          IntConsumer onData) {
+        this.buffer = buffer;
+        this.maxBytes = maxBytes;
+        this.inflater = gzip ? new Inflater(true) : null;
+        this.onData = onData;
+        if (!gzip && contentLength > 0) {
+            buffer.ensureCapacity((int) Math.min(contentLength, maxBytes), maxBytes);
+        }
+    }
+
+    @Override
+    public CompletionStage<BufferPool.Buffer> getBody() {
+        return result;
+    }
+
+    /**
+     * Проверяет, что тело обрезано по лимиту. Вызывается после завершения {@link #getBody()}.
+     *
+     * @return true, если часть тела не загружена.
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Количество полученных байтов тела до распаковки.
+     */
+    long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items) {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            for (ByteBuffer item : items) {
+                receivedBytes += item.remaining();
+                if (inflater == null) {
+                    copy(item);
+                } else {
+                    inflate(item);
+                }
+                if (truncated) {
+                    // Остаток страницы не нужен: соединение закрывается, не дочитывая тело
+                    subscription.cancel();
+                    complete();
+                    return;
+                }
+            }
+            subscription.request(1);
+        } catch (IOException | DataFormatException e) {
+            subscription.cancel();
+            fail(e instanceof IOException ? e : new IOException("Invalid gzip response body", e));
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (result.isDone()) {
+            return;
+        }
+        if (inflater != null && receivedBytes > 0 && !inflater.finished()) {
+            fail(new EOFException("Unexpected end of gzip response body"));
+            return;
+        }
+        complete();
+    }
+
+    private void copy(ByteBuffer item) {
+        int count = Math.min(maxBytes - buffer.length(), item.remaining());
+        if (count > 0) {
+            buffer.ensureCapacity(buffer.length() + count, maxBytes);
+            item.get(buffer.array(), buffer.length(), count);
+            written(count);
+        }
+        truncated = item.hasRemaining();
+    }
+
+    private void inflate(ByteBuffer item) throws IOException, DataFormatException {
+        if (headerStep != DONE && !readHeader(item)) {
+            return;
+        }
+        if (inflater.finished()) {
+            // Контрольная сумма и длина в конце gzip пропускаются
+            return;
+        }
+        inflater.setInput(item);
+        while (!inflater.finished() && !inflater.needsInput()) {
+            int room = maxBytes - buffer.length();
+            if (room == 0) {
+                // Буфер заполнен: тело обрезано, если у распаковщика есть еще хотя бы байт
+                truncated = inflater.inflate(probe) > 0;
+                return;
+            }
+            buffer.ensureCapacity(buffer.length() + Math.min(room, CHUNK_BYTES), maxBytes);
+            int count = inflater.inflate(buffer.array(), buffer.length(),
+                    Math.min(room, buffer.array().length - buffer.length()));
+            if (count == 0) {
+                if (inflater.needsDictionary()) {
+                    throw new DataFormatException("Preset dictionary is not supported");
+                }
+                break;
+            }
+            written(count);
+        }
+    }
+
+    /**
+     * Разбирает заголовок gzip, который может прийти в нескольких фрагментах.
+     *
+     * @param item Фрагмент тела; позиция сдвигается за прочитанные байты заголовка.
+     * @return true, если заголовок прочитан полностью.
+     * @throws IOException Если тело не в формате gzip.
+     */
+    private boolean readHeader(ByteBuffer item) throws IOException {
+        while (headerStep != DONE && item.hasRemaining()) {
+            int value = item.get() & 0xff;
+            switch (headerStep) {
+                case FIXED:
+                    if (headerBytes == 0 && value != 0x1f || headerBytes == 1 && value != 0x8b
+                            || headerBytes == 2 && value != Deflater.DEFLATED) {
+                        throw new IOException("Not in gzip format");
+                    }
+                    if (headerBytes == 3) {
+                        flags = value;
+                    }
+                    if (++headerBytes == FIXED_HEADER_BYTES) {
+                        nextHeaderStep(EXTRA_LENGTH);
+                    }
+                    break;
+                case EXTRA_LENGTH:
+                    skip |= value << (8 * headerBytes++);
+                    if (headerBytes == 2) {
+                        if (skip > 0) {
+                            headerStep = EXTRA;
+                        } else {
+                            nextHeaderStep(NAME);
+                        }
+                    }
+                    break;
+                case EXTRA:
+                    if (--skip == 0) {
+                        nextHeaderStep(NAME);
+                    }
+                    break;
+                case NAME:
+                    if (value == 0) {
+                        nextHeaderStep(COMMENT);
+                    }
+                    break;
+                case COMMENT:
+                    if (value == 0) {
+                        nextHeaderStep(CRC);
+                    }
+                    break;
+                default:
+                    if (++headerBytes == 2) {
+                        headerStep = DONE;
+                    }
+                    break;
+            }
+        }
+        return headerStep == DONE;
+    }
+
+    /**
+     * Переходит к первому полю заголовка начиная с from, которое есть в заголовке по флагам.
+     */
+    private void nextHeaderStep(int from) {
+        headerBytes = 0;
+        headerStep = from;
+        while (headerStep < DONE && (flags & STEP_FLAGS[headerStep]) == 0) {
+            headerStep++;
+        }
+    }
+
+    private void written(int count) {
+        buffer.advance(count);
+        onData.accept(count);
+    }
+
+    private void complete() {
+        if (inflater != null) {
+            inflater.end();
+        }
+        result.complete(buffer);
+    }
+
+    private void fail(Throwable error) {
+        if (inflater != null) {
+            inflater.end();
+        }
+        result.completeExceptionally(error);
+    }
+}
@@ -0,0 +1,165 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Пул байтовых буферов для передачи тел ответов от загрузки к разбору.
+ * Буфер растет по мере записи и после разбора страницы возвращается в пул вместе с массивом,
+ * поэтому в установившемся режиме тела страниц не создают новых массивов в куче.
+ * Пул хранит свободные буферы, пока их суммарная емкость не превышает заданную;
+ * буферы сверх нее отдаются сборщику мусора.
+ */
+public class BufferPool {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 64 * 1024;
+
+    private final int initialCapacity;
+    private final long maxPooledBytes;
+    private final Deque<Buffer> free = new ArrayDeque<>();
+    private long pooledBytes;
+
+    /**
+     * Конструктор. Новые буферы создаются емкостью 64 КиБ.
+     *
+     * @param maxPooledBytes Максимальная суммарная емкость свободных буферов; 0 — не хранить буферы.
+     */
+    public BufferPool(long maxPooledBytes) {
+        this(DEFAULT_INITIAL_CAPACITY, maxPooledBytes);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param initialCapacity Начальная емкость нового буфера в байтах.
+     * @param maxPooledBytes  Максимальная суммарная емкость свободных буферов; 0 — не хранить буферы.
+     */
+    public BufferPool(int initialCapacity, long maxPooledBytes) {
+        this.initialCapacity = initialCapacity;
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Берет свободный буфер из пула или создает новый.
+     *
+     * @return Пустой буфер.
+     */
+    public Buffer acquire() {
+        synchronized (this) {
+            Buffer buffer = free.pollFirst();
+            if (buffer != null) {
+                pooledBytes -= buffer.data.length;
+                buffer.released = false;
+                return buffer;
+            }
+        }
+        return new Buffer(this, new byte[initialCapacity], 0);
+    }
+
+    private void release(Buffer buffer) {
+        buffer.length = 0;
+        synchronized (this) {
+            if (pooledBytes + buffer.data.length <= maxPooledBytes) {
+                pooledBytes += buffer.data.length;
+                // Последний возвращенный буфер выдается первым: его массив скорее всего еще в кеше процессора
+                free.addFirst(buffer);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return free.size();
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * Растущий байтовый буфер. Первые {@link #length()} байт массива {@link #array()} — содержимое.
+     */
+    public static final class Buffer {
+        private final BufferPool pool;
+        private byte[] data;
+        private int length;
+        private boolean released;
+
+        private Buffer(BufferPool pool, byte[] data, int length) {
+            this.pool = pool;
+            this.data = data;
+            this.length = length;
+        }
+
+        /**
+         * Оборачивает массив в буфер вне пула.
+         *
+         * @param data Содержимое.
+         * @return Буфер, который при освобождении никуда не возвращается.
+         */
+        public static Buffer wrap(byte[] data) {
+            return new Buffer(null, data, data.length);
+        }
+
+        public byte[] array() {
+            return data;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Увеличивает емкость массива не меньше чем до заданной, удваивая ее, но не больше предела.
+         *
+         * @param capacity    Требуемая емкость в байтах.
+         * @param maxCapacity Предельная емкость в байтах, не меньше требуемой.
+         */
+        void ensureCapacity(int capacity, int maxCapacity) {
+            if (capacity > data.length) {
+                data = Arrays.copyOf(data, (int) Math.min(maxCapacity, Math.max(capacity, data.length * 2L)));
+            }
+        }
+
+        /**
+         * Отмечает, что в массив после содержимого дописано count байт.
+         *
+         * @param count Количество байт.
+         */
+        void advance(int count) {
+            length += count;
+        }
+
+        /**
+         * Возвращает поток для чтения содержимого без копирования массива.
+         *
+         * @return Поток содержимого.
+         */
+        public InputStream inputStream() {
+            return new ByteArrayInputStream(data, 0, length);
+        }
+
+        /**
+         * Возвращает содержимое массивом точного размера. Массив буфера из пула всегда копируется,
+         * так как после освобождения его займет другой ответ.
+         *
+         * @return Содержимое.
+         */
+        public byte[] toByteArray() {
+            return pool == null && length == data.length ? data : Arrays.copyOf(data, length);
+        }
+
+        /**
+         * Возвращает буфер в пул. Повторный вызов ничего не делает; после освобождения буфер не используется.
+         */
+        public void release() {
+            if (pool == null || released) {
+                return;
+            }
+            released = true;
+            pool.release(this);
+        }
+    }
+}
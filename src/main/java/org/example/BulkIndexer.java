@@ -0,0 +1,365 @@
+package org.example;
+
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Класс для пакетной записи статей в Elasticsearch через _bulk API.
+ * Накапливает документы и отправляет их одним запросом, когда достигнут лимит
+ * по количеству документов, по суммарному размеру или по времени ожидания.
+ * О результате каждой записи сообщает слушателю, чтобы подтверждения RabbitMQ
+ * уходили только после ответа Elasticsearch.
+ * Пакеты отправляются асинхронно, не больше заданного количества одновременно;
+ * результаты запросов передаются выключателю {@link CircuitBreaker} менеджера Elasticsearch.
+ * Ответ Elasticsearch приходит в поток клиента, а выключатель и слушатель вызываются в исполнителе
+ * обратных вызовов: потребитель очереди передает поток-владелец канала, чтобы подтверждения
+ * и остановка доставки не выполнялись в чужом потоке.
+ */
+public class BulkIndexer implements AutoCloseable {
+
+    /**
+     * Слушатель результатов пакетной записи.
+     */
+    public interface Listener {
+
+        /**
+         * Вызывается после обработки пакета в исполнителе обратных вызовов.
+         *
+         * @param succeeded Теги доставки успешно записанных документов.
+         * @param retry     Теги доставки документов, которые не записаны из-за перегрузки или сбоя
+         *                  и должны быть возвращены в очередь.
+         * @param rejected  Теги доставки документов, которые Elasticsearch отклонил и повтор не поможет.
+         */
+        void onBulkResult(List<Long> succeeded, List<Long> retry, List<Long> rejected);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkIndexer.class);
+    private static final MetricsRegistry.Counter INDEXED = CrawlMetrics.bulkDocuments("indexed");
+    private static final MetricsRegistry.Counter UPDATED = CrawlMetrics.bulkDocuments("updated");
+    private static final MetricsRegistry.Counter UNCHANGED = CrawlMetrics.bulkDocuments("unchanged");
+    private static final MetricsRegistry.Counter DUPLICATES = CrawlMetrics.bulkDocuments("duplicate");
+    private static final MetricsRegistry.Counter RETRIED = CrawlMetrics.bulkDocuments("retried");
+    private static final MetricsRegistry.Counter FAILED = CrawlMetrics.bulkDocuments("failed");
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+    private static final long CLOSE_TIMEOUT_MILLIS = 30000;
+
+    static {
+        CrawlMetrics.REGISTRY.gauge("crawler_es_bulk_in_flight", "Elasticsearch bulk requests awaiting a response",
+                IN_FLIGHT::get);
+    }
+
+    private final ElasticSearchManager elasticsearchManager;
+    private final int maxActions;
+    private final long maxBytes;
+    private final Listener listener;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final CircuitBreaker circuitBreaker;
+    private final Executor callbackExecutor;
+    private final ScheduledExecutorService scheduler;
+
+    private final List<ArticleDocument> documents = new ArrayList<>();
+    private final List<Long> deliveryTags = new ArrayList<>();
+    private long pendingBytes;
+    private boolean closed;
+
+    /**
+     * Конструктор.
+     *
+     * @param elasticsearchManager Менеджер для работы с Elasticsearch.
+     * @param maxActions           Максимальное количество документов в пакете.
+     * @param maxBytes             Максимальный суммарный размер пакета в байтах.
+     * @param lingerMillis         Максимальное время ожидания пакета в миллисекундах.
+     * @param listener             Слушатель результатов записи.
+     */
+    public BulkIndexer(ElasticSearchManager elasticsearchManager, int maxActions, long maxBytes,
+                       long lingerMillis, Listener listener) {
+        this(elasticsearchManager, maxActions, maxBytes, lingerMillis, 1, listener);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param elasticsearchManager Менеджер для работы с Elasticsearch.
+     * @param maxActions           Максимальное количество документов в пакете.
+     * @param maxBytes             Максимальный суммарный размер пакета в байтах.
+     * @param lingerMillis         Максимальное время ожидания пакета в миллисекундах.
+     * @param maxInFlight          Максимальное количество пакетов, ожидающих ответа Elasticsearch.
+     * @param listener             Слушатель результатов записи; вызывается в потоке клиента Elasticsearch.
+     */
+    public BulkIndexer(ElasticSearchManager elasticsearchManager, int maxActions, long maxBytes,
+                       long lingerMillis, int maxInFlight, Listener listener) {
+        this(elasticsearchManager, maxActions, maxBytes, lingerMillis, maxInFlight, Runnable::run, listener);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param elasticsearchManager Менеджер для работы с Elasticsearch.
+     * @param maxActions           Максимальное количество документов в пакете.
+     * @param maxBytes             Максимальный суммарный размер пакета в байтах.
+     * @param lingerMillis         Максимальное время ожидания пакета в миллисекундах.
+     * @param maxInFlight          Максимальное количество пакетов, ожидающих ответа Elasticsearch.
+     * @param callbackExecutor     Исполнитель, в котором обрабатывается ответ: выключатель и слушатель.
+     *                             Не должен ждать отправки пакетов, иначе лимит maxInFlight не освободится.
+     * @param listener             Слушатель результатов записи.
+     */
+    public BulkIndexer(ElasticSearchManager elasticsearchManager, int maxActions, long maxBytes,
+                       long lingerMillis, int maxInFlight, Executor callbackExecutor, Listener listener) {
+        this.elasticsearchManager = elasticsearchManager;
+        this.maxActions = maxActions;
+        this.maxBytes = maxBytes;
+        this.listener = listener;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.circuitBreaker = elasticsearchManager.getCircuitBreaker();
+        this.callbackExecutor = callbackExecutor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulk-indexer-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Добавляет документ статьи в текущий пакет и отправляет пакет при достижении лимитов.
+     *
+     * @param document    Документ статьи для записи.
+     * @param deliveryTag Тег доставки сообщения RabbitMQ.
+     */
+    public synchronized void add(ArticleDocument document, long deliveryTag) {
+        if (closed) {
+            throw new IllegalStateException("BulkIndexer is closed");
+        }
+        documents.add(document);
+        deliveryTags.add(deliveryTag);
+        pendingBytes += document.sizeBytes();
+
+        if (documents.size() >= maxActions || pendingBytes >= maxBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Отправляет накопленный пакет в Elasticsearch асинхронно и сообщает слушателю результат
+     * по завершении запроса.
+     * Сначала одним запросом по _id читаются отпечатки уже записанных статей пакета:
+     * статьи с неизменившимся содержимым подтверждаются без записи, измененные
+     * обновляются частично, новые создаются.
+     * Одновременно выполняется не больше maxInFlight пакетов: если лимит достигнут, вызывающий поток
+     * ждет, поэтому потребитель очереди перестает подтверждать сообщения и RabbitMQ прекращает доставку.
+     * Пока выключатель Elasticsearch разомкнут, пакет по таймеру не отправляется.
+     */
+    public synchronized void flush() {
+        flush(false);
+    }
+
+    private void flush(boolean force) {
+        if (documents.isEmpty() || (!force && circuitBreaker.isOpen())) {
+            return;
+        }
+
+        List<ArticleDocument> batch = new ArrayList<>(documents);
+        List<Long> batchTags = new ArrayList<>(deliveryTags);
+        documents.clear();
+        deliveryTags.clear();
+        pendingBytes = 0;
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while waiting to send bulk request of {} documents", batch.size());
+            complete(new BatchResult(batch.size()).retryAll(batchTags));
+            return;
+        }
+        IN_FLIGHT.incrementAndGet();
+
+        List<String> ids = new ArrayList<>(batch.size());
+        batch.forEach(document -> ids.add(document.getId()));
+        CompletableFuture<BatchResult> future;
+        try {
+            future = elasticsearchManager.findFingerprintsAsync(ids)
+                    .thenCompose(stored -> write(batch, batchTags, stored));
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((result, error) -> callbackExecutor.execute(() -> {
+            // Место в лимите освобождается после обработки ответа: close() дожидается и подтверждений
+            try {
+                BatchResult outcome = result;
+                if (error != null) {
+                    logger.error("Error executing bulk request of {} documents", batch.size(), unwrap(error));
+                    circuitBreaker.onFailure();
+                    outcome = new BatchResult(batch.size()).retryAll(batchTags);
+                } else if (result.overloaded) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess();
+                }
+                complete(outcome);
+            } finally {
+                inFlight.release();
+                IN_FLIGHT.decrementAndGet();
+            }
+        }));
+    }
+
+    /**
+     * Записывает измененные и новые документы пакета и разбирает ответ _bulk.
+     *
+     * @param batch     Документы пакета.
+     * @param batchTags Теги доставки документов пакета.
+     * @param stored    Отпечатки уже записанных статей.
+     * @return Результат пакета.
+     */
+    private CompletableFuture<BatchResult> write(List<ArticleDocument> batch, List<Long> batchTags,
+                                                 Map<String, ElasticSearchManager.StoredFingerprint> stored) {
+        BatchResult result = new BatchResult(batch.size());
+        List<ArticleDocument> writes = new ArrayList<>(batch.size());
+        List<Long> writeTags = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            ArticleDocument document = batch.get(i);
+            String fingerprint = document.getFingerprint().getContentHash().toString();
+            ElasticSearchManager.StoredFingerprint previous = stored.get(document.getId());
+            if (previous != null && fingerprint.equals(previous.getFingerprint())) {
+                result.succeeded.add(batchTags.get(i));
+                result.unchanged++;
+            } else {
+                writes.add(document);
+                writeTags.add(batchTags.get(i));
+            }
+        }
+        if (writes.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
+
+        long startNanos = System.nanoTime();
+        return elasticsearchManager.bulkIndexAsync(writes, stored)
+                .whenComplete((response, error) -> CrawlMetrics.BULK_SECONDS.observeSince(startNanos))
+                .thenApply(response -> {
+                    List<BulkResponseItem> items = response.items();
+                    for (int i = 0; i < writeTags.size(); i++) {
+                        BulkResponseItem item = i < items.size() ? items.get(i) : null;
+                        String id = writes.get(i).getId();
+                        long deliveryTag = writeTags.get(i);
+                        if (item == null) {
+                            result.retry.add(deliveryTag);
+                        } else if (item.error() == null) {
+                            result.succeeded.add(deliveryTag);
+                            if (stored.containsKey(id)) {
+                                result.updated++;
+                            } else {
+                                result.created++;
+                            }
+                        } else if (ElasticSearchManager.isAlreadyExists(item)) {
+                            // Статью с таким хешем одновременно записал другой процесс
+                            logger.debug("Document with hash {} already exists in Elasticsearch", id);
+                            result.succeeded.add(deliveryTag);
+                            result.duplicates++;
+                        } else if (ElasticSearchManager.isRetryable(item)) {
+                            result.retry.add(deliveryTag);
+                            result.overloaded |= ElasticSearchManager.isRejected(item);
+                            logger.warn("Document with hash {} will be retried: {} {}",
+                                    id, item.status(), item.error().reason());
+                        } else {
+                            result.rejected.add(deliveryTag);
+                            logger.error("Error indexing document with hash {}: {} {}",
+                                    id, item.status(), item.error().reason());
+                        }
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * Учитывает результат пакета в метриках и передает его слушателю.
+     *
+     * @param result Результат пакета.
+     */
+    private void complete(BatchResult result) {
+        logger.info("Bulk request completed: {} created, {} updated, {} unchanged, {} retried, {} rejected",
+                result.created, result.updated, result.unchanged, result.retry.size(), result.rejected.size());
+        INDEXED.add(result.created);
+        UPDATED.add(result.updated);
+        UNCHANGED.add(result.unchanged);
+        DUPLICATES.add(result.duplicates);
+        RETRIED.add(result.retry.size());
+        FAILED.add(result.rejected.size());
+        try {
+            listener.onBulkResult(result.succeeded, result.retry, result.rejected);
+        } catch (RuntimeException e) {
+            logger.error("Error handling bulk result", e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Отправляет оставшиеся документы и останавливает таймер.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        synchronized (this) {
+            flush(true);
+            closed = true;
+        }
+        awaitInFlight();
+    }
+
+    /**
+     * Ожидает ответа на отправленные пакеты, но не дольше тайм-аута.
+     * Сообщения без ответа останутся неподтвержденными и вернутся в очередь после закрытия канала.
+     */
+    private void awaitInFlight() {
+        try {
+            if (inFlight.tryAcquire(maxInFlight, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                inFlight.release(maxInFlight);
+            } else {
+                logger.warn("Bulk requests still in flight after {} ms", CLOSE_TIMEOUT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Результат пакета: теги доставки по исходам и счетчики для метрик.
+     */
+    private static final class BatchResult {
+        private final List<Long> succeeded;
+        private final List<Long> retry = new ArrayList<>();
+        private final List<Long> rejected = new ArrayList<>();
+        private int created;
+        private int updated;
+        private int unchanged;
+        private int duplicates;
+        private boolean overloaded;
+
+        private BatchResult(int size) {
+            this.succeeded = new ArrayList<>(size);
+        }
+
+        private BatchResult retryAll(List<Long> deliveryTags) {
+            retry.addAll(deliveryTags);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Общий для процесса бюджет байтов в обработке: тел ответов, загруженных или загружаемых
+ * и еще не разобранных. Асинхронный семафор в байтах: запрос на загрузку резервирует часть бюджета
+ * и ждет в очереди, пока занятый объем не опустится до лимита, не блокируя потоки.
+ * Фактический размер тела добавляется по мере чтения ответа без ожидания, поэтому бюджет может быть
+ * превышен уже начатыми загрузками, но новые не начинаются, пока разбор не освободит место.
+ * Запрос, который больше всего бюджета, выполняется, когда в обработке нет других байтов.
+ */
+public class ByteBudget {
+
+    private final long limit;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private long used;
+
+    /**
+     * Конструктор.
+     *
+     * @param limit Максимальное количество байтов в обработке.
+     */
+    public ByteBudget(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Резервирует байты; будущий результат завершается, когда резерв получен.
+     * Запросы обслуживаются по очереди, чтобы крупный резерв не ждал бесконечно за мелкими.
+     *
+     * @param bytes Количество байтов.
+     * @return Будущий результат резервирования.
+     */
+    public synchronized CompletableFuture<Void> acquire(long bytes) {
+        if (waiters.isEmpty() && fits(bytes)) {
+            used += bytes;
+            return CompletableFuture.completedFuture(null);
+        }
+        Waiter waiter = new Waiter(bytes);
+        waiters.add(waiter);
+        return waiter.future;
+    }
+
+    /**
+     * Добавляет байты к занятому объему без ожидания.
+     *
+     * @param bytes Количество байтов.
+     */
+    public synchronized void add(long bytes) {
+        used += bytes;
+    }
+
+    /**
+     * Освобождает байты и выдает резерв ожидающим запросам, которые теперь помещаются в бюджет.
+     *
+     * @param bytes Количество байтов.
+     */
+    public void release(long bytes) {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        synchronized (this) {
+            used -= bytes;
+            while (!waiters.isEmpty() && fits(waiters.peek().bytes)) {
+                Waiter next = waiters.poll();
+                used += next.bytes;
+                granted.add(next.future);
+            }
+        }
+        // Ожидающие загрузки продолжаются вне блокировки
+        granted.forEach(future -> future.complete(null));
+    }
+
+    private boolean fits(long bytes) {
+        return used == 0 || used + bytes <= limit;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public synchronized int getWaiting() {
+        return waiters.size();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    private static final class Waiter {
+        private final long bytes;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Автоматический выключатель для перегруженного внешнего сервиса.
+ * После заданного количества неудач подряд выключатель размыкается: слушатели приостанавливают
+ * отправку запросов. По истечении паузы выключатель переходит в пробное состояние и снова
+ * разрешает запросы; первая удача замыкает его, первая неудача снова размыкает.
+ */
+public class CircuitBreaker implements AutoCloseable {
+
+    /**
+     * Слушатель переключений выключателя.
+     */
+    public interface Listener {
+
+        /**
+         * Вызывается, когда выключатель разомкнулся и запросы нужно приостановить.
+         */
+        void onOpen();
+
+        /**
+         * Вызывается, когда запросы снова разрешены: в пробном или замкнутом состоянии.
+         */
+        void onClose();
+    }
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+
+    /**
+     * Конструктор.
+     *
+     * @param name             Имя сервиса для лога.
+     * @param failureThreshold Количество неудач подряд, после которого выключатель размыкается.
+     * @param openDuration     Пауза до пробного запроса.
+     */
+    public CircuitBreaker(String name, int failureThreshold, Duration openDuration) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openDuration.toMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "circuit-breaker-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Проверяет, разомкнут ли выключатель.
+     *
+     * @return true, если запросы приостановлены.
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    /**
+     * Учитывает успешный запрос.
+     */
+    public void onSuccess() {
+        boolean closed;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            closed = state == State.HALF_OPEN;
+            state = State.CLOSED;
+        }
+        if (closed) {
+            logger.info("Circuit breaker for {} closed", name);
+        }
+    }
+
+    /**
+     * Учитывает неудачный запрос: ошибку соединения или отказ из-за перегрузки.
+     */
+    public void onFailure() {
+        synchronized (this) {
+            consecutiveFailures++;
+            if (state == State.OPEN
+                    || (state == State.CLOSED && consecutiveFailures < failureThreshold)) {
+                return;
+            }
+            state = State.OPEN;
+        }
+        logger.warn("Circuit breaker for {} opened after {} consecutive failures, pausing for {} ms",
+                name, consecutiveFailures, openMillis);
+        listeners.forEach(Listener::onOpen);
+        scheduler.schedule(this::halfOpen, openMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void halfOpen() {
+        synchronized (this) {
+            if (state != State.OPEN) {
+                return;
+            }
+            state = State.HALF_OPEN;
+        }
+        logger.info("Circuit breaker for {} half-open, resuming requests", name);
+        listeners.forEach(Listener::onClose);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
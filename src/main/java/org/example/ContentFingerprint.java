@@ -0,0 +1,123 @@
+package org.example;
+
+/**
+ * Отпечаток содержимого статьи.
+ * Состоит из двух значений:
+ * - хеш SHA-256 заголовка и текста ({@link HashKey}): совпадает, только если содержимое не изменилось,
+ *   и позволяет при повторном обходе не перезаписывать документ в Elasticsearch;
+ * - SimHash текста (64 бита): у похожих текстов отличается в немногих битах,
+ *   что позволяет находить почти дубли, см. {@link SimHashIndex}.
+ * SimHash строится по парам соседних слов, приведенных к нижнему регистру.
+ */
+public final class ContentFingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final HashKey contentHash;
+    private final long simHash;
+
+    private ContentFingerprint(HashKey contentHash, long simHash) {
+        this.contentHash = contentHash;
+        this.simHash = simHash;
+    }
+
+    /**
+     * Вычисляет отпечаток статьи.
+     *
+     * @param article Статья.
+     * @return Отпечаток содержимого.
+     */
+    public static ContentFingerprint of(Article article) {
+        // Тот же SHA-256, что и для ссылок; разделитель не дает склеить заголовок с текстом
+        HashKey contentHash = UrlHasher.hash(article.getTitle() + '\u0000' + article.getText());
+        return new ContentFingerprint(contentHash, simHash(article.getText()));
+    }
+
+    public HashKey getContentHash() {
+        return contentHash;
+    }
+
+    public long getSimHash() {
+        return simHash;
+    }
+
+    /**
+     * Вычисляет SimHash текста по парам соседних слов.
+     * Каждая пара хешируется в 64 бита; бит результата равен 1, если у большинства пар этот бит равен 1.
+     *
+     * @param text Текст.
+     * @return SimHash; 0 для текста без слов.
+     */
+    public static long simHash(String text) {
+        int[] weights = new int[Long.SIZE];
+        long previous = 0;
+        boolean hasPrevious = false;
+        int shingles = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i >= length) {
+                break;
+            }
+            long word = FNV_OFFSET;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                word = (word ^ Character.toLowerCase(text.charAt(i))) * FNV_PRIME;
+                i++;
+            }
+            if (hasPrevious) {
+                addShingle(weights, mix(previous * 31 + word));
+                shingles++;
+            }
+            previous = word;
+            hasPrevious = true;
+        }
+        if (!hasPrevious) {
+            return 0;
+        }
+        if (shingles == 0) {
+            // Текст из одного слова: пар нет, отпечаток строится по самому слову
+            addShingle(weights, mix(previous));
+        }
+
+        long result = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (weights[bit] > 0) {
+                result |= 1L << bit;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает расстояние Хэмминга между двумя SimHash.
+     *
+     * @param a Первый SimHash.
+     * @param b Второй SimHash.
+     * @return Количество различающихся бит.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static void addShingle(int[] weights, long hash) {
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            weights[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+        }
+    }
+
+    /**
+     * Перемешивает биты хеша (финализатор MurmurHash3), чтобы биты SimHash были независимы.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,579 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Постоянный фронтир обхода: для каждой известной ссылки хранит приоритет, состояние
+ * (в очереди, загружена, записана в Elasticsearch, отброшена) и время следующей загрузки.
+ * Состояние находится в памяти, а каждое изменение дописывается в журнал на диске (write-ahead log).
+ * Запись журнала — длина, CRC32 и поля ссылки; при открытии журнал читается до первой
+ * неполной, поврежденной или нечитаемой записи, которая остается после аварийной остановки, и обрезается по ней.
+ * Журнал пишет только один процесс: на время работы берется блокировка файла рядом с журналом
+ * (журнал при сжатии заменяется, поэтому блокируется не он сам), и второй процесс не открывает фронтир.
+ * Когда записей в журнале становится в несколько раз больше, чем ссылок, журнал сжимается:
+ * текущее состояние пишется во временный файл, который атомарно заменяет журнал.
+ * Журнал сбрасывается на диск периодически и при закрытии.
+ * Загруженные ссылки с запланированной повторной загрузкой хранятся также в куче по времени
+ * следующей загрузки, из которой {@link RecrawlScheduler} забирает наступившие загрузки.
+ */
+public class CrawlFrontier implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrawlFrontier.class);
+    private static final int MAGIC = 0x46524e32; // "FRN2"
+    // Журнал без интервала повторной загрузки и хеша содержимого; при открытии переписывается
+    private static final int LEGACY_MAGIC = 0x46524e31; // "FRN1"
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+    private static final int MIN_COMPACTION_RECORDS = 10000;
+
+    /**
+     * Приоритет ссылки по умолчанию.
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    /**
+     * Состояние ссылки.
+     */
+    public enum Status {
+        /** Ссылка опубликована в очередь, страница еще не загружена. */
+        QUEUED,
+        /** Страница загружена и разобрана, статья опубликована на запись. */
+        FETCHED,
+        /** Статья записана в Elasticsearch. */
+        INDEXED,
+        /** Страницу не удалось загрузить или разобрать, ссылка больше не публикуется. */
+        FAILED
+    }
+
+    /**
+     * Ссылка фронтира.
+     */
+    public static final class Entry {
+        private final HashKey key;
+        private final String url;
+        private final int priority;
+        private final Status status;
+        private final long nextFetchMillis;
+        private final long revisitMillis;
+        private final long contentHash;
+
+        private Entry(HashKey key, String url, int priority, Status status, long nextFetchMillis,
+                      long revisitMillis, long contentHash) {
+            this.key = key;
+            this.url = url;
+            this.priority = priority;
+            this.status = status;
+            this.nextFetchMillis = nextFetchMillis;
+            this.revisitMillis = revisitMillis;
+            this.contentHash = contentHash;
+        }
+
+        private Entry withStatus(Status status) {
+            return new Entry(key, url, priority, status, nextFetchMillis, revisitMillis, contentHash);
+        }
+
+        public HashKey getKey() {
+            return key;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return Время следующей загрузки в миллисекундах эпохи; 0 — повторная загрузка не запланирована.
+         */
+        public long getNextFetchMillis() {
+            return nextFetchMillis;
+        }
+
+        /**
+         * @return Текущий интервал повторной загрузки в миллисекундах; 0 — еще не назначен.
+         */
+        public long getRevisitMillis() {
+            return revisitMillis;
+        }
+
+        /**
+         * @return Первые 8 байт хеша содержимого при последней загрузке; 0 — неизвестен.
+         */
+        public long getContentHash() {
+            return contentHash;
+        }
+    }
+
+    private final Path path;
+    private final double compactionRatio;
+    private final Map<HashKey, Entry> entries = new HashMap<>();
+    // Записи с запланированной загрузкой; устаревшие записи кучи пропускаются при извлечении
+    private final PriorityQueue<Entry> revisits =
+            new PriorityQueue<>(Comparator.comparingLong(Entry::getNextFetchMillis));
+    private final ScheduledExecutorService scheduler;
+    private final FileChannel lockFile;
+    private FileOutputStream file;
+    private DataOutputStream log;
+    private long logRecords;
+    private boolean closed;
+
+    /**
+     * Открывает фронтир из журнала или создает пустой.
+     *
+     * @param path            Путь к файлу журнала.
+     * @param compactionRatio Во сколько раз записей журнала должно быть больше, чем ссылок, для сжатия.
+     * @param flushMillis     Период сброса журнала на диск в миллисекундах.
+     * @throws IOException Если возникает ошибка при работе с файлом или фронтир открыт другим процессом.
+     */
+    public CrawlFrontier(Path path, double compactionRatio, long flushMillis) throws IOException {
+        this.path = path;
+        this.compactionRatio = compactionRatio;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.lockFile = lock(path.resolveSibling(path.getFileName() + ".lock"));
+        long start = System.currentTimeMillis();
+        try {
+            boolean legacy = recover();
+            openLog();
+            if (legacy) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (log != null) {
+                log.close();
+            }
+            lockFile.close();
+            throw e;
+        }
+        logger.info("Crawl frontier {} loaded in {} ms: {} URLs, {} log records",
+                path, System.currentTimeMillis() - start, entries.size(), logRecords);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "crawl-frontier-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Берет исключительную блокировку файла, не дожидаясь ее освобождения.
+     *
+     * @param lockPath Путь к файлу блокировки.
+     * @return Открытый файл блокировки; блокировка снимается при его закрытии.
+     * @throws IOException Если файл уже заблокирован другим процессом или фронтиром в этом процессе.
+     */
+    private static FileChannel lock(Path lockPath) throws IOException {
+        FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Crawl frontier " + lockPath + " is locked by another process");
+        }
+        return channel;
+    }
+
+    /**
+     * Добавляет новую ссылку в состоянии {@link Status#QUEUED}.
+     *
+     * @param url      Ссылка.
+     * @param key      Ключ ссылки.
+     * @param priority Приоритет ссылки.
+     * @return true, если ссылка новая; false, если она уже есть во фронтире.
+     */
+    public synchronized boolean offer(String url, HashKey key, int priority) {
+        if (entries.containsKey(key)) {
+            return false;
+        }
+        update(new Entry(key, url, priority, Status.QUEUED, 0, 0, 0));
+        return true;
+    }
+
+    /**
+     * Отмечает, что страница загружена, и планирует ее повторную загрузку.
+     * Ссылка, которой нет во фронтире (например, опубликованная другим процессом), добавляется.
+     *
+     * @param url           Ссылка.
+     * @param key           Ключ ссылки.
+     * @param priority      Приоритет повторной загрузки.
+     * @param contentHash   Хеш содержимого страницы.
+     * @param revisitMillis Интервал до повторной загрузки в миллисекундах; 0 — не загружать повторно.
+     */
+    public synchronized void markFetched(String url, HashKey key, int priority, long contentHash,
+                                         long revisitMillis) {
+        Entry previous = entries.get(key);
+        long nextFetchMillis = revisitMillis > 0 ? System.currentTimeMillis() + revisitMillis : 0;
+        Entry entry = new Entry(key, previous != null ? previous.url : url, priority, Status.FETCHED,
+                nextFetchMillis, revisitMillis, contentHash);
+        update(entry);
+        if (nextFetchMillis > 0) {
+            revisits.add(entry);
+        }
+    }
+
+    /**
+     * Отмечает, что статья записана в Elasticsearch.
+     *
+     * @param url Ссылка.
+     * @param key Ключ ссылки.
+     */
+    public synchronized void markIndexed(String url, HashKey key) {
+        setStatus(url, key, Status.INDEXED);
+    }
+
+    /**
+     * Отмечает, что ссылку не удалось обработать и ее сообщение отброшено, чтобы она не осталась
+     * в состоянии {@link Status#QUEUED} и не публиковалась заново после перезапуска.
+     * Новая ссылка отбрасывается насовсем; у повторной загрузки ранее загруженной страницы
+     * сохраняется расписание, и страница будет загружена снова через прежний интервал.
+     *
+     * @param url Ссылка.
+     * @param key Ключ ссылки.
+     */
+    public synchronized void markFailed(String url, HashKey key) {
+        Entry previous = entries.get(key);
+        if (previous == null || previous.revisitMillis <= 0) {
+            setStatus(url, key, Status.FAILED);
+            return;
+        }
+        Entry entry = new Entry(key, previous.url, previous.priority, Status.FAILED,
+                System.currentTimeMillis() + previous.revisitMillis, previous.revisitMillis, previous.contentHash);
+        update(entry);
+        revisits.add(entry);
+    }
+
+    private void setStatus(String url, HashKey key, Status status) {
+        Entry previous = entries.get(key);
+        if (previous == null) {
+            update(new Entry(key, url, DEFAULT_PRIORITY, status, 0, 0, 0));
+        } else if (previous.status != status) {
+            Entry entry = previous.withStatus(status);
+            update(entry);
+            if (entry.nextFetchMillis > 0) {
+                revisits.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Забирает ссылки, время повторной загрузки которых наступило, в порядке этого времени
+     * и переводит их в состояние {@link Status#QUEUED}. Интервал и хеш содержимого сохраняются,
+     * чтобы после загрузки сравнить содержимое и скорректировать интервал.
+     *
+     * @param nowMillis Текущее время в миллисекундах эпохи.
+     * @param limit     Максимальное количество ссылок.
+     * @return Ссылки для повторной загрузки.
+     */
+    public synchronized List<Entry> takeDue(long nowMillis, int limit) {
+        List<Entry> due = new ArrayList<>();
+        while (due.size() < limit && !revisits.isEmpty() && revisits.peek().nextFetchMillis <= nowMillis) {
+            Entry candidate = revisits.poll();
+            // Запись кучи устарела, если ссылка с тех пор изменилась
+            if (entries.get(candidate.key) != candidate) {
+                continue;
+            }
+            Entry entry = new Entry(candidate.key, candidate.url, candidate.priority, Status.QUEUED, 0,
+                    candidate.revisitMillis, candidate.contentHash);
+            update(entry);
+            due.add(entry);
+        }
+        return due;
+    }
+
+    /**
+     * Возвращает в расписание ссылку, взятую {@link #takeDue}, которую не удалось опубликовать:
+     * она будет взята снова через заданное время. Ссылка, которая с тех пор изменилась, не трогается.
+     *
+     * @param entry       Ссылка, возвращенная {@link #takeDue}.
+     * @param delayMillis Задержка до следующей попытки в миллисекундах.
+     */
+    public synchronized void retryLater(Entry entry, long delayMillis) {
+        if (entries.get(entry.key) != entry) {
+            return;
+        }
+        Entry retry = new Entry(entry.key, entry.url, entry.priority, Status.FETCHED,
+                System.currentTimeMillis() + delayMillis, entry.revisitMillis, entry.contentHash);
+        update(retry);
+        revisits.add(retry);
+    }
+
+    /**
+     * Проверяет, нужно ли загружать страницу: она еще не загружена, снова поставлена в очередь
+     * или наступило запланированное время повторной загрузки.
+     *
+     * @param key Ключ ссылки.
+     * @return true, если страницу нужно загрузить.
+     */
+    public synchronized boolean shouldFetch(HashKey key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.status == Status.QUEUED) {
+            return true;
+        }
+        return entry.nextFetchMillis > 0 && entry.nextFetchMillis <= System.currentTimeMillis();
+    }
+
+    /**
+     * Возвращает ссылку фронтира.
+     *
+     * @param key Ключ ссылки.
+     * @return Ссылка или null.
+     */
+    public synchronized Entry get(HashKey key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Возвращает ссылки, которые опубликованы, но еще не загружены, в порядке убывания приоритета.
+     * После перезапуска их можно опубликовать заново, если очередь была потеряна.
+     *
+     * @return Ссылки в состоянии {@link Status#QUEUED}.
+     */
+    public synchronized List<Entry> queued() {
+        List<Entry> queued = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.status == Status.QUEUED) {
+                queued.add(entry);
+            }
+        }
+        queued.sort(Comparator.comparingInt(Entry::getPriority).reversed());
+        return queued;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Сбрасывает журнал на диск и сжимает его, если он разросся.
+     *
+     * @throws IOException Если возникает ошибка записи.
+     */
+    public synchronized void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        log.flush();
+        file.getFD().sync();
+        if (logRecords >= MIN_COMPACTION_RECORDS && logRecords > entries.size() * compactionRatio) {
+            compact();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.error("Error flushing crawl frontier {}", path, e);
+        }
+    }
+
+    private void update(Entry entry) {
+        entries.put(entry.key, entry);
+        if (revisits.size() > 2 * entries.size() + MIN_COMPACTION_RECORDS) {
+            rebuildRevisits();
+        }
+        try {
+            writeRecord(log, entry);
+            logRecords++;
+        } catch (IOException e) {
+            // Состояние в памяти верное; после перезапуска ссылка будет загружена повторно
+            logger.error("Error writing crawl frontier record for {}", entry.url, e);
+        }
+    }
+
+    /**
+     * Перестраивает кучу повторных загрузок по текущему состоянию, убирая устаревшие записи.
+     */
+    private void rebuildRevisits() {
+        revisits.clear();
+        for (Entry entry : entries.values()) {
+            if (entry.status != Status.QUEUED && entry.nextFetchMillis > 0) {
+                revisits.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Читает журнал и восстанавливает состояние ссылок.
+     * Неполная, поврежденная или нечитаемая запись отбрасывается вместе со всем, что за ней.
+     *
+     * @return true, если журнал записан в прежнем формате и его нужно переписать.
+     */
+    private boolean recover() throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        long validBytes = 0;
+        boolean legacy = false;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int magic = input.readInt();
+            if (magic != MAGIC && magic != LEGACY_MAGIC) {
+                throw new IOException("Not a crawl frontier file: " + path);
+            }
+            legacy = magic == LEGACY_MAGIC;
+            validBytes = Integer.BYTES;
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length = input.readInt();
+                int checksum = input.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                Entry entry;
+                try {
+                    entry = readEntry(payload, legacy);
+                } catch (IOException | RuntimeException e) {
+                    // Контрольная сумма сошлась, но поля не читаются: журнал за этой записью не доверяется
+                    logger.warn("Crawl frontier {} has an undecodable record at {} bytes", path, validBytes, e);
+                    break;
+                }
+                entries.put(entry.key, entry);
+                logRecords++;
+                validBytes += 2 * Integer.BYTES + length;
+            }
+        } catch (EOFException e) {
+            // Конец журнала или запись, прерванная остановкой процесса
+        }
+        if (validBytes < Files.size(path)) {
+            logger.warn("Crawl frontier {} has an incomplete tail, truncating at {} bytes", path, validBytes);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+        }
+        rebuildRevisits();
+        return legacy;
+    }
+
+    private void openLog() throws IOException {
+        boolean empty = !Files.exists(path) || Files.size(path) == 0;
+        file = new FileOutputStream(path.toFile(), true);
+        log = new DataOutputStream(new BufferedOutputStream(file));
+        if (empty) {
+            log.writeInt(MAGIC);
+            log.flush();
+        }
+    }
+
+    /**
+     * Переписывает журнал по текущему состоянию: по одной записи на ссылку.
+     */
+    private void compact() throws IOException {
+        long start = System.currentTimeMillis();
+        long before = logRecords;
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream tempFile = new FileOutputStream(temp.toFile());
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(tempFile))) {
+            output.writeInt(MAGIC);
+            for (Entry entry : entries.values()) {
+                writeRecord(output, entry);
+            }
+            output.flush();
+            tempFile.getFD().sync();
+        }
+        log.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logRecords = entries.size();
+        openLog();
+        logger.info("Crawl frontier {} compacted from {} to {} records in {} ms",
+                path, before, logRecords, System.currentTimeMillis() - start);
+    }
+
+    private static void writeRecord(DataOutputStream output, Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entry.url.length());
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(entry.key.getHigh());
+        payload.writeLong(entry.key.getLow());
+        payload.writeByte(entry.status.ordinal());
+        payload.writeInt(entry.priority);
+        payload.writeLong(entry.nextFetchMillis);
+        payload.writeLong(entry.revisitMillis);
+        payload.writeLong(entry.contentHash);
+        payload.writeUTF(entry.url);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        output.writeInt(bytes.size());
+        output.writeInt((int) crc.getValue());
+        bytes.writeTo(output);
+    }
+
+    private static Entry readEntry(byte[] payload, boolean legacy) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        HashKey key = new HashKey(input.readLong(), input.readLong());
+        Status status = Status.values()[input.readByte()];
+        int priority = input.readInt();
+        long nextFetchMillis = input.readLong();
+        long revisitMillis = legacy ? 0 : input.readLong();
+        long contentHash = legacy ? 0 : input.readLong();
+        String url = input.readUTF();
+        return new Entry(key, url, priority, status, nextFetchMillis, revisitMillis, contentHash);
+    }
+
+    /**
+     * Сбрасывает журнал на диск, сжимает его при необходимости и закрывает файл.
+     *
+     * @throws IOException Если возникает ошибка записи.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        synchronized (this) {
+            flush();
+            closed = true;
+            try {
+                log.close();
+            } finally {
+                lockFile.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.example;
+
+/**
+ * Метрики краулера в общем реестре процесса {@link #REGISTRY}.
+ * Метрики без меток создаются заранее; метрики с метками (код ответа, очередь)
+ * берутся из реестра при обращении, а часто используемые сохраняются в полях компонентов.
+ */
+public final class CrawlMetrics {
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    public static final MetricsRegistry.Counter FETCH_BYTES = REGISTRY.counter(
+            "crawler_fetch_bytes_total", "Bytes of response bodies downloaded");
+    public static final MetricsRegistry.Counter FETCH_TRUNCATED = REGISTRY.counter(
+            "crawler_fetch_truncated_total", "Response bodies cut off at the maximum body size");
+    public static final MetricsRegistry.Histogram PARSE_SECONDS = REGISTRY.histogram(
+            "crawler_parse_seconds", "Time spent extracting an article from a downloaded page");
+    public static final MetricsRegistry.Counter PARSE_ERRORS = REGISTRY.counter(
+            "crawler_parse_errors_total", "Pages that could not be parsed into an article");
+    public static final MetricsRegistry.Histogram BULK_SECONDS = REGISTRY.histogram(
+            "crawler_es_bulk_seconds", "Latency of Elasticsearch bulk requests");
+
+    private CrawlMetrics() {
+    }
+
+    /**
+     * Возвращает гистограмму времени загрузки страниц для кода ответа.
+     *
+     * @param status Код ответа HTTP или "error" для сетевых ошибок и тайм-аутов.
+     * @return Гистограмма.
+     */
+    public static MetricsRegistry.Histogram fetchSeconds(String status) {
+        return REGISTRY.histogram("crawler_fetch_seconds", "Page fetch time by HTTP status", "status", status);
+    }
+
+    /**
+     * Возвращает счетчик опубликованных сообщений очереди.
+     *
+     * @param queue Имя очереди.
+     * @return Счетчик.
+     */
+    public static MetricsRegistry.Counter published(String queue) {
+        return REGISTRY.counter("crawler_messages_published_total", "Messages published to a queue",
+                "queue", queue);
+    }
+
+    /**
+     * Возвращает счетчик подтвержденных сообщений очереди.
+     *
+     * @param queue Имя очереди.
+     * @return Счетчик.
+     */
+    public static MetricsRegistry.Counter acked(String queue) {
+        return REGISTRY.counter("crawler_messages_acked_total", "Messages acknowledged after processing",
+                "queue", queue);
+    }
+
+    /**
+     * Возвращает счетчик отклоненных сообщений очереди.
+     *
+     * @param queue   Имя очереди.
+     * @param requeue true, если сообщения возвращаются в очередь.
+     * @return Счетчик.
+     */
+    public static MetricsRegistry.Counter nacked(String queue, boolean requeue) {
+        return REGISTRY.counter("crawler_messages_nacked_total", "Messages rejected by a consumer",
+                "queue", queue, "requeue", String.valueOf(requeue));
+    }
+
+    /**
+     * Возвращает счетчик документов пакетной записи с указанным результатом.
+     *
+     * @param result indexed, updated, unchanged, duplicate, retried или failed.
+     * @return Счетчик.
+     */
+    public static MetricsRegistry.Counter bulkDocuments(String result) {
+        return REGISTRY.counter("crawler_es_bulk_documents_total", "Documents sent in Elasticsearch bulk requests",
+                "result", result);
+    }
+
+    /**
+     * Регистрирует показатели этапа конвейера: глубину очереди, выполняемые и завершенные задачи.
+     *
+     * @param stats Статистика этапа.
+     */
+    public static void registerStage(StageStats stats) {
+        String stage = stats.getName();
+        REGISTRY.gauge("crawler_stage_queued", "Tasks waiting in a pipeline stage",
+                stats::getQueueDepth, "stage", stage);
+        REGISTRY.gauge("crawler_stage_active", "Tasks running in a pipeline stage",
+                stats::getActive, "stage", stage);
+        REGISTRY.counter("crawler_stage_completed_total", "Tasks completed by a pipeline stage",
+                stats::getCompleted, "stage", stage);
+    }
+
+    /**
+     * Регистрирует показатели памяти под тела ответов: занятый бюджет байтов, ожидающие его загрузки
+     * и свободные буферы пула.
+     *
+     * @param budget Бюджет байтов в обработке.
+     * @param pool   Пул буферов тел ответов.
+     */
+    public static void registerBodyMemory(ByteBudget budget, BufferPool pool) {
+        REGISTRY.gauge("crawler_fetch_inflight_bytes", "Bytes of response bodies fetched and not yet parsed",
+                budget::getUsed);
+        REGISTRY.gauge("crawler_fetch_budget_waiting", "Fetches waiting for the in-flight bytes budget",
+                budget::getWaiting);
+        REGISTRY.gauge("crawler_buffer_pool_bytes", "Capacity of free pooled body buffers",
+                pool::getPooledBytes);
+    }
+}
@@ -0,0 +1,137 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Конвейер обхода: сбор ссылок, загрузка и парсинг статей, запись в Elasticsearch.
+ * Все этапы запускаются одновременно, у каждого свой пул потоков нужного размера.
+ * Этапы связаны очередями RabbitMQ: ограничение prefetch потребителей задает обратное давление,
+ * поэтому быстрый этап не может накопить в памяти больше сообщений, чем разрешено.
+ * В режиме до опустошения очередей этап завершается, только когда завершен предыдущий этап
+ * и его очередь простаивает; в непрерывном режиме этапы работают до вызова {@link #shutdown()}.
+ * Во время работы в лог периодически записывается статистика этапов {@link StageStats}.
+ */
+public class CrawlPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrawlPipeline.class);
+
+    private final List<Runnable> discovery;
+    private final List<? extends QueueConsumer> parsers;
+    private final List<? extends QueueConsumer> indexers;
+    private final List<StageStats> stats;
+    private final long statsIntervalMillis;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    /**
+     * Конструктор.
+     *
+     * @param discovery           Задачи сбора ссылок; каждая выполняется в своем потоке.
+     * @param parsers             Потребители очереди ссылок.
+     * @param indexers            Потребители очереди информации о статьях.
+     * @param stats               Статистика этапов, которая периодически записывается в лог.
+     * @param statsIntervalMillis Период записи статистики в миллисекундах.
+     */
+    public CrawlPipeline(List<Runnable> discovery, List<? extends QueueConsumer> parsers,
+                         List<? extends QueueConsumer> indexers, List<StageStats> stats, long statsIntervalMillis) {
+        this.discovery = discovery;
+        this.parsers = parsers;
+        this.indexers = indexers;
+        this.stats = stats;
+        this.statsIntervalMillis = statsIntervalMillis;
+    }
+
+    /**
+     * Запускает все этапы и ожидает их завершения.
+     *
+     * @throws InterruptedException Если поток прерван во время ожидания.
+     */
+    public void run() throws InterruptedException {
+        ExecutorService discoveryPool = newPool("discovery", discovery.size());
+        ExecutorService parsePool = newPool("parse", parsers.size());
+        ExecutorService indexPool = newPool("index", indexers.size());
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stage-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(this::reportStats, statsIntervalMillis, statsIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        try {
+            CompletableFuture<Void> discovered = submitAll(discovery, discoveryPool);
+            parsers.forEach(parser -> parser.setUpstreamDone(discovered::isDone));
+            CompletableFuture<Void> parsed = submitAll(parsers, parsePool);
+            indexers.forEach(indexer -> indexer.setUpstreamDone(parsed::isDone));
+            CompletableFuture<Void> indexed = submitAll(indexers, indexPool);
+
+            logStage("Discovery", discovered);
+            logStage("Parsing", parsed);
+            logStage("Indexing", indexed);
+        } finally {
+            reporter.shutdownNow();
+            reportStats();
+            discoveryPool.shutdownNow();
+            parsePool.shutdownNow();
+            indexPool.shutdownNow();
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Ожидает завершения {@link #run()}, например после {@link #shutdown()} из обработчика остановки JVM.
+     *
+     * @throws InterruptedException Если поток прерван во время ожидания.
+     */
+    public void awaitTermination() throws InterruptedException {
+        finished.await();
+    }
+
+    /**
+     * Запрашивает остановку потребителей. Уже полученные сообщения дообрабатываются и подтверждаются.
+     */
+    public void shutdown() {
+        parsers.forEach(QueueConsumer::shutdown);
+        indexers.forEach(QueueConsumer::shutdown);
+    }
+
+    private void reportStats() {
+        for (StageStats stage : stats) {
+            logger.info(stage.report());
+        }
+    }
+
+    private static CompletableFuture<Void> submitAll(List<? extends Runnable> tasks, ExecutorService pool) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            futures.add(CompletableFuture.runAsync(task, pool));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private static void logStage(String stage, CompletableFuture<Void> done) throws InterruptedException {
+        try {
+            done.get();
+            logger.info("{} stage completed", stage);
+        } catch (ExecutionException e) {
+            logger.error("{} stage failed", stage, e.getCause());
+        }
+    }
+
+    private static ExecutorService newPool(String name, int size) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> new Thread(runnable, name + "-" + counter.incrementAndGet());
+        return Executors.newFixedThreadPool(Math.max(1, size), threadFactory);
+    }
+}
@@ -0,0 +1,150 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Настройки краулера.
+ * Значения по умолчанию берутся из ресурса {@value #DEFAULT_RESOURCE}, затем переопределяются
+ * файлом настроек, переменными окружения (rabbitmq.host -> CRAWLER_RABBITMQ_HOST)
+ * и системными свойствами (-Dcrawler.rabbitmq.host=...).
+ * Переопределять можно только параметры, известные по ресурсу по умолчанию.
+ */
+public class CrawlerConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrawlerConfig.class);
+    public static final String DEFAULT_RESOURCE = "crawler.properties";
+    private static final String ENV_PREFIX = "CRAWLER_";
+    private static final String PROPERTY_PREFIX = "crawler.";
+
+    private final Properties properties;
+
+    /**
+     * Конструктор.
+     *
+     * @param properties Итоговые значения параметров.
+     */
+    public CrawlerConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Загружает настройки.
+     *
+     * @param path     Путь к файлу настроек.
+     * @param required true, если файл указан явно и должен существовать.
+     * @return Настройки.
+     * @throws IOException Если файл не читается.
+     */
+    public static CrawlerConfig load(Path path, boolean required) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream input = CrawlerConfig.class.getClassLoader().getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (input == null) {
+                throw new IOException("Default configuration resource not found: " + DEFAULT_RESOURCE);
+            }
+            properties.load(new InputStreamReader(input, StandardCharsets.UTF_8));
+        }
+
+        if (Files.exists(path)) {
+            logger.info("Loading configuration from {}", path);
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        } else if (required) {
+            throw new IOException("Configuration file not found: " + path);
+        }
+
+        Map<String, String> environment = System.getenv();
+        for (String key : properties.stringPropertyNames()) {
+            String fromEnvironment = environment.get(environmentName(key));
+            if (fromEnvironment != null) {
+                properties.setProperty(key, fromEnvironment);
+            }
+            String fromSystem = System.getProperty(PROPERTY_PREFIX + key);
+            if (fromSystem != null) {
+                properties.setProperty(key, fromSystem);
+            }
+        }
+        return new CrawlerConfig(properties);
+    }
+
+    /**
+     * Возвращает имя переменной окружения для параметра.
+     *
+     * @param key Имя параметра.
+     * @return Имя переменной окружения.
+     */
+    static String environmentName(String key) {
+        return ENV_PREFIX + key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+    public String getString(String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing configuration parameter: " + key);
+        }
+        return value.trim();
+    }
+
+    public int getInt(String key) {
+        return (int) getLong(key);
+    }
+
+    public long getLong(String key) {
+        try {
+            return Long.parseLong(getString(key));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid integer for " + key + ": " + getString(key), e);
+        }
+    }
+
+    public double getDouble(String key) {
+        try {
+            return Double.parseDouble(getString(key));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number for " + key + ": " + getString(key), e);
+        }
+    }
+
+    public boolean getBoolean(String key) {
+        String value = getString(key);
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException("Invalid boolean for " + key + ": " + value);
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    public Path getPath(String key) {
+        return Paths.get(getString(key));
+    }
+
+    /**
+     * Возвращает список значений, разделенных запятыми.
+     *
+     * @param key Имя параметра.
+     * @return Непустые значения списка.
+     */
+    public List<String> getList(String key) {
+        List<String> values = new ArrayList<>();
+        for (String value : getString(key).split(",")) {
+            if (!value.isBlank()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+}
@@ -1,10 +1,27 @@
 package org.example;
 
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch.core.IndexResponse;
-import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.MgetRequest;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.get.GetResult;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetOperation;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
+import co.elastic.clients.elasticsearch.indices.GetAliasResponse;
+import co.elastic.clients.elasticsearch.indices.AliasDefinition;
+import co.elastic.clients.elasticsearch.indices.RolloverResponse;
+import co.elastic.clients.elasticsearch.indices.get_alias.IndexAliases;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import co.elastic.clients.transport.ElasticsearchTransport;
 import co.elastic.clients.transport.endpoints.BooleanResponse;
 import co.elastic.clients.transport.rest_client.RestClientTransport;
 import org.apache.http.HttpHost;
@@ -12,40 +29,240 @@ import org.elasticsearch.client.RestClient;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Класс для управления взаимодействием с базой данных Elasticsearch.
  * Включает методы для проверки существования индекса, создания индекса,
  * проверки существования документа и добавления документа.
+ * Статьи пишутся через псевдоним {@value #INDEX_NAME}, который указывает на индексы
+ * article-000001, article-000002 и т. д., созданные по шаблону {@value #TEMPLATE_NAME}.
+ * Когда индекс для записи достигает лимитов {@link IndexOptions}, псевдоним переключается
+ * на новый индекс (rollover), поэтому размер каждого индекса ограничен.
+ * Если {@value #INDEX_NAME} — обычный индекс, созданный до появления псевдонима, запись идет в него
+ * без rollover.
+ * Клиент работает с несколькими узлами кластера через общий пул соединений (см. {@link ClientOptions}).
+ * Пакетная запись и чтение отпечатков выполняются асинхронно; о перегрузке кластера
+ * сообщает {@link CircuitBreaker}, который получает результаты запросов от {@link BulkIndexer}.
  */
 public class ElasticSearchManager {
     private static final Logger logger = LogManager.getLogger(ElasticSearchManager.class);
     private final ElasticsearchClient client;
+    private final ElasticsearchAsyncClient asyncClient;
+    private final CircuitBreaker circuitBreaker;
     private static final String INDEX_NAME = "article";
+    private static final String INDEX_PATTERN = INDEX_NAME + "-*";
+    private static final String FIRST_INDEX_NAME = INDEX_NAME + "-000001";
+    private static final String TEMPLATE_NAME = INDEX_NAME + "-template";
     private static final String SERVER_URL = "http://localhost:9200";
+    private static final int CONFLICT_STATUS = 409;
+    private static final int TOO_MANY_REQUESTS_STATUS = 429;
+    private static final int SERVER_ERROR_STATUS = 500;
+    private static final String BULK_LOAD_REFRESH_INTERVAL = "-1";
+    private static final String BULK_LOAD_REPLICAS = "0";
+
+    private final IndexOptions options;
+    private ScheduledExecutorService rolloverScheduler;
+    private volatile boolean rolloverEnabled;
+    // Индексы псевдонима от нового к старому; обновляются при инициализации и проверке rollover
+    private volatile List<String> articleIndices = List.of(INDEX_NAME);
+    private String bulkLoadIndex;
+
+    /**
+     * Настройки индексов статей.
+     */
+    public static final class IndexOptions {
+
+        /**
+         * Настройки по умолчанию: один шард, одна реплика, rollover по 10 млн документов,
+         * 30 дням или 50 ГБ на основной шард.
+         */
+        public static final IndexOptions DEFAULT = new IndexOptions(1, 1, "1s", 10_000_000, "30d", "50gb");
+
+        private final int shards;
+        private final int replicas;
+        private final String refreshInterval;
+        private final long rolloverMaxDocs;
+        private final String rolloverMaxAge;
+        private final String rolloverMaxPrimarySize;
+
+        /**
+         * Конструктор.
+         *
+         * @param shards                 Количество основных шардов нового индекса.
+         * @param replicas               Количество реплик.
+         * @param refreshInterval        Период обновления поиска, например "1s".
+         * @param rolloverMaxDocs        Количество документов, после которого создается новый индекс.
+         * @param rolloverMaxAge         Возраст индекса, после которого создается новый индекс, например "30d".
+         * @param rolloverMaxPrimarySize Размер основного шарда, после которого создается новый индекс, например "50gb".
+         */
+        public IndexOptions(int shards, int replicas, String refreshInterval, long rolloverMaxDocs,
+                            String rolloverMaxAge, String rolloverMaxPrimarySize) {
+            this.shards = shards;
+            this.replicas = replicas;
+            this.refreshInterval = refreshInterval;
+            this.rolloverMaxDocs = rolloverMaxDocs;
+            this.rolloverMaxAge = rolloverMaxAge;
+            this.rolloverMaxPrimarySize = rolloverMaxPrimarySize;
+        }
+    }
+
+    /**
+     * Настройки клиента: пул соединений, тайм-ауты и автоматический выключатель.
+     */
+    public static final class ClientOptions {
+
+        /**
+         * Настройки по умолчанию: до 30 соединений, до 10 на узел, тайм-ауты 5 и 60 секунд;
+         * выключатель размыкается после 5 неудач подряд на 30 секунд.
+         */
+        public static final ClientOptions DEFAULT = new ClientOptions(30, 10, 5000, 60000, 5, 30000);
+
+        private final int maxConnections;
+        private final int maxConnectionsPerNode;
+        private final int connectTimeoutMillis;
+        private final int socketTimeoutMillis;
+        private final int breakerFailureThreshold;
+        private final long breakerOpenMillis;
+
+        /**
+         * Конструктор.
+         *
+         * @param maxConnections          Максимальное количество соединений со всеми узлами.
+         * @param maxConnectionsPerNode   Максимальное количество соединений с одним узлом.
+         * @param connectTimeoutMillis    Тайм-аут установки соединения в миллисекундах.
+         * @param socketTimeoutMillis     Тайм-аут ожидания ответа в миллисекундах.
+         * @param breakerFailureThreshold Количество неудачных запросов подряд, после которого запись приостанавливается.
+         * @param breakerOpenMillis       Длительность приостановки записи в миллисекундах.
+         */
+        public ClientOptions(int maxConnections, int maxConnectionsPerNode, int connectTimeoutMillis,
+                             int socketTimeoutMillis, int breakerFailureThreshold, long breakerOpenMillis) {
+            this.maxConnections = maxConnections;
+            this.maxConnectionsPerNode = maxConnectionsPerNode;
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.socketTimeoutMillis = socketTimeoutMillis;
+            this.breakerFailureThreshold = breakerFailureThreshold;
+            this.breakerOpenMillis = breakerOpenMillis;
+        }
+    }
+
+    /**
+     * Отпечаток записанной статьи и индекс, в котором она хранится.
+     */
+    public static final class StoredFingerprint {
+        private final String index;
+        private final String fingerprint;
+
+        private StoredFingerprint(String index, String fingerprint) {
+            this.index = index;
+            this.fingerprint = fingerprint;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        /**
+         * @return Отпечаток или null, если статья записана до появления отпечатков.
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+    }
 
     /**
      * Конструктор.
-     * Инициализирует клиент для взаимодействия с Elasticsearch.
+     * Инициализирует клиент для взаимодействия с Elasticsearch по адресу по умолчанию.
      */
     public ElasticSearchManager() {
-        this.client = new ElasticsearchClient(
-                new RestClientTransport(
-                        RestClient.builder(HttpHost.create(SERVER_URL)).build(),
-                        new JacksonJsonpMapper(JsonMapper.builder().build())
-                )
-        );
+        this(SERVER_URL, IndexOptions.DEFAULT);
+    }
+
+    /**
+     * Конструктор.
+     * Инициализирует клиент для взаимодействия с Elasticsearch с настройками клиента по умолчанию.
+     *
+     * @param serverUrl Адрес сервера Elasticsearch.
+     * @param options   Настройки индексов статей.
+     */
+    public ElasticSearchManager(String serverUrl, IndexOptions options) {
+        this(List.of(serverUrl), ClientOptions.DEFAULT, options);
+    }
+
+    /**
+     * Конструктор.
+     * Инициализирует синхронный и асинхронный клиенты с общим пулом соединений;
+     * запросы распределяются по узлам, недоступный узел временно исключается.
+     *
+     * @param serverUrls    Адреса узлов кластера Elasticsearch.
+     * @param clientOptions Настройки пула соединений и выключателя.
+     * @param options       Настройки индексов статей.
+     */
+    public ElasticSearchManager(List<String> serverUrls, ClientOptions clientOptions, IndexOptions options) {
+        HttpHost[] hosts = new HttpHost[serverUrls.size()];
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i] = HttpHost.create(serverUrls.get(i).trim());
+        }
+        RestClient restClient = RestClient.builder(hosts)
+                .setHttpClientConfigCallback(httpClient -> httpClient
+                        .setMaxConnTotal(clientOptions.maxConnections)
+                        .setMaxConnPerRoute(clientOptions.maxConnectionsPerNode))
+                .setRequestConfigCallback(request -> request
+                        .setConnectTimeout(clientOptions.connectTimeoutMillis)
+                        .setSocketTimeout(clientOptions.socketTimeoutMillis))
+                .build();
+        ElasticsearchTransport transport = new RestClientTransport(restClient,
+                new JacksonJsonpMapper(JsonMapper.builder().build()));
+        this.client = new ElasticsearchClient(transport);
+        this.asyncClient = new ElasticsearchAsyncClient(transport);
+        this.circuitBreaker = new CircuitBreaker("elasticsearch", clientOptions.breakerFailureThreshold,
+                Duration.ofMillis(clientOptions.breakerOpenMillis));
+        this.options = options;
+        CrawlMetrics.REGISTRY.gauge("crawler_es_circuit_open", "1 while Elasticsearch writes are paused by the circuit breaker",
+                () -> circuitBreaker.isOpen() ? 1 : 0);
+    }
+
+    /**
+     * Возвращает выключатель, который приостанавливает запись при перегрузке Elasticsearch.
+     *
+     * @return Выключатель.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
     }
 
     /**
      * Инициализация Elasticsearch.
-     * Проверяет существование индекса и создает его при отсутствии.
+     * Обновляет шаблон индексов и создает первый индекс с псевдонимом, если псевдонима еще нет;
+     * затем проверяет, не пора ли переключиться на новый индекс.
      *
      * @throws IOException Если возникает ошибка при взаимодействии с Elasticsearch.
      */
     public void init() throws IOException {
-        if (!checkIfIndexExists()) {
-            createIndex();
+        putTemplate();
+        if (checkIfAliasExists()) {
+            rolloverEnabled = true;
+            rolloverIfNeeded();
+        } else if (checkIfIndexExists()) {
+            logger.warn("Index {} is not an alias, rollover is disabled; reindex it into {} to enable rollover",
+                    INDEX_NAME, FIRST_INDEX_NAME);
+        } else if (createIndex() || checkIfAliasExists()) {
+            // Псевдоним мог создать другой процесс одновременно с этим
+            rolloverEnabled = true;
+            refreshArticleIndices();
+        } else {
+            logger.warn("Index alias {} is not created, rollover is disabled", INDEX_NAME);
         }
     }
 
@@ -61,22 +278,201 @@ public class ElasticSearchManager {
     }
 
     /**
-     * Создает индекс в Elasticsearch.
+     * Проверяет существование псевдонима для записи статей.
+     *
+     * @return true, если псевдоним существует.
+     * @throws IOException Если возникает ошибка при проверке псевдонима.
+     */
+    private boolean checkIfAliasExists() throws IOException {
+        BooleanResponse response = client.indices().existsAlias(a -> a.name(INDEX_NAME));
+        return response.value();
+    }
+
+    /**
+     * Создает или обновляет шаблон индексов статей: настройки шардов и реплик и схему полей.
+     * url и author хранятся как keyword для точных фильтров и агрегаций,
+     * у заголовка есть подполе keyword для сортировки и точного поиска.
+     *
+     * @throws IOException Если возникает ошибка при создании шаблона.
      */
-    private void createIndex() {
+    private void putTemplate() throws IOException {
+        client.indices().putIndexTemplate(t -> t
+                .name(TEMPLATE_NAME)
+                .indexPatterns(INDEX_PATTERN)
+                .template(template -> template
+                        .settings(s -> s
+                                .numberOfShards(String.valueOf(options.shards))
+                                .numberOfReplicas(String.valueOf(options.replicas))
+                                .refreshInterval(time(options.refreshInterval)))
+                        .mappings(mappings())));
+        logger.info(String.format("Index template %s updated", TEMPLATE_NAME));
+    }
+
+    private static TypeMapping mappings() {
+        return TypeMapping.of(m -> m
+                .properties("hash", p -> p.keyword(d -> d))
+                .properties("url", p -> p.keyword(d -> d))
+                .properties("title", p -> p.text(d -> d
+                        .fields("keyword", f -> f.keyword(k -> k.ignoreAbove(256)))))
+                .properties("text", p -> p.text(d -> d))
+                .properties("author", p -> p.keyword(d -> d))
+                .properties("time", p -> p.date(d -> d))
+                .properties(ArticleDocument.FINGERPRINT_FIELD, p -> p.keyword(d -> d))
+                .properties(ArticleDocument.SIMHASH_FIELD, p -> p.long_(d -> d))
+                .properties(ArticleDocument.LANGUAGE_FIELD, p -> p.keyword(d -> d)));
+    }
+
+    /**
+     * Создает первый индекс статей; настройки и схема берутся из шаблона,
+     * а псевдоним {@value #INDEX_NAME} указывает на него как на индекс для записи.
+     *
+     * @return true, если индекс создан.
+     */
+    private boolean createIndex() {
         try {
-            client.indices().create(i -> i.index(INDEX_NAME)
-                    .mappings(m -> m.properties("hash", p -> p.keyword(d -> d))
-                            .properties("url", p -> p.text(d -> d))
-                            .properties("title", p -> p.text(d -> d))
-                            .properties("text", p -> p.text(d -> d))
-                            .properties("author", p -> p.keyword(d -> d))
-                            .properties("time", p -> p.date(d -> d))
-                    ));
-            logger.info(String.format("Index %s created successfully", INDEX_NAME));
-        } catch (IOException e) {
-            logger.error(String.format("Error creating index %s: %s", INDEX_NAME, e.getMessage()));
+            client.indices().create(i -> i.index(FIRST_INDEX_NAME)
+                    .aliases(INDEX_NAME, a -> a.isWriteIndex(true)));
+            logger.info(String.format("Index %s created successfully", FIRST_INDEX_NAME));
+            return true;
+        } catch (IOException | ElasticsearchException e) {
+            logger.error(String.format("Error creating index %s: %s", FIRST_INDEX_NAME, e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Переключает псевдоним на новый индекс, если индекс для записи достиг лимитов,
+     * и перечитывает список индексов псевдонима, в том числе после rollover в другом процессе.
+     * Ошибки записываются в лог: проверка повторится при следующем вызове.
+     */
+    public void rolloverIfNeeded() {
+        if (!rolloverEnabled) {
+            return;
+        }
+        try {
+            RolloverResponse response = client.indices().rollover(r -> r
+                    .alias(INDEX_NAME)
+                    .conditions(c -> c
+                            .maxDocs(options.rolloverMaxDocs)
+                            .maxAge(time(options.rolloverMaxAge))
+                            .maxPrimaryShardSize(options.rolloverMaxPrimarySize)));
+            if (response.rolledOver()) {
+                logger.info("Index alias {} rolled over from {} to {}",
+                        INDEX_NAME, response.oldIndex(), response.newIndex());
+            }
+        } catch (IOException | ElasticsearchException e) {
+            logger.error("Error rolling over index alias {}", INDEX_NAME, e);
+        }
+        refreshArticleIndices();
+    }
+
+    /**
+     * Перечитывает индексы, на которые указывает псевдоним. При ошибке остается прежний список.
+     */
+    private void refreshArticleIndices() {
+        if (!rolloverEnabled) {
+            return;
+        }
+        try {
+            GetAliasResponse response = client.indices().getAlias(a -> a.name(INDEX_NAME));
+            List<String> indices = new ArrayList<>(response.result().keySet());
+            indices.sort(Comparator.reverseOrder());
+            articleIndices = indices;
+        } catch (IOException | ElasticsearchException e) {
+            logger.error("Error reading indices of alias {}", INDEX_NAME, e);
+        }
+    }
+
+    /**
+     * Запускает периодическую проверку rollover для непрерывной работы.
+     *
+     * @param interval Период проверки.
+     */
+    public synchronized void startRolloverChecks(Duration interval) {
+        if (rolloverScheduler != null) {
+            return;
+        }
+        rolloverScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "index-rollover");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rolloverScheduler.scheduleWithFixedDelay(this::rolloverIfNeeded,
+                interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Переводит индекс для записи в режим массовой загрузки: поиск не обновляется
+     * (refresh_interval=-1), реплики отключены. Так запись идет быстрее, но новые документы
+     * не видны поиску до {@link #finishBulkLoad()}.
+     *
+     * @throws IOException Если возникает ошибка при изменении настроек.
+     */
+    public synchronized void startBulkLoad() throws IOException {
+        bulkLoadIndex = writeIndex();
+        client.indices().putSettings(p -> p
+                .index(bulkLoadIndex)
+                .settings(s -> s
+                        .refreshInterval(time(BULK_LOAD_REFRESH_INTERVAL))
+                        .numberOfReplicas(BULK_LOAD_REPLICAS)));
+        logger.info("Bulk load mode enabled for index {}", bulkLoadIndex);
+    }
+
+    /**
+     * Завершает массовую загрузку: возвращает период обновления и реплики из настроек,
+     * запускает слияние сегментов до одного в фоне и проверяет rollover.
+     */
+    public synchronized void finishBulkLoad() {
+        if (bulkLoadIndex == null) {
+            return;
+        }
+        String index = bulkLoadIndex;
+        bulkLoadIndex = null;
+        try {
+            client.indices().putSettings(p -> p
+                    .index(index)
+                    .settings(s -> s
+                            .refreshInterval(time(options.refreshInterval))
+                            .numberOfReplicas(String.valueOf(options.replicas))));
+            client.indices().refresh(r -> r.index(index));
+            // Слияние долгое: запрос асинхронный, и его результат только записывается в лог
+            asyncClient.indices().forcemerge(f -> f.index(index).maxNumSegments(1L))
+                    .whenComplete((response, error) -> {
+                        if (error != null) {
+                            logger.error("Error force merging index {}", index, error);
+                        } else {
+                            logger.info("Force merge of index {} completed", index);
+                        }
+                    });
+            logger.info("Bulk load mode disabled for index {}, force merge started", index);
+        } catch (IOException | ElasticsearchException e) {
+            logger.error("Error restoring settings of index {} after bulk load", index, e);
         }
+        rolloverIfNeeded();
+    }
+
+    /**
+     * Возвращает имя индекса, в который сейчас пишет псевдоним.
+     *
+     * @return Имя индекса.
+     * @throws IOException Если возникает ошибка при чтении псевдонима.
+     */
+    private String writeIndex() throws IOException {
+        if (!rolloverEnabled) {
+            return INDEX_NAME;
+        }
+        GetAliasResponse response = client.indices().getAlias(a -> a.name(INDEX_NAME));
+        String latest = null;
+        for (Map.Entry<String, IndexAliases> entry : response.result().entrySet()) {
+            AliasDefinition alias = entry.getValue().aliases().get(INDEX_NAME);
+            if (alias != null && Boolean.TRUE.equals(alias.isWriteIndex())) {
+                return entry.getKey();
+            }
+            if (latest == null || entry.getKey().compareTo(latest) > 0) {
+                latest = entry.getKey();
+            }
+        }
+        return latest;
     }
 
     /**
@@ -87,34 +483,209 @@ public class ElasticSearchManager {
      * @throws IOException Если возникает ошибка при проверке документа.
      */
     public boolean checkDocumentExists(Article article) throws IOException {
-        SearchResponse<Object> searchResponse = client.search(builder ->
-                        builder.index(INDEX_NAME)
-                                .query(query -> query.term(termQuery -> termQuery.field("hash").value(article.getHash()))),
-                Object.class);
+        return findExistingHashes(List.of(article.getHash())).contains(article.getHash());
+    }
+
+    /**
+     * Пакетно проверяет существование документов одним запросом без загрузки их содержимого.
+     *
+     * @param hashes Хеши статей (идентификаторы документов).
+     * @return Множество хешей, документы с которыми уже есть в Elasticsearch.
+     * @throws IOException Если возникает ошибка при проверке документов.
+     */
+    public Set<String> findExistingHashes(Collection<String> hashes) throws IOException {
+        return findFingerprints(hashes).keySet();
+    }
+
+    /**
+     * Пакетно читает отпечатки содержимого записанных статей.
+     * Статья может лежать в любом из индексов псевдонима, поэтому _mget запрашивает каждый хеш
+     * в каждом индексе. В отличие от поиска, _mget читает документы в реальном времени и находит
+     * статьи, записанные после последнего обновления индекса (в том числе при refresh_interval=-1
+     * во время массовой загрузки). Из документов загружается только поле отпечатка.
+     *
+     * @param hashes Хеши статей (идентификаторы документов).
+     * @return Хеш найденной статьи -> отпечаток и индекс статьи.
+     * @throws IOException Если возникает ошибка при чтении документов.
+     */
+    public Map<String, StoredFingerprint> findFingerprints(Collection<String> hashes) throws IOException {
+        if (hashes.isEmpty()) {
+            return new HashMap<>();
+        }
+        return toFingerprints(client.mget(fingerprintsRequest(hashes), ObjectNode.class));
+    }
+
+    /**
+     * Асинхронно читает отпечатки содержимого записанных статей, см. {@link #findFingerprints(Collection)}.
+     *
+     * @param hashes Хеши статей (идентификаторы документов).
+     * @return Хеш найденной статьи -> отпечаток и индекс статьи; завершается с ошибкой при сбое запроса.
+     */
+    public CompletableFuture<Map<String, StoredFingerprint>> findFingerprintsAsync(Collection<String> hashes) {
+        if (hashes.isEmpty()) {
+            return CompletableFuture.completedFuture(new HashMap<>());
+        }
+        return asyncClient.mget(fingerprintsRequest(hashes), ObjectNode.class)
+                .thenApply(ElasticSearchManager::toFingerprints);
+    }
+
+    /**
+     * Строит _mget каждого хеша в каждом индексе статей, который загружает из документов только поле отпечатка.
+     */
+    private MgetRequest fingerprintsRequest(Collection<String> hashes) {
+        List<String> indices = articleIndices;
+        List<MultiGetOperation> docs = new ArrayList<>(hashes.size() * indices.size());
+        for (String index : indices) {
+            for (String hash : hashes) {
+                docs.add(MultiGetOperation.of(doc -> doc.index(index).id(hash)));
+            }
+        }
+        return MgetRequest.of(mget -> mget
+                .docs(docs)
+                .realtime(true)
+                .sourceIncludes(ArticleDocument.FINGERPRINT_FIELD));
+    }
 
-        return searchResponse.hits().total().value() != 0;
+    private static Map<String, StoredFingerprint> toFingerprints(MgetResponse<ObjectNode> response) {
+        Map<String, StoredFingerprint> fingerprints = new HashMap<>();
+        for (MultiGetResponseItem<ObjectNode> item : response.docs()) {
+            // Ошибка по индексу (например, индекс уже удален) означает, что статьи в нем нет
+            if (!item.isResult() || !item.result().found()) {
+                continue;
+            }
+            GetResult<ObjectNode> result = item.result();
+            ObjectNode source = result.source();
+            // Индексы идут от нового к старому: обновляется самая новая копия статьи
+            fingerprints.putIfAbsent(result.id(), new StoredFingerprint(result.index(),
+                    source == null ? null : source.path(ArticleDocument.FINGERPRINT_FIELD).textValue()));
+        }
+        return fingerprints;
     }
 
     /**
      * Добавляет документ в Elasticsearch.
+     * Документ создается с идентификатором, равным хешу статьи, и op_type=create,
+     * поэтому повторная запись той же статьи не создает дубль.
+     *
+     * Ошибки передаются вызывающему, чтобы сообщение с неуспешно записанной статьей
+     * не было подтверждено.
      *
      * @param article Статья, которая добавляется в Elasticsearch.
+     * @return true, если документ создан; false, если документ с таким хешем уже существует.
+     * @throws IOException Если возникает ошибка при выполнении запроса.
      */
-    public void addDocument(Article article) {
+    public boolean addDocument(Article article) throws IOException {
         try {
-            IndexResponse response = client.index(index -> index
+            client.create(create -> create
                     .index(INDEX_NAME)
-                    .document(article));
+                    .id(article.getHash())
+                    .document(new ArticleDocument(article)));
             logger.info("Document indexed successfully with hash: " + article.getHash());
-        } catch (IOException e) {
-            logger.error("Error indexing document with hash " + article.getHash(), e);
+            return true;
+        } catch (ElasticsearchException e) {
+            if (e.status() == CONFLICT_STATUS) {
+                logger.info("Document with hash " + article.getHash() + " already exists in Elasticsearch");
+                return false;
+            }
+            throw e;
         }
     }
 
+    /**
+     * Проверяет, означает ли результат операции _bulk, что документ уже существует.
+     *
+     * @param item Элемент ответа _bulk.
+     * @return true, если операция create отклонена из-за существующего документа.
+     */
+    public static boolean isAlreadyExists(BulkResponseItem item) {
+        return item.error() != null && item.status() == CONFLICT_STATUS;
+    }
+
+    /**
+     * Проверяет, можно ли повторить операцию _bulk, завершившуюся ошибкой:
+     * кластер перегружен (429) или временно недоступен (5xx).
+     * Остальные ошибки, например неверный документ (400), при повторе не исчезнут.
+     *
+     * @param item Элемент ответа _bulk с ошибкой.
+     * @return true, если документ нужно вернуть в очередь.
+     */
+    public static boolean isRetryable(BulkResponseItem item) {
+        return item.status() == TOO_MANY_REQUESTS_STATUS || item.status() >= SERVER_ERROR_STATUS;
+    }
+
+    /**
+     * Проверяет, отклонена ли операция _bulk из-за перегрузки кластера (очередь записи заполнена).
+     *
+     * @param item Элемент ответа _bulk.
+     * @return true, если Elasticsearch ответил 429.
+     */
+    public static boolean isRejected(BulkResponseItem item) {
+        return item.error() != null && item.status() == TOO_MANY_REQUESTS_STATUS;
+    }
+
+    /**
+     * Добавляет пакет документов в Elasticsearch одним запросом _bulk.
+     * Новый документ создается через псевдоним с идентификатором, равным хешу статьи, и op_type=create;
+     * уже записанный документ обновляется частично (update с doc) в том индексе, где он хранится.
+     * Элементы ответа идут в том же порядке, что и статьи в пакете.
+     * Документы пишутся в тело запроса потоком, без ObjectMapper (см. {@link ArticleDocument}).
+     *
+     * @param documents Документы статей, которые записываются в Elasticsearch.
+     * @param existing  Уже записанные статьи: хеш -> индекс и отпечаток.
+     * @return Ответ Elasticsearch с результатом по каждому документу.
+     * @throws IOException Если возникает ошибка при выполнении запроса.
+     */
+    public BulkResponse bulkIndex(List<ArticleDocument> documents, Map<String, StoredFingerprint> existing)
+            throws IOException {
+        return client.bulk(bulkRequest(documents, existing));
+    }
+
+    /**
+     * Асинхронно добавляет пакет документов в Elasticsearch, см. {@link #bulkIndex(List, Map)}.
+     * Запрос не занимает поток вызывающего; количество одновременных запросов ограничивает пул соединений.
+     *
+     * @param documents Документы статей, которые записываются в Elasticsearch.
+     * @param existing  Уже записанные статьи: хеш -> индекс и отпечаток.
+     * @return Ответ Elasticsearch; завершается с ошибкой при сбое запроса.
+     */
+    public CompletableFuture<BulkResponse> bulkIndexAsync(List<ArticleDocument> documents,
+                                                          Map<String, StoredFingerprint> existing) {
+        return asyncClient.bulk(bulkRequest(documents, existing));
+    }
+
+    private static BulkRequest bulkRequest(List<ArticleDocument> documents, Map<String, StoredFingerprint> existing) {
+        List<BulkOperation> operations = new ArrayList<>(documents.size());
+        for (ArticleDocument document : documents) {
+            StoredFingerprint stored = existing.get(document.getId());
+            if (stored != null) {
+                operations.add(BulkOperation.of(op -> op.update(update -> update
+                        .index(stored.getIndex())
+                        .id(document.getId())
+                        .action(action -> action.doc(document)))));
+            } else {
+                operations.add(BulkOperation.of(op -> op.create(create -> create
+                        .index(INDEX_NAME)
+                        .id(document.getId())
+                        .document(document))));
+            }
+        }
+        return BulkRequest.of(bulk -> bulk.operations(operations));
+    }
+
+    private static Time time(String value) {
+        return Time.of(t -> t.time(value));
+    }
+
     /**
      * Закрывает соединение с Elasticsearch.
      */
     public void close() {
+        synchronized (this) {
+            if (rolloverScheduler != null) {
+                rolloverScheduler.shutdownNow();
+            }
+        }
+        circuitBreaker.close();
         try {
             if (client != null) {
                 ((RestClientTransport) client._transport()).restClient().close();
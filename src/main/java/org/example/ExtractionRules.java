@@ -0,0 +1,337 @@
+package org.example;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.jsoup.select.Selector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Класс с правилами извлечения данных со страниц сайтов.
+ * Правила читаются из JSON-файла, где для каждого сайта (профиля) задан список хостов
+ * и соответствие имен полей селекторам CSS. Селекторы разбираются один раз при загрузке
+ * в объекты {@link Evaluator}, которые затем переиспользуются для всех страниц.
+ * Профиль выбирается по хосту страницы; поддомены хоста относятся к тому же профилю.
+ * Необязательный массив "boilerplate" в разделе "article" задает регулярные выражения
+ * служебных абзацев (подписи, призывы подписаться), которые {@link TextNormalizer} удаляет из текста.
+ */
+public class ExtractionRules {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionRules.class);
+    public static final String DEFAULT_RESOURCE = "extraction-rules.json";
+
+    private final List<SiteProfile> profiles;
+    private final Map<String, SiteProfile> byHost = new HashMap<>();
+
+    /**
+     * Конструктор.
+     *
+     * @param profiles Профили сайтов.
+     */
+    public ExtractionRules(List<SiteProfile> profiles) {
+        this.profiles = Collections.unmodifiableList(new ArrayList<>(profiles));
+        for (SiteProfile profile : profiles) {
+            for (String host : profile.getHosts()) {
+                byHost.put(host, profile);
+            }
+        }
+    }
+
+    /**
+     * Загружает правила из файла, а если его нет — из ресурса {@value #DEFAULT_RESOURCE}.
+     *
+     * @param path Путь к файлу правил.
+     * @return Правила извлечения.
+     * @throws IOException Если файл не читается или содержит ошибки.
+     */
+    public static ExtractionRules load(Path path) throws IOException {
+        if (path != null && Files.exists(path)) {
+            logger.info("Loading extraction rules from {}", path);
+            try (InputStream input = Files.newInputStream(path)) {
+                return parse(input);
+            }
+        }
+        try (InputStream input = ExtractionRules.class.getClassLoader().getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (input == null) {
+                throw new IOException("Extraction rules resource not found: " + DEFAULT_RESOURCE);
+            }
+            return parse(input);
+        }
+    }
+
+    /**
+     * Разбирает правила из JSON.
+     *
+     * @param input Поток с JSON-документом правил.
+     * @return Правила извлечения.
+     * @throws IOException Если документ не читается или содержит ошибки.
+     */
+    public static ExtractionRules parse(InputStream input) throws IOException {
+        try {
+            JSONObject root = new JSONObject(new String(input.readAllBytes(), StandardCharsets.UTF_8));
+            JSONArray sites = root.getJSONArray("sites");
+            List<SiteProfile> profiles = new ArrayList<>();
+            for (int i = 0; i < sites.length(); i++) {
+                profiles.add(SiteProfile.fromJson(sites.getJSONObject(i)));
+            }
+            return new ExtractionRules(profiles);
+        } catch (JSONException | Selector.SelectorParseException | PatternSyntaxException e) {
+            throw new IOException("Invalid extraction rules: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Возвращает профиль для хоста страницы.
+     *
+     * @param url URL страницы.
+     * @return Профиль сайта.
+     * @throws IOException Если для хоста нет правил.
+     */
+    public SiteProfile forUrl(String url) throws IOException {
+        String host;
+        try {
+            host = URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+        SiteProfile profile = host == null ? null : forHost(host);
+        if (profile == null) {
+            throw new IOException("No extraction rules for URL " + url);
+        }
+        return profile;
+    }
+
+    /**
+     * Возвращает профиль для хоста или его родительского домена.
+     *
+     * @param host Хост.
+     * @return Профиль сайта или null, если правил нет.
+     */
+    public SiteProfile forHost(String host) {
+        String candidate = host.toLowerCase(Locale.ROOT);
+        while (true) {
+            SiteProfile profile = byHost.get(candidate);
+            if (profile != null) {
+                return profile;
+            }
+            int dot = candidate.indexOf('.');
+            if (dot < 0) {
+                return null;
+            }
+            candidate = candidate.substring(dot + 1);
+        }
+    }
+
+    public List<SiteProfile> getProfiles() {
+        return profiles;
+    }
+
+    /**
+     * Правило для одного поля: скомпилированный селектор и атрибут, из которого берется значение.
+     * Если атрибут не задан, значением является текст элемента.
+     */
+    public static final class Field {
+        private final String query;
+        private final Evaluator evaluator;
+        private final String attr;
+
+        Field(String query, String attr) {
+            this.query = query;
+            this.evaluator = QueryParser.parse(query);
+            this.attr = attr;
+        }
+
+        static Field fromJson(JSONObject json) {
+            return new Field(json.getString("selector"), json.optString("attr", null));
+        }
+
+        public Evaluator getEvaluator() {
+            return evaluator;
+        }
+
+        /**
+         * Проверяет, подходит ли элемент под селектор поля.
+         *
+         * @param element Элемент.
+         * @return true, если элемент подходит.
+         */
+        public boolean matches(Element element) {
+            return element.is(evaluator);
+        }
+
+        /**
+         * Извлекает значение поля из элемента.
+         *
+         * @param element Элемент, подходящий под селектор.
+         * @return Значение поля.
+         */
+        public String value(Element element) {
+            return attr == null ? element.text().trim() : element.attr(attr);
+        }
+
+        /**
+         * Извлекает значение поля из первого в порядке документа подходящего потомка элемента,
+         * как при потоковом разборе, который берет первое совпадение.
+         *
+         * @param root Корневой элемент поиска.
+         * @return Значение поля или пустая строка, если подходящего элемента нет.
+         */
+        public String select(Element root) {
+            Element first = root.selectFirst(evaluator);
+            return first == null ? "" : value(first);
+        }
+
+        @Override
+        public String toString() {
+            return query;
+        }
+    }
+
+    /**
+     * Профиль сайта: хосты и правила для страниц списка и страниц статей.
+     */
+    public static final class SiteProfile {
+        private final String name;
+        private final List<String> hosts;
+        private final Field listItem;
+        private final Field listLink;
+        private final Field title;
+        private final Field author;
+        private final Field time;
+        private final Field body;
+        private final Field paragraph;
+        private final List<Pattern> boilerplate;
+
+        /**
+         * Конструктор.
+         *
+         * @param name      Имя профиля.
+         * @param hosts     Хосты сайта.
+         * @param listItem  Элемент статьи на странице списка.
+         * @param listLink  Ссылка на статью внутри элемента списка.
+         * @param title     Заголовок статьи.
+         * @param author    Автор статьи.
+         * @param time      Время публикации статьи.
+         * @param body      Тело статьи.
+         * @param paragraph Абзац текста статьи.
+         */
+        public SiteProfile(String name, List<String> hosts, Field listItem, Field listLink,
+                           Field title, Field author, Field time, Field body, Field paragraph) {
+            this(name, hosts, listItem, listLink, title, author, time, body, paragraph, List.of());
+        }
+
+        /**
+         * Конструктор.
+         *
+         * @param name        Имя профиля.
+         * @param hosts       Хосты сайта.
+         * @param listItem    Элемент статьи на странице списка.
+         * @param listLink    Ссылка на статью внутри элемента списка.
+         * @param title       Заголовок статьи.
+         * @param author      Автор статьи.
+         * @param time        Время публикации статьи.
+         * @param body        Тело статьи.
+         * @param paragraph   Абзац текста статьи.
+         * @param boilerplate Шаблоны служебных абзацев, которые удаляются из текста целиком.
+         */
+        public SiteProfile(String name, List<String> hosts, Field listItem, Field listLink,
+                           Field title, Field author, Field time, Field body, Field paragraph,
+                           List<Pattern> boilerplate) {
+            this.name = name;
+            this.hosts = Collections.unmodifiableList(new ArrayList<>(hosts));
+            this.listItem = listItem;
+            this.listLink = listLink;
+            this.title = title;
+            this.author = author;
+            this.time = time;
+            this.body = body;
+            this.paragraph = paragraph;
+            this.boilerplate = Collections.unmodifiableList(new ArrayList<>(boilerplate));
+        }
+
+        static SiteProfile fromJson(JSONObject json) {
+            List<String> hosts = new ArrayList<>();
+            JSONArray hostArray = json.getJSONArray("hosts");
+            for (int i = 0; i < hostArray.length(); i++) {
+                hosts.add(hostArray.getString(i).toLowerCase(Locale.ROOT));
+            }
+            JSONObject listing = json.getJSONObject("listing");
+            JSONObject article = json.getJSONObject("article");
+            List<Pattern> boilerplate = new ArrayList<>();
+            JSONArray boilerplateArray = article.optJSONArray("boilerplate");
+            if (boilerplateArray != null) {
+                for (int i = 0; i < boilerplateArray.length(); i++) {
+                    boilerplate.add(Pattern.compile(boilerplateArray.getString(i)));
+                }
+            }
+            return new SiteProfile(json.getString("name"), hosts,
+                    Field.fromJson(listing.getJSONObject("item")),
+                    Field.fromJson(listing.getJSONObject("link")),
+                    Field.fromJson(article.getJSONObject("title")),
+                    Field.fromJson(article.getJSONObject("author")),
+                    Field.fromJson(article.getJSONObject("time")),
+                    Field.fromJson(article.getJSONObject("body")),
+                    Field.fromJson(article.getJSONObject("paragraph")),
+                    boilerplate);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getHosts() {
+            return hosts;
+        }
+
+        public Field getListItem() {
+            return listItem;
+        }
+
+        public Field getListLink() {
+            return listLink;
+        }
+
+        public Field getTitle() {
+            return title;
+        }
+
+        public Field getAuthor() {
+            return author;
+        }
+
+        public Field getTime() {
+            return time;
+        }
+
+        public Field getBody() {
+            return body;
+        }
+
+        public Field getParagraph() {
+            return paragraph;
+        }
+
+        public List<Pattern> getBoilerplate() {
+            return boilerplate;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Класс для асинхронной загрузки страниц через java.net.http.HttpClient.
+ * Один экземпляр используется всеми компонентами: соединения HTTP/2 переиспользуются,
+ * а количество одновременных запросов к одному хосту ограничивается.
+ * Запросы сверх лимита не блокируют потоки, а ждут освобождения разрешения в очереди хоста.
+ * Перед загрузкой проверяются правила robots.txt, а скорость запросов к домену
+ * регулируется {@link PolitenessScheduler} по кодам ответа и времени ответа.
+ * Статистика этапа загрузки: в очереди — запросы, ждущие разрешения планировщика или хоста,
+ * в работе — отправленные запросы; количество слотов задают потребители через {@link StageStats#addCapacity(int)}.
+ * Ответы запрашиваются сжатыми gzip. Если задан {@link PageCache}, повторная загрузка страницы
+ * отправляется условным запросом (If-None-Match, If-Modified-Since), и неизмененная страница
+ * возвращается с кодом 304 без тела: вызывающий код пропускает ее обработку. Новый ответ 200
+ * попадает в кеш, только когда вызывающий код сохранит запись из {@link FetchResult#takeCacheEntry()}.
+ * Тело ответа читается по частям {@link BoundedBodySubscriber} в буфер из {@link BufferPool}
+ * и обрезается по лимиту размера страницы. Если задан {@link ByteBudget}, запрос перед отправкой
+ * резервирует часть бюджета и ждет, пока разбор не освободит место; бюджет и буфер освобождаются
+ * при закрытии {@link FetchResult}, поэтому вызывающий код закрывает каждый полученный результат.
+ */
+public class FetchEngine implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FetchEngine.class);
+    private static final String USER_AGENT = "JavaCrawler/1.0";
+    private static final String GZIP = "gzip";
+    private static final int UNLIMITED_BODY_BYTES = Integer.MAX_VALUE - 8;
+    // Резерв бюджета на запрос до получения тела: порядок размера обычной страницы статьи
+    private static final int RESERVED_BYTES = 256 * 1024;
+
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final Duration requestTimeout;
+    private final int maxPerHost;
+    private final PolitenessScheduler scheduler;
+    private final RobotsCache robotsCache;
+    private final ConcurrentMap<String, HostPermits> hostPermits = new ConcurrentHashMap<>();
+    private final PageCache pageCache;
+    private final int maxBodyBytes;
+    private final ByteBudget budget;
+    private final BufferPool bufferPool;
+    private final StageStats stats = new StageStats("fetch", 0);
+
+    /**
+     * Конструктор.
+     *
+     * @param connectTimeout Тайм-аут установления соединения.
+     * @param requestTimeout Тайм-аут ответа на запрос.
+     * @param maxPerHost     Максимальное количество одновременных запросов к одному хосту.
+     * @param scheduler      Планировщик скорости запросов к доменам.
+     * @param robotsTtl      Время хранения разобранного robots.txt.
+     */
+    public FetchEngine(Duration connectTimeout, Duration requestTimeout, int maxPerHost,
+                       PolitenessScheduler scheduler, Duration robotsTtl) {
+        this(connectTimeout, requestTimeout, maxPerHost, scheduler, robotsTtl, null);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param connectTimeout Тайм-аут установления соединения.
+     * @param requestTimeout Тайм-аут ответа на запрос.
+     * @param maxPerHost     Максимальное количество одновременных запросов к одному хосту.
+     * @param scheduler      Планировщик скорости запросов к доменам.
+     * @param robotsTtl      Время хранения разобранного robots.txt.
+     * @param pageCache      Кеш страниц для условных запросов или null.
+     */
+    public FetchEngine(Duration connectTimeout, Duration requestTimeout, int maxPerHost,
+                       PolitenessScheduler scheduler, Duration robotsTtl, PageCache pageCache) {
+        this(connectTimeout, requestTimeout, maxPerHost, scheduler, robotsTtl, pageCache,
+                UNLIMITED_BODY_BYTES, null, null);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param connectTimeout Тайм-аут установления соединения.
+     * @param requestTimeout Тайм-аут ответа на запрос.
+     * @param maxPerHost     Максимальное количество одновременных запросов к одному хосту.
+     * @param scheduler      Планировщик скорости запросов к доменам.
+     * @param robotsTtl      Время хранения разобранного robots.txt.
+     * @param pageCache      Кеш страниц для условных запросов или null.
+     * @param maxBodyBytes   Максимальный размер распакованного тела ответа; длинные страницы обрезаются.
+     * @param budget         Общий бюджет байтов тел в обработке или null, чтобы не ограничивать.
+     * @param bufferPool     Пул буферов тел ответов или null, чтобы не переиспользовать буферы.
+     */
+    public FetchEngine(Duration connectTimeout, Duration requestTimeout, int maxPerHost,
+                       PolitenessScheduler scheduler, Duration robotsTtl, PageCache pageCache,
+                       int maxBodyBytes, ByteBudget budget, BufferPool bufferPool) {
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fetch-engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+        this.requestTimeout = requestTimeout;
+        this.maxPerHost = maxPerHost;
+        this.scheduler = scheduler;
+        this.pageCache = pageCache;
+        this.maxBodyBytes = maxBodyBytes;
+        this.budget = budget;
+        this.bufferPool = bufferPool != null ? bufferPool : new BufferPool(0);
+        this.robotsCache = new RobotsCache(USER_AGENT, robotsTtl, robotsUrl -> send(URI.create(robotsUrl), null));
+    }
+
+    /**
+     * Асинхронно загружает страницу по URL.
+     * Будущий результат завершается исключением только при сетевой ошибке, тайм-ауте
+     * или запрете в robots.txt ({@link RobotsDisallowedException});
+     * коды ошибок HTTP возвращаются в {@link FetchResult}.
+     * Если страница не изменилась с прошлой загрузки, результат имеет код 304 и пустое тело.
+     * Результат нужно закрыть после обработки тела.
+     *
+     * @param url URL страницы.
+     * @return Будущий результат загрузки.
+     */
+    public CompletableFuture<FetchResult> fetch(String url) {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new IOException("Invalid URL: " + url, e));
+        }
+
+        return robotsCache.rules(uri).thenCompose(rules -> {
+            if (!rules.isAllowed(uri)) {
+                return CompletableFuture.failedFuture(new RobotsDisallowedException(url));
+            }
+            scheduler.setCrawlDelay(uri.getHost(), rules.getCrawlDelayMillis());
+            return send(uri, pageCache);
+        });
+    }
+
+    /**
+     * Отправляет запрос с учетом скорости домена и лимита одновременных запросов к хосту.
+     *
+     * @param uri   Адрес страницы.
+     * @param cache Кеш для условного запроса или null.
+     * @return Будущий результат загрузки.
+     */
+    private CompletableFuture<FetchResult> send(URI uri, PageCache cache) {
+        String host = uri.getHost();
+        String url = uri.toString();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("User-Agent", USER_AGENT)
+                .header("Accept-Encoding", GZIP)
+                .GET();
+        PageCache.Entry cached = cache != null ? cache.lookup(url) : null;
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                builder.header("If-None-Match", cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                builder.header("If-Modified-Since", cached.getLastModified());
+            }
+        }
+        HttpRequest request = builder.build();
+
+        HostPermits permits = hostPermits.computeIfAbsent(host, h -> new HostPermits(maxPerHost));
+        long reservedBytes = Math.min(maxBodyBytes, RESERVED_BYTES);
+        long[] startNanos = new long[1];
+        Download[] download = new Download[1];
+        stats.queued();
+        // Бюджет берется до разрешения хоста: запрос, ждущий бюджета, не занимает место запросов к хосту
+        return scheduler.acquire(host)
+                .thenCompose(ignored -> budget != null
+                        ? budget.acquire(reservedBytes) : CompletableFuture.<Void>completedFuture(null))
+                .thenCompose(ignored -> permits.acquire())
+                .thenCompose(ignored -> {
+                    startNanos[0] = stats.started();
+                    download[0] = new Download(bufferPool.acquire(), budget, budget != null ? reservedBytes : 0);
+                    return client.sendAsync(request, download[0]::subscribe);
+                })
+                .handle((response, error) -> {
+                    if (startNanos[0] == 0) {
+                        // Запрос не дошел до отправки: разрешение хоста не было получено
+                        stats.dropped();
+                        throw error instanceof CompletionException
+                                ? (CompletionException) error
+                                : new CompletionException(error);
+                    }
+                    permits.release();
+                    stats.finished(startNanos[0]);
+                    if (error != null) {
+                        download[0].abort();
+                        CrawlMetrics.fetchSeconds("error").observeSince(startNanos[0]);
+                        scheduler.onError(host);
+                        throw error instanceof CompletionException
+                                ? (CompletionException) error
+                                : new CompletionException(error);
+                    }
+                    long latencyMillis = (System.nanoTime() - startNanos[0]) / 1_000_000;
+                    CrawlMetrics.fetchSeconds(String.valueOf(response.statusCode())).observeSince(startNanos[0]);
+                    CrawlMetrics.FETCH_BYTES.add(download[0].subscriber.getReceivedBytes());
+                    long retryAfterMillis = PolitenessScheduler.parseRetryAfter(
+                            response.headers().firstValue("Retry-After").orElse(null));
+                    scheduler.onResponse(host, response.statusCode(), latencyMillis, retryAfterMillis);
+
+                    BufferPool.Buffer body = response.body();
+                    boolean truncated = download[0].subscriber.isTruncated();
+                    PageCache.Pending cacheEntry = null;
+                    if (truncated) {
+                        CrawlMetrics.FETCH_TRUNCATED.increment();
+                        logger.warn("Response body of {} truncated to {} bytes", url, maxBodyBytes);
+                    } else if (cache != null && response.statusCode() == 200) {
+                        if (response.headers().allValues("Cache-Control").stream()
+                                .anyMatch(value -> value.contains("no-store"))) {
+                            // Прежние валидаторы больше не относятся к странице
+                            cache.remove(url);
+                        } else {
+                            // Запись сохранит обработчик страницы, когда страница будет обработана
+                            cacheEntry = cache.prepare(url, response.headers().firstValue("ETag").orElse(null),
+                                    response.headers().firstValue("Last-Modified").orElse(null));
+                        }
+                    }
+                    return new FetchResult(url, response.statusCode(), response.headers(), body, truncated,
+                            cacheEntry, download[0]::releaseBudget);
+                });
+    }
+
+    public StageStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Возвращает задержку, с которой стоит повторить запрос к хосту страницы.
+     *
+     * @param url URL страницы.
+     * @return Задержка в миллисекундах.
+     */
+    public long retryDelayMillis(String url) {
+        return scheduler.retryDelayMillis(URI.create(url).getHost());
+    }
+
+    /**
+     * Синхронно загружает страницу по URL.
+     *
+     * @param url URL страницы.
+     * @return Результат загрузки.
+     * @throws IOException Если возникает сетевая ошибка, тайм-аут или поток прерван.
+     */
+    public FetchResult fetchSync(String url) throws IOException {
+        try {
+            return fetch(url).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + url, e);
+        }
+    }
+
+    /**
+     * Проверяет, стоит ли повторить загрузку позже: сайт просит снизить нагрузку (429)
+     * или ошибка на стороне сервера (5xx) может пройти. Ошибки 4xx повторная загрузка не исправит.
+     *
+     * @param statusCode Код ответа HTTP.
+     * @return true для кода 429 и кодов 5xx.
+     */
+    public static boolean isRetryable(int statusCode) {
+        return PolitenessScheduler.isThrottled(statusCode) || statusCode >= 500;
+    }
+
+    /**
+     * Записывает в лог ошибку HTTP и создает соответствующее исключение.
+     *
+     * @param result Результат загрузки с кодом ошибки.
+     * @return Исключение с описанием ошибки.
+     */
+    public static IOException statusError(FetchResult result) {
+        String url = result.getUrl();
+        int statusCode = result.getStatusCode();
+        switch (statusCode) {
+            case 403:
+                logger.error("HTTP 403 Forbidden: Access is denied for URL {}", url);
+                return new IOException("HTTP 403 Forbidden: Access is denied");
+            case 404:
+                logger.error("HTTP 404 Not Found: The requested URL {} was not found on this server", url);
+                return new IOException("HTTP 404 Not Found: URL not found");
+            case 429:
+                logger.error("HTTP 429 Too Many Requests: The server is throttling requests for URL {}", url);
+                return new IOException("HTTP 429 Too Many Requests: Request rate limited");
+            case 503:
+                logger.error("HTTP 503 Service Unavailable: The server is currently unable to handle the request for URL {}", url);
+                return new IOException("HTTP 503 Service Unavailable: Service unavailable");
+            default:
+                logger.error("HTTP error code: {}", statusCode);
+                return new IOException("HTTP error code: " + statusCode);
+        }
+    }
+
+    /**
+     * Исключение, означающее, что загрузка страницы запрещена правилами robots.txt.
+     */
+    public static class RobotsDisallowedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RobotsDisallowedException(String url) {
+            super("Disallowed by robots.txt: " + url);
+        }
+    }
+
+    /**
+     * Останавливает пул потоков клиента.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Тело одного ответа: буфер из пула, получатель тела и занятая часть бюджета байтов.
+     * Резерв бюджета растет вместе с телом, когда тело становится больше резерва.
+     */
+    private final class Download {
+        private final BufferPool.Buffer buffer;
+        private final ByteBudget budget;
+        private BoundedBodySubscriber subscriber;
+        private long heldBytes;
+        private long writtenBytes;
+        private boolean aborted;
+
+        Download(BufferPool.Buffer buffer, ByteBudget budget, long reservedBytes) {
+            this.buffer = buffer;
+            this.budget = budget;
+            this.heldBytes = reservedBytes;
+        }
+
+        HttpResponse.BodySubscriber<BufferPool.Buffer> subscribe(HttpResponse.ResponseInfo info) {
+            boolean gzip = GZIP.equalsIgnoreCase(info.headers().firstValue("Content-Encoding").orElse("").trim());
+            subscriber = new BoundedBodySubscriber(buffer, gzip,
+                    info.headers().firstValueAsLong("Content-Length").orElse(-1), maxBodyBytes, this::written);
+            return subscriber;
+        }
+
+        private synchronized void written(int count) {
+            writtenBytes += count;
+            if (budget != null && !aborted && writtenBytes > heldBytes) {
+                budget.add(writtenBytes - heldBytes);
+                heldBytes = writtenBytes;
+            }
+        }
+
+        /**
+         * Освобождает бюджет после обработки результата.
+         */
+        void releaseBudget() {
+            long bytes;
+            synchronized (this) {
+                bytes = heldBytes;
+                heldBytes = 0;
+            }
+            // Ожидающие бюджета загрузки продолжаются вне блокировки
+            if (budget != null && bytes > 0) {
+                budget.release(bytes);
+            }
+        }
+
+        /**
+         * Освобождает бюджет после ошибки загрузки. Буфер не возвращается в пул:
+         * после тайм-аута клиент еще может дописывать в него тело.
+         */
+        void abort() {
+            synchronized (this) {
+                aborted = true;
+            }
+            releaseBudget();
+        }
+    }
+
+    /**
+     * Асинхронный семафор для ограничения одновременных запросов к одному хосту.
+     */
+    private static final class HostPermits {
+        private final int limit;
+        private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+        private int active;
+
+        HostPermits(int limit) {
+            this.limit = limit;
+        }
+
+        synchronized CompletableFuture<Void> acquire() {
+            if (active < limit) {
+                active++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+
+        void release() {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                next = waiters.poll();
+                if (next == null) {
+                    active--;
+                    return;
+                }
+            }
+            // Разрешение передается следующему ожидающему запросу
+            next.complete(null);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.example;
+
+import java.io.InputStream;
+import java.net.http.HttpHeaders;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Класс, представляющий результат загрузки страницы.
+ * Тело ответа может лежать в буфере из {@link BufferPool} и занимать часть {@link ByteBudget}:
+ * после обработки результат закрывается через {@link #close()}, и буфер с бюджетом освобождаются.
+ * Буфер можно вернуть в пул раньше через {@link #releaseBody()}, если бюджет должен оставаться занятым
+ * тем, что получено из тела.
+ * Ответ 200 может нести подготовленную запись {@link PageCache}: ее забирает и сохраняет обработчик
+ * страницы, когда страница обработана, а не забранная запись удаляется при закрытии результата.
+ */
+public class FetchResult implements AutoCloseable {
+    private final String url;
+    private final int statusCode;
+    private final HttpHeaders headers;
+    private final BufferPool.Buffer body;
+    private final boolean truncated;
+    private final Runnable onClose;
+    private final AtomicReference<PageCache.Pending> cacheEntry;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Конструктор класса FetchResult.
+     *
+     * @param url        URL страницы.
+     * @param statusCode Код ответа HTTP.
+     * @param headers    Заголовки ответа.
+     * @param body       Тело ответа.
+     */
+    public FetchResult(String url, int statusCode, HttpHeaders headers, byte[] body) {
+        this(url, statusCode, headers, BufferPool.Buffer.wrap(body), false, null);
+    }
+
+    /**
+     * Конструктор класса FetchResult.
+     *
+     * @param url        URL страницы.
+     * @param statusCode Код ответа HTTP.
+     * @param headers    Заголовки ответа.
+     * @param body       Буфер с телом ответа; освобождается при закрытии результата.
+     * @param truncated  true, если тело обрезано по лимиту размера.
+     * @param onClose    Действие при закрытии результата или null.
+     */
+    public FetchResult(String url, int statusCode, HttpHeaders headers, BufferPool.Buffer body, boolean truncated,
+                       Runnable onClose) {
+        this(url, statusCode, headers, body, truncated, null, onClose);
+    }
+
+    /**
+     * Конструктор класса FetchResult.
+     *
+     * @param url        URL страницы.
+     * @param statusCode Код ответа HTTP.
+     * @param headers    Заголовки ответа.
+     * @param body       Буфер с телом ответа; освобождается при закрытии результата.
+     * @param truncated  true, если тело обрезано по лимиту размера.
+     * @param cacheEntry Подготовленная запись кеша страниц или null.
+     * @param onClose    Действие при закрытии результата или null.
+     */
+    public FetchResult(String url, int statusCode, HttpHeaders headers, BufferPool.Buffer body, boolean truncated,
+                       PageCache.Pending cacheEntry, Runnable onClose) {
+        this.url = url;
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+        this.truncated = truncated;
+        this.onClose = onClose;
+        this.cacheEntry = new AtomicReference<>(cacheEntry);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Возвращает тело ответа массивом точного размера.
+     * Тело из пула при этом копируется, поэтому для разбора лучше {@link #openBody()}.
+     *
+     * @return Тело ответа.
+     */
+    public byte[] getBody() {
+        return body.toByteArray();
+    }
+
+    /**
+     * Возвращает поток для чтения тела без копирования. Поток действителен до закрытия результата.
+     *
+     * @return Поток тела ответа.
+     */
+    public InputStream openBody() {
+        return body.inputStream();
+    }
+
+    /**
+     * Возвращает буфер с телом ответа. Первые {@link #getBodyLength()} байт массива — тело.
+     *
+     * @return Массив буфера.
+     */
+    public byte[] getBodyArray() {
+        return body.array();
+    }
+
+    public int getBodyLength() {
+        return body.length();
+    }
+
+    /**
+     * Проверяет, что тело ответа обрезано по лимиту размера страницы.
+     *
+     * @return true, если конец страницы не загружен.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Проверяет, что страница успешно загружена.
+     *
+     * @return true, если код ответа 200.
+     */
+    public boolean isOk() {
+        return statusCode == 200;
+    }
+
+    /**
+     * Проверяет, что страница не изменилась с прошлой загрузки.
+     *
+     * @return true, если код ответа 304.
+     */
+    public boolean isNotModified() {
+        return statusCode == 304;
+    }
+
+    /**
+     * Забирает подготовленную запись кеша страниц. Дальше вызывающий код сохраняет ее, когда страница
+     * обработана, или удаляет; результат при закрытии ее уже не трогает.
+     *
+     * @return Запись кеша или null, если ответ не кешируется или запись уже забрана.
+     */
+    public PageCache.Pending takeCacheEntry() {
+        return cacheEntry.getAndSet(null);
+    }
+
+    /**
+     * Возвращает буфер тела в пул, не освобождая бюджет байтов: он освобождается при закрытии.
+     * После вызова тело не читается.
+     */
+    public void releaseBody() {
+        body.release();
+    }
+
+    /**
+     * Возвращает буфер тела в пул и освобождает бюджет байтов. Не забранная запись кеша удаляется.
+     * Повторный вызов ничего не делает.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        PageCache.Pending pending = cacheEntry.getAndSet(null);
+        if (pending != null) {
+            pending.discard();
+        }
+        body.release();
+        if (onClose != null) {
+            onClose.run();
+        }
+    }
+}
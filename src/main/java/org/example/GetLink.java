@@ -6,103 +6,218 @@ import com.rabbitmq.client.ConnectionFactory;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.json.JSONObject;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 /**
  * Класс для сбора ссылок с заданной страницы.
- * Скачивает страницу, извлекает ссылки на статьи и публикует их в очередь RabbitMQ.
+ * Скачивает страницы списка статей, извлекает ссылки на статьи и публикует в очередь RabbitMQ
+ * только новые ссылки. Обход страниц списка прекращается, когда подряд встретилось несколько уже известных статей:
+ * одно совпадение может быть ложным срабатыванием фильтра Блума или статьей, поднятой в списке.
+ * Если задан фронтир, совпадение фильтра проверяется по нему, и ложные срабатывания публикуются как новые ссылки.
+ * Селекторы элементов списка и ссылок берутся из профиля сайта в {@link ExtractionRules}.
+ * Опубликованные ссылки записываются во фронтир {@link CrawlFrontier}, если он задан.
+ * Приоритет ссылки в очереди зависит от ее позиции в списке: статьи вверху списка новее, см. {@link RecrawlPolicy}.
  */
 public class GetLink {
 
     private final String url;
     private final String query;
     private final ConnectionFactory factory;
+    private final FetchEngine fetchEngine;
+    private final SeenUrlFilter seenUrls;
+    private final int maxPages;
+    private final ExtractionRules rules;
+    private final MessageCodec codec;
+    private final CrawlFrontier frontier;
+    private final RecrawlPolicy policy;
+    private final MetricsRegistry.Counter publishedLinks;
+    private static final int MAX_ATTEMPTS = 3;
+    // Сколько известных статей подряд означает, что дальше в списке только они
+    private static final int STOP_AFTER_SEEN = 5;
     private static final Logger logger = LoggerFactory.getLogger(GetLink.class);
 
-    public GetLink(String url, ConnectionFactory factory, String query) {
+    /**
+     * Конструктор.
+     *
+     * @param url         URL страницы со списком статей.
+     * @param factory     Фабрика соединений с RabbitMQ.
+     * @param query       Очередь, в которую публикуются ссылки.
+     * @param fetchEngine Общий движок загрузки страниц.
+     * @param seenUrls    Множество уже опубликованных ссылок.
+     * @param maxPages    Максимальное количество страниц списка за один запуск.
+     * @param rules       Правила извлечения для сайтов.
+     * @param codec       Формат публикуемых сообщений.
+     */
+    public GetLink(String url, ConnectionFactory factory, String query, FetchEngine fetchEngine,
+                   SeenUrlFilter seenUrls, int maxPages, ExtractionRules rules, MessageCodec codec) {
+        this(url, factory, query, fetchEngine, seenUrls, maxPages, rules, codec, null, null);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param url         URL страницы со списком статей.
+     * @param factory     Фабрика соединений с RabbitMQ.
+     * @param query       Очередь, в которую публикуются ссылки.
+     * @param fetchEngine Общий движок загрузки страниц.
+     * @param seenUrls    Множество уже опубликованных ссылок.
+     * @param maxPages    Максимальное количество страниц списка за один запуск.
+     * @param rules       Правила извлечения для сайтов.
+     * @param codec       Формат публикуемых сообщений.
+     * @param frontier    Фронтир обхода или null.
+     * @param policy      Правила приоритета ссылок или null, чтобы публиковать без приоритета.
+     */
+    public GetLink(String url, ConnectionFactory factory, String query, FetchEngine fetchEngine,
+                   SeenUrlFilter seenUrls, int maxPages, ExtractionRules rules, MessageCodec codec,
+                   CrawlFrontier frontier, RecrawlPolicy policy) {
         this.url = url;
         this.factory = factory;
         this.query = query;
+        this.fetchEngine = fetchEngine;
+        this.seenUrls = seenUrls;
+        this.maxPages = maxPages;
+        this.rules = rules;
+        this.codec = codec;
+        this.frontier = frontier;
+        this.policy = policy;
+        this.publishedLinks = CrawlMetrics.published(query);
     }
 
     /**
-     * Вычисление хеша SHA-256 для строки.
-     * @param input Входная строка.
-     * @return Хешированная строка.
-     * @throws NoSuchAlgorithmException Если алгоритм SHA-256 недоступен.
+     * Возвращает URL страницы списка с заданным номером.
+     * @param page Номер страницы, начиная с 1.
+     * @return URL страницы.
      */
-    private String computeHash(String input) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hashBytes = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-        return Base64.getEncoder().encodeToString(hashBytes);
+    private String pageUrl(int page) {
+        if (page == 1) {
+            return url;
+        }
+        return (url.endsWith("/") ? url : url + "/") + "page" + page + "/";
     }
 
     /**
-     * Получение HTML-документа по URL.
+     * Загрузка страницы списка по URL с повтором, если сайт просит снизить нагрузку или отвечает ошибкой сервера.
      * @param url URL страницы.
-     * @return HTML-документ.
+     * @return Результат с кодом 200 или 304 (страница не изменилась с прошлой загрузки); его нужно закрыть.
      * @throws IOException Если возникает ошибка при загрузке страницы.
      */
-    private Document getDocument(String url) throws IOException {
-        URL urlObj = new URL(url);
-        HttpURLConnection connection = (HttpURLConnection) urlObj.openConnection();
-        connection.setRequestMethod("GET");
-        connection.connect();
-
-        int statusCode = connection.getResponseCode();
-        switch (statusCode) {
-            case 200:
+    private FetchResult fetchPage(String url) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            FetchResult result = fetchEngine.fetchSync(url);
+            if (result.isOk()) {
                 logger.info("HTTP 200 for URL {}", url);
-                return Jsoup.parse(connection.getInputStream(), "UTF-8", url);
-            case 403:
-                logger.error("HTTP 403 Forbidden: Access is denied for URL {}", url);
-                throw new IOException("HTTP 403 Forbidden: Access is denied");
-            case 404:
-                logger.error("HTTP 404 Not Found: The requested URL {} was not found on this server", url);
-                throw new IOException("HTTP 404 Not Found: URL not found");
-            case 503:
-                logger.error("HTTP 503 Service Unavailable: The server is currently unable to handle the request for URL {}", url);
-                throw new IOException("HTTP 503 Service Unavailable: Service unavailable");
-            default:
-                logger.error("HTTP error code: {}", statusCode);
-                throw new IOException("HTTP error code: " + statusCode);
+                return result;
+            }
+            if (result.isNotModified()) {
+                return result;
+            }
+            try (result) {
+                IOException error = FetchEngine.statusError(result);
+                if (!FetchEngine.isRetryable(result.getStatusCode()) || attempt >= MAX_ATTEMPTS) {
+                    throw error;
+                }
+            }
+            // Сайт просит снизить нагрузку или ошибка сервера: ждем столько, сколько рассчитал планировщик
+            long delayMillis = fetchEngine.retryDelayMillis(url);
+            logger.info("Retrying URL {} in {} ms (attempt {})", url, delayMillis, attempt + 1);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to retry " + url, e);
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что ссылка уже опубликована. Совпадение фильтра Блума подтверждается фронтиром, если он задан.
+     *
+     * @param hash Хеш ссылки.
+     * @return true, если ссылка уже известна.
+     */
+    private boolean isSeen(HashKey hash) {
+        if (!seenUrls.mightContain(hash)) {
+            return false;
+        }
+        if (frontier != null && frontier.get(hash) == null) {
+            logger.debug("Seen URL filter false positive for hash {}", hash);
+            return false;
         }
+        return true;
     }
 
     /**
      * Метод для запуска процесса сбора ссылок.
-     * Загружает страницу, извлекает ссылки на статьи, вычисляет их хеши и публикует в очередь RabbitMQ.
+     * Загружает страницы списка, извлекает ссылки на статьи, вычисляет их хеши и публикует
+     * в очередь RabbitMQ ссылки, которых нет в множестве известных.
      */
     public void run() {
         try (Connection connection = factory.newConnection();
              Channel channel = connection.createChannel()) {
 
-            Document doc = getDocument(url);
-            Elements posts = doc.select("article.tm-articles-list__item");
+            ExtractionRules.SiteProfile profile = rules.forUrl(url);
+            int published = 0;
+            int position = 0;
+            int seenInRow = 0;
+            for (int page = 1; page <= maxPages; page++) {
+                // Страница списка остается открытой до публикации ее ссылок: запись кеша сохраняется
+                // только после этого, иначе ответ 304 пропустил бы неопубликованные ссылки
+                try (FetchResult result = fetchPage(pageUrl(page))) {
+                    if (result.isNotModified()) {
+                        // Список не изменился: новых статей на этой и следующих страницах нет
+                        logger.info("List page {} not modified", page);
+                        break;
+                    }
+                    Document doc = Jsoup.parse(result.openBody(), "UTF-8", result.getUrl());
+                    List<Element> posts = doc.select(profile.getListItem().getEvaluator());
+                    if (posts.isEmpty()) {
+                        break;
+                    }
+
+                    for (Element post : posts) {
+                        int priority = policy != null ? policy.listingPriority(position++) : CrawlFrontier.DEFAULT_PRIORITY;
+                        String link = profile.getListLink().select(post);
+                        if (link.isEmpty()) {
+                            continue;
+                        }
+                        HashKey hash = UrlHasher.hash(link);
+
+                        if (isSeen(hash)) {
+                            seenInRow++;
+                            continue;
+                        }
+                        seenInRow = 0;
 
-            for (Element post : posts) {
-                String link = "https://habr.com" + post.select("a.tm-title__link").attr("href");
-                String hash = computeHash(link);
+                        LinkMessage message = new LinkMessage(link, hash.toString());
+                        channel.basicPublish("", query, codec.properties(priority), codec.encodeLink(message));
+                        seenUrls.put(hash);
+                        if (frontier != null) {
+                            frontier.offer(link, hash, priority);
+                        }
+                        published++;
+                        publishedLinks.increment();
+                        logger.debug("Published link: {}, hash: {}", link, hash);
+                    }
+                    PageCache.Pending cacheEntry = result.takeCacheEntry();
+                    if (cacheEntry != null) {
+                        cacheEntry.commit();
+                    }
 
-                JSONObject message = new JSONObject();
-                message.put("link", link);
-                message.put("hash", hash);
-                channel.basicPublish("", query, null, message.toString().getBytes(StandardCharsets.UTF_8));
-                logger.info("Published link: {}, hash: {}", link, hash);
+                    // Статьи в списке идут от новых к старым: дальше только уже известные
+                    if (seenInRow >= STOP_AFTER_SEEN) {
+                        logger.info("Reached already seen articles on page {}", page);
+                        break;
+                    }
+                }
             }
-        } catch (IOException | TimeoutException | NoSuchAlgorithmException e) {
+            seenUrls.flush();
+            logger.info("Published {} new links", published);
+        } catch (IOException | TimeoutException e) {
             logger.error("Exception: ", e);
         }
     }
@@ -0,0 +1,122 @@
+package org.example;
+
+import java.util.Base64;
+
+/**
+ * 128-битный ключ ссылки: первые 16 байт хеша SHA-256 в виде двух чисел long.
+ * Используется как ключ дедупликации и как идентификатор документа в Elasticsearch
+ * (строковое представление — 32 шестнадцатеричных символа).
+ */
+public final class HashKey {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    public static final int BYTES = 16;
+
+    private final long high;
+    private final long low;
+
+    /**
+     * Конструктор.
+     *
+     * @param high Старшие 8 байт ключа.
+     * @param low  Младшие 8 байт ключа.
+     */
+    public HashKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Создает ключ из первых 16 байт массива (порядок big-endian).
+     *
+     * @param bytes  Массив байт.
+     * @param offset Смещение первого байта.
+     * @return Ключ.
+     */
+    public static HashKey fromBytes(byte[] bytes, int offset) {
+        return new HashKey(readLong(bytes, offset), readLong(bytes, offset + 8));
+    }
+
+    /**
+     * Разбирает ключ из строки: 32 шестнадцатеричных символа или хеш SHA-256 в Base64,
+     * который публиковался в очередь ссылок до перехода на компактные ключи.
+     *
+     * @param value Строковое представление ключа.
+     * @return Ключ.
+     * @throws IllegalArgumentException Если строка не является ключом.
+     */
+    public static HashKey parse(String value) {
+        if (value.length() == BYTES * 2) {
+            return new HashKey(parseHex(value, 0), parseHex(value, 16));
+        }
+        byte[] bytes = Base64.getDecoder().decode(value);
+        if (bytes.length < BYTES) {
+            throw new IllegalArgumentException("Hash key is too short: " + value);
+        }
+        return fromBytes(bytes, 0);
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static long parseHex(String value, int offset) {
+        long result = 0;
+        for (int i = offset; i < offset + 16; i++) {
+            int digit = Character.digit(value.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid hash key: " + value);
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+
+    private static void appendHex(char[] chars, int offset, long value) {
+        for (int i = 15; i >= 0; i--) {
+            chars[offset + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HashKey)) {
+            return false;
+        }
+        HashKey other = (HashKey) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        // Биты хеша равномерны, поэтому достаточно младших 32 бит
+        return (int) low;
+    }
+
+    /**
+     * Возвращает ключ в виде 32 шестнадцатеричных символов.
+     */
+    @Override
+    public String toString() {
+        char[] chars = new char[BYTES * 2];
+        appendHex(chars, 0, high);
+        appendHex(chars, 16, low);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,87 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+
+/**
+ * Формат сообщений в JSON.
+ * Совпадает с форматом, который публиковался до появления двоичного формата, и читается
+ * потоково через Jackson: статья — через {@link ArticleCodec}, ссылка — двумя полями link и hash.
+ * Документ статьи передается в Elasticsearch исходными байтами сообщения.
+ */
+public final class JsonMessageCodec implements MessageCodec {
+
+    public static final String CONTENT_TYPE = "application/json";
+    public static final JsonMessageCodec INSTANCE = new JsonMessageCodec();
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private JsonMessageCodec() {
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encodeLink(LinkMessage message) throws IOException {
+        try (ByteArrayBuilder output = new ByteArrayBuilder(message.getLink().length() + 64);
+             JsonGenerator generator = FACTORY.createGenerator(output, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeStringField("link", message.getLink());
+            generator.writeStringField("hash", message.getHash());
+            generator.writeEndObject();
+            generator.flush();
+            return output.toByteArray();
+        }
+    }
+
+    @Override
+    public LinkMessage decodeLink(byte[] body) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Link message must be a JSON object");
+            }
+            String link = null;
+            String hash = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("link".equals(field)) {
+                    link = parser.getValueAsString();
+                } else if ("hash".equals(field)) {
+                    hash = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (link == null || hash == null) {
+                throw new IOException("Link message is missing required fields");
+            }
+            return new LinkMessage(link, hash);
+        }
+    }
+
+    @Override
+    public byte[] encodeArticle(Article article) throws IOException {
+        return ArticleCodec.toJson(article);
+    }
+
+    @Override
+    public Article decodeArticle(byte[] body) throws IOException {
+        return ArticleCodec.fromJson(body);
+    }
+
+    @Override
+    public ArticleDocument decodeDocument(byte[] body) throws IOException {
+        // Тело сообщения уже является документом Elasticsearch
+        return new ArticleDocument(decodeArticle(body), body);
+    }
+}
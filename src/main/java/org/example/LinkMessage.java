@@ -0,0 +1,29 @@
+package org.example;
+
+/**
+ * Сообщение очереди ссылок: ссылка на статью и ее ключ.
+ */
+public final class LinkMessage {
+
+    private final String link;
+    private final String hash;
+
+    /**
+     * Конструктор.
+     *
+     * @param link Ссылка на статью.
+     * @param hash Ключ ссылки ({@link HashKey} в строковом виде).
+     */
+    public LinkMessage(String link, String hash) {
+        this.link = link;
+        this.hash = hash;
+    }
+
+    public String getLink() {
+        return link;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+}
@@ -6,78 +6,327 @@ import com.rabbitmq.client.ConnectionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Главный класс для запуска приложения.
- * Содержит основной метод main, который инициирует все процессы:
- * - сбор ссылок
- * - парсинг страниц по ссылкам
- * - отправка данных в базу данных Elasticsearch
+ * Содержит основной метод main, который запускает конвейер {@link CrawlPipeline} из этапов:
+ * - сбор ссылок (роль discover)
+ * - парсинг страниц по ссылкам (роль parse)
+ * - отправка данных в базу данных Elasticsearch (роль index)
+ * Этапы работают одновременно; без аргументов приложение завершается, когда все очереди обработаны,
+ * а с аргументом --continuous парсеры и публикация работают непрерывно до остановки JVM.
+ * Аргумент --role=parse,index запускает только перечисленные этапы, поэтому этапы можно
+ * масштабировать отдельными процессами на разных узлах, связанных общими очередями RabbitMQ.
+ * Настройки читаются из файла --config=путь (по умолчанию ./crawler.properties), см. {@link CrawlerConfig}.
+ * Метрики процесса доступны по HTTP в формате Prometheus, см. {@link CrawlMetrics}.
+ * Состояние ссылок хранится во фронтире {@link CrawlFrontier} на диске, поэтому после перезапуска
+ * уже загруженные страницы не загружаются повторно, а изменившиеся загружаются снова
+ * по расписанию {@link RecrawlScheduler} с приоритетом по свежести статьи.
  */
 public class Main {
 
-    private static final String URL = "https://habr.com/ru/news/";
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
-    public static final String QUERY_LINK = "link";
-    public static final String QUERY_INFO = "info";
+    private static final String ROLE_ARGUMENT = "--role=";
+    private static final String CONFIG_ARGUMENT = "--config=";
+    private static final Path DEFAULT_CONFIG_PATH = Paths.get(CrawlerConfig.DEFAULT_RESOURCE);
+    private static final String ROLE_DISCOVER = "discover";
+    private static final String ROLE_PARSE = "parse";
+    private static final String ROLE_INDEX = "index";
+    private static final List<String> ALL_ROLES = List.of(ROLE_DISCOVER, ROLE_PARSE, ROLE_INDEX);
 
     public static void main(String[] args) throws Exception {
         logger.info("Start app");
+        boolean continuous = Arrays.asList(args).contains("--continuous");
+        Set<String> roles = parseRoles(argument(args, ROLE_ARGUMENT));
+        String configPath = argument(args, CONFIG_ARGUMENT);
+        CrawlerConfig config = configPath != null
+                ? CrawlerConfig.load(Paths.get(configPath), true)
+                : CrawlerConfig.load(DEFAULT_CONFIG_PATH, false);
+        logger.info("Running roles {}", roles);
+
+        long idleTimeoutMillis = continuous ? 0 : config.getLong("consumer.idle-timeout-ms");
+        String queryLink = config.getString("queue.link");
+        String queryInfo = config.getString("queue.info");
+        MessageCodec codec = MessageCodec.forName(config.getString("queue.message-format"));
+        RecrawlPolicy recrawlPolicy = new RecrawlPolicy(config.getInt("queue.link.max-priority"),
+                config.getInt("recrawl.listing-step"), config.getLong("recrawl.min-interval-ms"),
+                config.getLong("recrawl.max-interval-ms"));
+
+        // Правила извлечения: файл рядом с приложением или встроенный ресурс
+        ExtractionRules rules = ExtractionRules.load(config.getPath("extraction.rules"));
+        ArticleExtractor extractor = new ArticleExtractor(
+                ArticleExtractor.Mode.valueOf(config.getString("extraction.mode").toUpperCase(Locale.ROOT)), rules);
 
         // Настройка фабрики соединений с RabbitMQ
         ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost("127.0.0.1");
-        factory.setPort(5672);
-        factory.setVirtualHost("/");
-        factory.setUsername("rabbitmq");
-        factory.setPassword("rabbitmq");
+        factory.setHost(config.getString("rabbitmq.host"));
+        factory.setPort(config.getInt("rabbitmq.port"));
+        factory.setVirtualHost(config.getString("rabbitmq.virtual-host"));
+        factory.setUsername(config.getString("rabbitmq.username"));
+        factory.setPassword(config.getString("rabbitmq.password"));
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
-        // Объявление очередей в RabbitMQ
-        channel.queueDeclare(QUERY_LINK, false, false, false, null);
-        channel.queueDeclare(QUERY_INFO, false, false, false, null);
+        // Объявление очередей в RabbitMQ; очереди долговечные, чтобы переживать перезапуск брокера,
+        // очередь ссылок — с приоритетами; у каждой очереди есть очередь отброшенных сообщений
+        QueueConsumer.declareQueue(channel, queryLink, recrawlPolicy.queueArguments());
+        QueueConsumer.declareQueue(channel, queryInfo, null);
         channel.close();
         connection.close();
 
-        // Сбор ссылок с основной страницы
-        logger.info("The collection of links from the main URL page has begun");
-        GetLink getLink = new GetLink(URL, factory, QUERY_LINK);
-        getLink.run();
-        logger.info("The collection of links from the main URL page has ended");
+        int parseThreads = config.getInt("parse.threads");
+        if (parseThreads <= 0) {
+            parseThreads = Runtime.getRuntime().availableProcessors();
+        }
 
-        // Парсинг информации по каждой ссылке
-        logger.info("The collection of information from each URL page has begun");
+        // Общий движок загрузки страниц для сбора ссылок и парсинга
+        ElasticSearchManager elasticsearchManager = roles.contains(ROLE_INDEX)
+                ? new ElasticSearchManager(config.getList("elasticsearch.url"), clientOptions(config),
+                        indexOptions(config)) : null;
+        // Режим массовой загрузки имеет смысл только для разового прохода до опустошения очередей
+        boolean bulkLoad = !continuous && config.getBoolean("index.bulk-load");
+        SeenUrlFilter seenUrls = null;
+        // Фронтир ведут роли, которые публикуют и загружают ссылки; журнал пишет только один процесс,
+        // поэтому процесс только с записью в Elasticsearch его не открывает
+        CrawlFrontier frontier = roles.contains(ROLE_DISCOVER) || roles.contains(ROLE_PARSE)
+                ? new CrawlFrontier(config.getPath("frontier.path"), config.getDouble("frontier.compaction-ratio"),
+                        config.getLong("frontier.flush-interval-ms")) : null;
+        RecrawlScheduler recrawlScheduler = null;
+        MetricsServer metricsServer = null;
+        // Кеш страниц для условных запросов: неизмененные страницы не разбираются повторно
+        long pageCacheBytes = config.getLong("fetch.cache.max-bytes");
+        PageCache pageCache = pageCacheBytes > 0
+                ? new PageCache(config.getPath("fetch.cache.path"), pageCacheBytes) : null;
+        // Тела ответов от загрузки до разбора: общий лимит байтов и пул буферов
+        long inFlightBytes = config.getLong("fetch.in-flight-bytes");
+        ByteBudget bodyBudget = new ByteBudget(inFlightBytes > 0 ? inFlightBytes : Long.MAX_VALUE);
+        BufferPool bodyBuffers = new BufferPool(config.getLong("fetch.buffer-pool.max-bytes"));
+        try (PolitenessScheduler scheduler = new PolitenessScheduler(config.getDouble("fetch.max-rate"),
+                     config.getDouble("fetch.min-rate"), config.getDouble("fetch.burst"));
+             FetchEngine fetchEngine = new FetchEngine(
+                     Duration.ofMillis(config.getLong("fetch.connect-timeout-ms")),
+                     Duration.ofMillis(config.getLong("fetch.request-timeout-ms")),
+                     config.getInt("fetch.max-per-host"), scheduler,
+                     Duration.ofMillis(config.getLong("fetch.robots-ttl-ms")), pageCache,
+                     config.getInt("fetch.max-body-bytes"), bodyBudget, bodyBuffers);
+             ParseStage parseStage = new ParseStage(extractor,
+                     config.getBoolean("extraction.normalize") ? new TextNormalizer(rules) : null, parseThreads)) {
+            metricsServer = startMetricsServer(config.getInt("metrics.port"));
+            CrawlMetrics.registerStage(fetchEngine.getStats());
+            CrawlMetrics.registerStage(parseStage.getStats());
+            CrawlMetrics.registerBodyMemory(bodyBudget, bodyBuffers);
+            if (elasticsearchManager != null) {
+                elasticsearchManager.init();
+                logger.info("The index in the ElasticSearch database is initialized");
+                if (bulkLoad) {
+                    elasticsearchManager.startBulkLoad();
+                } else if (continuous) {
+                    elasticsearchManager.startRolloverChecks(
+                            Duration.ofMillis(config.getLong("index.rollover.check-interval-ms")));
+                }
+            }
 
-        // Создаем пул из 3 потоков для парсинга
-        ExecutorService executorService = Executors.newFixedThreadPool(3);
-        for (int i = 0; i < 3; i++) {
-            executorService.submit(new Parser(factory, QUERY_LINK, QUERY_INFO));
-        }
+            // Ссылки, опубликованные до остановки, но не загруженные: фронтир видит их загрузку,
+            // только если парсинг идет в этом же процессе, иначе уже загруженные ссылки публиковались бы снова
+            if (roles.contains(ROLE_DISCOVER) && roles.contains(ROLE_PARSE)) {
+                resumeQueued(frontier, factory, queryLink, codec);
+                recrawlScheduler = new RecrawlScheduler(frontier, factory, queryLink, codec,
+                        config.getInt("recrawl.batch"));
+                recrawlScheduler.start(config.getLong("recrawl.check-interval-ms"));
+            }
 
-        // Ожидание завершения работы всех парсеров
-        executorService.shutdown();
-        executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            // Сбор новых ссылок со страниц списка; фильтр просмотренных ссылок общий для всех страниц
+            List<Runnable> discovery = new ArrayList<>();
+            if (roles.contains(ROLE_DISCOVER)) {
+                seenUrls = new SeenUrlFilter(config.getPath("discover.seen-urls.path"),
+                        config.getLong("discover.seen-urls.capacity"), config.getDouble("discover.seen-urls.fpp"));
+                int maxListPages = config.getInt("discover.max-pages");
+                for (String url : config.getList("discover.urls")) {
+                    GetLink getLink = new GetLink(url, factory, queryLink, fetchEngine, seenUrls, maxListPages,
+                            rules, codec, frontier, recrawlPolicy);
+                    discovery.add(() -> {
+                        logger.info("The collection of links from {} has begun", url);
+                        getLink.run();
+                        logger.info("The collection of links from {} has ended", url);
+                    });
+                }
+            }
 
-        logger.info("The collection of information from each URL page is completed");
+            // Загрузка статей по ссылкам; каждый парсер ведет до parse.prefetch загрузок одновременно,
+            // а разбор страниц выполняется в пуле parseStage
+            List<Parser> parsers = new ArrayList<>();
+            if (roles.contains(ROLE_PARSE)) {
+                int consumers = config.getInt("parse.consumers");
+                int prefetch = config.getInt("parse.prefetch");
+                for (int i = 0; i < consumers; i++) {
+                    parsers.add(new Parser(factory, queryLink, queryInfo, fetchEngine, parseStage,
+                            codec, prefetch, idleTimeoutMillis, frontier, recrawlPolicy));
+                }
+            }
 
-        // Инициализация и отправка данных в Elasticsearch
-        ElasticSearchManager elasticsearchManager = new ElasticSearchManager();
-        try {
-            elasticsearchManager.init();
-            logger.info("The index in the ElasticSearch database is initialized");
+            // Отправка данных в Elasticsearch пакетами
+            List<PublishInfo> indexers = new ArrayList<>();
+            if (roles.contains(ROLE_INDEX)) {
+                int consumers = config.getInt("index.consumers");
+                SimHashIndex nearDuplicates = new SimHashIndex(config.getInt("index.near-duplicates.max-entries"),
+                        config.getInt("index.near-duplicates.max-distance"));
+                for (int i = 0; i < consumers; i++) {
+                    indexers.add(new PublishInfo(factory, queryInfo, elasticsearchManager,
+                            config.getInt("index.bulk.actions"), config.getLong("index.bulk.bytes"),
+                            config.getLong("index.bulk.linger-ms"), config.getInt("index.bulk.max-in-flight"),
+                            config.getInt("index.prefetch"), idleTimeoutMillis, nearDuplicates, frontier));
+                }
+            }
 
-            logger.info("Sending data to the database has started");
-            PublishInfo publishInfo = new PublishInfo(factory, QUERY_INFO, elasticsearchManager);
-            publishInfo.run();
-            logger.info("Sending data to the database has started");
+            CrawlPipeline pipeline = new CrawlPipeline(discovery, parsers, indexers,
+                    List.of(fetchEngine.getStats(), parseStage.getStats()), config.getLong("stats.interval-ms"));
+            if (continuous) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    logger.info("Shutdown requested, draining consumers");
+                    pipeline.shutdown();
+                    try {
+                        pipeline.awaitTermination();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+            }
+            pipeline.run();
         } finally {
-            elasticsearchManager.close();
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+            if (recrawlScheduler != null) {
+                recrawlScheduler.close();
+            }
+            if (seenUrls != null) {
+                seenUrls.close();
+            }
+            if (frontier != null) {
+                frontier.close();
+            }
+            if (elasticsearchManager != null) {
+                if (bulkLoad) {
+                    elasticsearchManager.finishBulkLoad();
+                }
+                elasticsearchManager.close();
+            }
         }
 
         logger.info("App stopped");
     }
+
+    /**
+     * Публикует заново ссылки фронтира, которые были опубликованы, но не загружены до остановки.
+     * Если ссылка еще осталась в очереди, второе сообщение будет пропущено парсером после загрузки первого.
+     *
+     * @param frontier Фронтир обхода.
+     * @param factory  Фабрика соединений с RabbitMQ.
+     * @param queue    Очередь ссылок.
+     * @param codec    Формат публикуемых сообщений.
+     * @throws IOException      Если возникает ошибка публикации.
+     * @throws TimeoutException Если не удалось подключиться к RabbitMQ.
+     */
+    private static void resumeQueued(CrawlFrontier frontier, ConnectionFactory factory, String queue,
+                                     MessageCodec codec) throws IOException, TimeoutException {
+        List<CrawlFrontier.Entry> queued = frontier.queued();
+        if (queued.isEmpty()) {
+            return;
+        }
+        MetricsRegistry.Counter published = CrawlMetrics.published(queue);
+        try (Connection connection = factory.newConnection();
+             Channel channel = connection.createChannel()) {
+            for (CrawlFrontier.Entry entry : queued) {
+                LinkMessage message = new LinkMessage(entry.getUrl(), entry.getKey().toString());
+                channel.basicPublish("", queue, codec.properties(entry.getPriority()), codec.encodeLink(message));
+                published.increment();
+            }
+        }
+        logger.info("Resumed {} queued links from the crawl frontier", queued.size());
+    }
+
+    /**
+     * Читает настройки клиента Elasticsearch.
+     *
+     * @param config Настройки краулера.
+     * @return Настройки пула соединений и выключателя.
+     */
+    private static ElasticSearchManager.ClientOptions clientOptions(CrawlerConfig config) {
+        return new ElasticSearchManager.ClientOptions(config.getInt("elasticsearch.max-connections"),
+                config.getInt("elasticsearch.max-connections-per-node"),
+                config.getInt("elasticsearch.connect-timeout-ms"), config.getInt("elasticsearch.socket-timeout-ms"),
+                config.getInt("elasticsearch.breaker.failure-threshold"),
+                config.getLong("elasticsearch.breaker.open-ms"));
+    }
+
+    /**
+     * Читает настройки индексов статей.
+     *
+     * @param config Настройки краулера.
+     * @return Настройки индексов.
+     */
+    private static ElasticSearchManager.IndexOptions indexOptions(CrawlerConfig config) {
+        return new ElasticSearchManager.IndexOptions(config.getInt("index.shards"), config.getInt("index.replicas"),
+                config.getString("index.refresh-interval"), config.getLong("index.rollover.max-docs"),
+                config.getString("index.rollover.max-age"), config.getString("index.rollover.max-primary-size"));
+    }
+
+    /**
+     * Запускает HTTP-сервер метрик.
+     *
+     * @param port Порт HTTP; 0 или меньше — не запускать.
+     * @return Сервер метрик или null.
+     * @throws IOException Если порт недоступен.
+     */
+    private static MetricsServer startMetricsServer(int port) throws IOException {
+        return port > 0 ? new MetricsServer(port, CrawlMetrics.REGISTRY) : null;
+    }
+
+    /**
+     * Возвращает значение аргумента командной строки вида --name=value.
+     *
+     * @param args   Аргументы командной строки.
+     * @param prefix Префикс аргумента вместе со знаком равенства.
+     * @return Значение аргумента или null, если аргумент не указан.
+     */
+    private static String argument(String[] args, String prefix) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Разбирает список ролей процесса.
+     *
+     * @param value Роли через запятую, all или null для всех ролей.
+     * @return Множество ролей.
+     */
+    private static Set<String> parseRoles(String value) {
+        if (value == null || value.equals("all")) {
+            return new LinkedHashSet<>(ALL_ROLES);
+        }
+        Set<String> roles = new LinkedHashSet<>();
+        for (String role : value.split(",")) {
+            String name = role.trim().toLowerCase(Locale.ROOT);
+            if (!ALL_ROLES.contains(name)) {
+                throw new IllegalArgumentException("Unknown role: " + role + ", expected one of " + ALL_ROLES);
+            }
+            roles.add(name);
+        }
+        return roles;
+    }
 }
@@ -0,0 +1,108 @@
+package org.example;
+
+import com.rabbitmq.client.AMQP;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Формат сообщений очередей ссылок и информации о статьях.
+ * Отправитель указывает формат в свойстве content-type сообщения,
+ * а получатель выбирает кодек по нему через {@link #forContentType(String)}.
+ * Сообщения без content-type считаются JSON, как до появления кодеков.
+ */
+public interface MessageCodec {
+
+    /**
+     * Режим доставки AMQP для сообщений, сохраняемых на диск брокера.
+     */
+    int PERSISTENT_DELIVERY_MODE = 2;
+
+    /**
+     * Возвращает значение content-type для сообщений этого формата.
+     *
+     * @return MIME-тип.
+     */
+    String getContentType();
+
+    byte[] encodeLink(LinkMessage message) throws IOException;
+
+    LinkMessage decodeLink(byte[] body) throws IOException;
+
+    byte[] encodeArticle(Article article) throws IOException;
+
+    Article decodeArticle(byte[] body) throws IOException;
+
+    /**
+     * Разбирает сообщение о статье в документ для записи в Elasticsearch.
+     *
+     * @param body Тело сообщения.
+     * @return Документ статьи.
+     * @throws IOException Если сообщение некорректно.
+     */
+    default ArticleDocument decodeDocument(byte[] body) throws IOException {
+        return new ArticleDocument(decodeArticle(body));
+    }
+
+    /**
+     * Возвращает свойства AMQP для публикации сообщения в этом формате.
+     * Сообщения сохраняются на диск брокера, чтобы очереди переживали его перезапуск.
+     *
+     * @return Свойства сообщения.
+     */
+    default AMQP.BasicProperties properties() {
+        return new AMQP.BasicProperties.Builder()
+                .contentType(getContentType())
+                .deliveryMode(PERSISTENT_DELIVERY_MODE)
+                .build();
+    }
+
+    /**
+     * Возвращает свойства AMQP для публикации сообщения с приоритетом.
+     * Приоритет учитывается только очередью, объявленной с x-max-priority.
+     *
+     * @param priority Приоритет сообщения; 0 — без приоритета.
+     * @return Свойства сообщения.
+     */
+    default AMQP.BasicProperties properties(int priority) {
+        AMQP.BasicProperties properties = properties();
+        return priority > 0 ? properties.builder().priority(priority).build() : properties;
+    }
+
+    /**
+     * Выбирает кодек по content-type полученного сообщения.
+     *
+     * @param contentType Значение content-type или null.
+     * @return Кодек.
+     * @throws IOException Если формат не поддерживается.
+     */
+    static MessageCodec forContentType(String contentType) throws IOException {
+        if (contentType == null || contentType.startsWith(JsonMessageCodec.CONTENT_TYPE)) {
+            return JsonMessageCodec.INSTANCE;
+        }
+        if (contentType.startsWith(BinaryMessageCodec.CONTENT_TYPE)) {
+            // Сжатие текста отмечено в самом сообщении, поэтому любой двоичный кодек его прочитает
+            return BinaryMessageCodec.UNCOMPRESSED;
+        }
+        throw new IOException("Unsupported message content type: " + contentType);
+    }
+
+    /**
+     * Выбирает кодек публикуемых сообщений по имени формата из настроек.
+     *
+     * @param format json, binary или binary-lz4.
+     * @return Кодек сообщений.
+     */
+    static MessageCodec forName(String format) {
+        switch (format.toLowerCase(Locale.ROOT)) {
+            case "json":
+                return JsonMessageCodec.INSTANCE;
+            case "binary":
+                return BinaryMessageCodec.UNCOMPRESSED;
+            case "binary-lz4":
+                return BinaryMessageCodec.LZ4;
+            default:
+                throw new IllegalArgumentException("Unknown message format: " + format);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Реестр метрик краулера: счетчики, гистограммы и измеряемые значения.
+ * Обновление метрик на горячем пути не блокирует потоки: счетчики основаны на {@link LongAdder},
+ * а гистограмма — на фиксированном наборе границ корзин без хранения отдельных значений.
+ * Метрика с метками создается один раз при первом обращении и дальше берется из реестра,
+ * поэтому часто используемые метрики стоит сохранять в полях.
+ * Реестр выводится в текстовом формате Prometheus через {@link #writePrometheus(Writer)}.
+ */
+public class MetricsRegistry {
+
+    /**
+     * Границы корзин гистограмм длительности в секундах.
+     */
+    public static final double[] LATENCY_BUCKETS = {
+            0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Возвращает счетчик с указанными метками, создавая его при первом обращении.
+     *
+     * @param name   Имя метрики.
+     * @param help   Описание метрики.
+     * @param labels Пары имя-значение меток.
+     * @return Счетчик.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").metrics
+                .computeIfAbsent(labelString(labels), key -> new Counter());
+    }
+
+    /**
+     * Возвращает гистограмму длительности с указанными метками, создавая ее при первом обращении.
+     *
+     * @param name   Имя метрики.
+     * @param help   Описание метрики.
+     * @param labels Пары имя-значение меток.
+     * @return Гистограмма.
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "histogram").metrics
+                .computeIfAbsent(labelString(labels), key -> new Histogram(LATENCY_BUCKETS));
+    }
+
+    /**
+     * Регистрирует счетчик, значение которого ведет другой объект и которое вычисляется при каждом выводе реестра.
+     *
+     * @param name   Имя метрики.
+     * @param help   Описание метрики.
+     * @param value  Источник монотонно возрастающего значения.
+     * @param labels Пары имя-значение меток.
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "counter").metrics.put(labelString(labels), new FunctionCounter(value));
+    }
+
+    /**
+     * Регистрирует измеряемое значение, которое вычисляется при каждом выводе реестра.
+     *
+     * @param name   Имя метрики.
+     * @param help   Описание метрики.
+     * @param value  Источник значения.
+     * @param labels Пары имя-значение меток.
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").metrics.put(labelString(labels), new Gauge(value));
+    }
+
+    /**
+     * Выводит все метрики в текстовом формате Prometheus.
+     *
+     * @param writer Приемник текста.
+     * @throws IOException Если возникает ошибка записи.
+     */
+    public void writePrometheus(Writer writer) throws IOException {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            writer.write("# HELP " + name + " " + family.help + "\n");
+            writer.write("# TYPE " + name + " " + family.type + "\n");
+            for (Map.Entry<String, Metric> metric : family.metrics.entrySet()) {
+                metric.getValue().write(writer, name, metric.getKey());
+            }
+        }
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Формирует метки в виде {name="value",...}.
+     *
+     * @param labels Пары имя-значение меток.
+     * @return Строка меток без фигурных скобок или пустая строка.
+     */
+    private static String labelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name-value pairs");
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return builder.toString();
+    }
+
+    private static String series(String name, String labels, String extraLabel) {
+        if (labels.isEmpty() && extraLabel == null) {
+            return name;
+        }
+        List<String> parts = new ArrayList<>(2);
+        if (!labels.isEmpty()) {
+            parts.add(labels);
+        }
+        if (extraLabel != null) {
+            parts.add(extraLabel);
+        }
+        return name + "{" + String.join(",", parts) + "}";
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%s", value);
+    }
+
+    private static final class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private interface Metric {
+        void write(Writer writer, String name, String labels) throws IOException;
+    }
+
+    /**
+     * Монотонно возрастающий счетчик.
+     */
+    public static final class Counter implements Metric {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        public void write(Writer writer, String name, String labels) throws IOException {
+            writer.write(series(name, labels, null) + " " + value.sum() + "\n");
+        }
+    }
+
+    /**
+     * Гистограмма с фиксированными границами корзин.
+     * Запись значения — поиск корзины и два сложения без блокировок.
+     */
+    public static final class Histogram implements Metric {
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Записывает значение.
+         *
+         * @param value Значение в секундах.
+         */
+        public void observe(double value) {
+            int index = 0;
+            while (index < bounds.length && value > bounds[index]) {
+                index++;
+            }
+            if (index < bounds.length) {
+                buckets[index].increment();
+            }
+            count.increment();
+            sum.add(value);
+        }
+
+        /**
+         * Записывает длительность, прошедшую с момента startNanos.
+         *
+         * @param startNanos Значение {@link System#nanoTime()} в начале операции.
+         */
+        public void observeSince(long startNanos) {
+            observe((System.nanoTime() - startNanos) / 1e9);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Оценивает квантиль по корзинам так же, как histogram_quantile в Prometheus:
+         * линейной интерполяцией внутри корзины, в которую попадает квантиль.
+         *
+         * @param q Квантиль от 0 до 1.
+         * @return Оценка в секундах; NaN, если значений нет; верхняя граница последней корзины,
+         * если квантиль за ее пределами.
+         */
+        public double quantile(double q) {
+            long total = count.sum();
+            if (total == 0) {
+                return Double.NaN;
+            }
+            double rank = q * total;
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                long inBucket = buckets[i].sum();
+                if (inBucket > 0 && cumulative + inBucket >= rank) {
+                    double lower = i == 0 ? 0 : bounds[i - 1];
+                    return lower + (bounds[i] - lower) * (rank - cumulative) / inBucket;
+                }
+                cumulative += inBucket;
+            }
+            return bounds[bounds.length - 1];
+        }
+
+        @Override
+        public void write(Writer writer, String name, String labels) throws IOException {
+            // Корзины Prometheus накопительные: каждая включает все меньшие значения
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                writer.write(series(name + "_bucket", labels, "le=\"" + format(bounds[i]) + "\"")
+                        + " " + cumulative + "\n");
+            }
+            long total = count.sum();
+            writer.write(series(name + "_bucket", labels, "le=\"+Inf\"") + " " + total + "\n");
+            writer.write(series(name + "_sum", labels, null) + " " + format(sum.sum()) + "\n");
+            writer.write(series(name + "_count", labels, null) + " " + total + "\n");
+        }
+    }
+
+    private static final class FunctionCounter implements Metric {
+        private final LongSupplier value;
+
+        private FunctionCounter(LongSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(Writer writer, String name, String labels) throws IOException {
+            writer.write(series(name, labels, null) + " " + value.getAsLong() + "\n");
+        }
+    }
+
+    private static final class Gauge implements Metric {
+        private final DoubleSupplier value;
+
+        private Gauge(DoubleSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(Writer writer, String name, String labels) throws IOException {
+            writer.write(series(name, labels, null) + " " + format(value.getAsDouble()) + "\n");
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Дисковый кеш загруженных страниц для условных запросов.
+ * Для каждого URL хранит только валидаторы ответа (ETag, Last-Modified) в отдельном файле,
+ * имя которого — {@link HashKey} URL: тело страницы после ответа 304 не нужно, потому что
+ * неизмененная страница не разбирается заново. Файлы разложены по подкаталогам
+ * по первым двум символам ключа, чтобы каталоги не разрастались.
+ * Файлы кеша создаются, заменяются и удаляются под блокировкой индекса, поэтому удаление
+ * вытесненной записи не удалит файл, который другой поток только что сохранил для того же URL.
+ * Файлы прежней версии с телом страницы после валидаторов читаются так же; тело в них не используется.
+ * Суммарный размер файлов ограничен: при превышении удаляются записи, к которым
+ * дольше всего не обращались (LRU). Индекс записей хранится в памяти и при открытии
+ * восстанавливается по заголовкам файлов в порядке времени их изменения.
+ */
+public class PageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PageCache.class);
+    private static final int MAGIC = 0x50474331;
+    private static final String SUFFIX = ".page";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    // Порядок доступа: первая запись — давно не использованная
+    private final LinkedHashMap<HashKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * Валидаторы сохраненного ответа.
+     */
+    public static final class Entry {
+        private final String etag;
+        private final String lastModified;
+        private final long sizeBytes;
+
+        private Entry(String etag, String lastModified, long sizeBytes) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.sizeBytes = sizeBytes;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * Конструктор. Открывает каталог кеша и восстанавливает индекс записей.
+     *
+     * @param directory Каталог кеша.
+     * @param maxBytes  Максимальный суммарный размер файлов кеша в байтах.
+     * @throws IOException Если каталог недоступен.
+     */
+    public PageCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        load();
+        logger.info("Page cache {} loaded: {} entries, {} bytes", directory, entries.size(), totalBytes);
+    }
+
+    /**
+     * Возвращает валидаторы сохраненной страницы и отмечает обращение к ней.
+     *
+     * @param url URL страницы.
+     * @return Валидаторы или null, если страницы нет в кеше.
+     */
+    public synchronized Entry lookup(String url) {
+        return entries.get(UrlHasher.hash(url));
+    }
+
+    /**
+     * Готовит запись ответа страницы: валидаторы пишутся во временный файл, но в кеш еще не попадают.
+     * Запись сохраняется через {@link Pending#commit()}, когда страница обработана, чтобы ответ 304
+     * не пропустил страницу, обработка которой не завершилась. Ответы без ETag и Last-Modified
+     * не сохраняются: для них нельзя отправить условный запрос, а прежняя запись удаляется.
+     *
+     * @param url          URL страницы.
+     * @param etag         Значение ETag или null.
+     * @param lastModified Значение Last-Modified или null.
+     * @return Подготовленная запись или null, если ответ не сохраняется.
+     */
+    public Pending prepare(String url, String etag, String lastModified) {
+        if (etag == null && lastModified == null) {
+            remove(url);
+            return null;
+        }
+        HashKey key = UrlHasher.hash(url);
+        Path file = file(key);
+        Path temp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            temp = Files.createTempFile(file.getParent(), key.toString(), TEMP_SUFFIX);
+            try (DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                output.writeInt(MAGIC);
+                output.writeUTF(etag == null ? "" : etag);
+                output.writeUTF(lastModified == null ? "" : lastModified);
+            }
+            return new Pending(url, key, temp, new Entry(etag, lastModified, Files.size(temp)));
+        } catch (IOException e) {
+            logger.warn("Error caching page {}", url, e);
+            if (temp != null) {
+                delete(temp);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Удаляет страницу из кеша, например если новый ответ нельзя сохранить и прежние валидаторы устарели.
+     *
+     * @param url URL страницы.
+     */
+    public synchronized void remove(String url) {
+        HashKey key = UrlHasher.hash(url);
+        Entry removed = entries.remove(key);
+        if (removed == null) {
+            return;
+        }
+        totalBytes -= removed.sizeBytes;
+        delete(file(key));
+    }
+
+    /**
+     * Подготовленная запись кеша. Сохраняется или удаляется один раз; повторные вызовы ничего не делают.
+     */
+    public final class Pending {
+        private final String url;
+        private final HashKey key;
+        private final Path temp;
+        private final Entry entry;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Pending(String url, HashKey key, Path temp, Entry entry) {
+            this.url = url;
+            this.key = key;
+            this.temp = temp;
+            this.entry = entry;
+        }
+
+        /**
+         * Сохраняет запись в кеш: следующий запрос страницы будет условным.
+         */
+        public void commit() {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                synchronized (PageCache.this) {
+                    Files.move(temp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    put(key, entry);
+                }
+            } catch (IOException e) {
+                logger.warn("Error caching page {}", url, e);
+                delete(temp);
+            }
+        }
+
+        /**
+         * Удаляет подготовленную запись; прежняя запись страницы, если была, остается в кеше.
+         */
+        public void discard() {
+            if (done.compareAndSet(false, true)) {
+                delete(temp);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private synchronized void put(HashKey key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            totalBytes -= previous.sizeBytes;
+        }
+        totalBytes += entry.sizeBytes;
+
+        Iterator<Map.Entry<HashKey, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<HashKey, Entry> eldest = iterator.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            totalBytes -= eldest.getValue().sizeBytes;
+            iterator.remove();
+            // Под блокировкой: файл не может быть заменен новой записью того же URL до удаления
+            delete(file(eldest.getKey()));
+        }
+    }
+
+    private Path file(HashKey key) {
+        String name = key.toString();
+        return directory.resolve(name.substring(0, 2)).resolve(name + SUFFIX);
+    }
+
+    private static Entry readHeader(DataInputStream input, Path file) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a page cache file: " + file);
+        }
+        String etag = input.readUTF();
+        String lastModified = input.readUTF();
+        return new Entry(etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified,
+                Files.size(file));
+    }
+
+    /**
+     * Восстанавливает индекс по файлам кеша: давно измененные файлы считаются давно использованными.
+     */
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> pages = Files.newDirectoryStream(shard, "*" + SUFFIX)) {
+                    pages.forEach(files::add);
+                }
+                // Записи, не сохраненные до остановки процесса
+                try (DirectoryStream<Path> temps = Files.newDirectoryStream(shard, "*" + TEMP_SUFFIX)) {
+                    temps.forEach(PageCache::delete);
+                }
+            }
+        }
+        Map<Path, Long> modified = new LinkedHashMap<>();
+        for (Path file : files) {
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+        files.sort((a, b) -> Long.compare(modified.get(a), modified.get(b)));
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                put(HashKey.parse(name.substring(0, name.length() - SUFFIX.length())), readHeader(input, file));
+            } catch (IOException | IllegalArgumentException e) {
+                logger.warn("Removing unreadable page cache file {}", file, e);
+                delete(file);
+            }
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Error deleting page cache file {}", file, e);
+        }
+    }
+}
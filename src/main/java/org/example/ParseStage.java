@@ -0,0 +1,108 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Этап извлечения статей из загруженных страниц.
+ * Разбор HTML занимает процессор, поэтому выполняется в отдельном пуле по числу ядер,
+ * а не в потоках HTTP-клиента: медленные ответы не занимают потоки разбора, а разбор
+ * не задерживает обработку сетевых ответов. Тело ответа передается байтами и декодируется
+ * один раз внутри {@link ArticleExtractor}.
+ * Очередь пула ограничена сверху prefetch потребителей очереди ссылок.
+ * Нормализация текста {@link TextNormalizer} выполняется в той же задаче сразу после извлечения:
+ * страницы пакета сообщений разбираются и нормализуются параллельно на всех потоках пула.
+ * Сразу после извлечения буфер тела возвращается в пул. Байты тела в бюджете {@link ByteBudget}
+ * остаются занятыми статьей, извлеченной из страницы, пока вызывающий код не закроет результат
+ * загрузки после публикации статьи: так бюджет ограничивает и статьи между разбором и публикацией.
+ */
+public class ParseStage implements AutoCloseable {
+
+    private final ArticleExtractor extractor;
+    private final TextNormalizer normalizer;
+    private final ExecutorService executor;
+    private final StageStats stats;
+
+    /**
+     * Конструктор.
+     *
+     * @param extractor Извлекатель полей статьи.
+     * @param threads   Количество потоков разбора.
+     */
+    public ParseStage(ArticleExtractor extractor, int threads) {
+        this(extractor, null, threads);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param extractor  Извлекатель полей статьи.
+     * @param normalizer Нормализатор текста или null, чтобы публиковать текст как есть.
+     * @param threads    Количество потоков разбора.
+     */
+    public ParseStage(ArticleExtractor extractor, TextNormalizer normalizer, int threads) {
+        this.extractor = extractor;
+        this.normalizer = normalizer;
+        this.stats = new StageStats("parse", threads);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "parse-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Ставит загруженную страницу в очередь разбора. Этап возвращает буфер тела в пул,
+     * а закрывает результат загрузки вызывающий код, когда статья больше не нужна.
+     *
+     * @param result Результат загрузки страницы статьи.
+     * @param hash   Хеш статьи.
+     * @return Будущая статья; завершается IOException, если страницу не удалось разобрать.
+     */
+    public CompletableFuture<Article> parse(FetchResult result, String hash) {
+        stats.queued();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long startNanos = stats.started();
+                try {
+                    Article article;
+                    try {
+                        article = extractor.extract(result.getBodyArray(), result.getBodyLength(),
+                                result.getUrl(), hash);
+                    } finally {
+                        // Нормализации тело уже не нужно
+                        result.releaseBody();
+                    }
+                    return normalizer == null ? article : normalizer.normalize(article);
+                } catch (IOException e) {
+                    CrawlMetrics.PARSE_ERRORS.increment();
+                    throw new CompletionException(e);
+                } finally {
+                    stats.finished(startNanos);
+                    CrawlMetrics.PARSE_SECONDS.observeSince(startNanos);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            stats.dropped();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public StageStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Останавливает пул разбора.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -1,148 +1,430 @@
 package org.example;
 
 import com.rabbitmq.client.*;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.json.JSONObject;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.TimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Класс для парсинга статей из очереди RabbitMQ.
- * Считывает ссылки из очереди, загружает соответствующие статьи и публикует их содержимое в другую очередь.
+ * Получает ссылки из очереди через basicConsume, загружает соответствующие статьи
+ * и публикует их содержимое в другую очередь. Загрузка асинхронная и ограничена prefetch,
+ * а разбор загруженных страниц выполняется на отдельном этапе {@link ParseStage}.
+ * Если задан фронтир {@link CrawlFrontier}, уже загруженные страницы пропускаются,
+ * а загруженные отмечаются в нем вместе со временем повторной загрузки по {@link RecrawlPolicy};
+ * ссылки, сообщения которых отброшены, отмечаются в нем как неудавшиеся.
+ * Загрузка и разбор завершаются в потоках HTTP-клиента и пула разбора, поэтому публикации
+ * в канал передаются потоку-владельцу канала {@link #runOnChannel(Runnable)}.
  */
-public class Parser implements Runnable {
+public class Parser extends QueueConsumer {
+
+    private static final int DEFAULT_PREFETCH = 256;
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5000;
+    private static final String RETRY_HEADER = "x-retry-count";
+    private static final int MAX_RETRIES = 5;
+    // Задержки очередей отложенных повторов: у каждой очереди свой TTL, поэтому сообщения в ней
+    // истекают по порядку публикации и короткая задержка не ждет за длинной
+    private static final long[] RETRY_DELAYS_MILLIS = {1_000, 5_000, 30_000, 120_000, 600_000, 3_600_000};
 
-    private final ConnectionFactory factory;
     private final String queryLink;
     private final String queryInfo;
+    private final FetchEngine fetchEngine;
+    private final ParseStage parseStage;
+    private final int prefetch;
+    private final MessageCodec codec;
+    private final CrawlFrontier frontier;
+    private final RecrawlPolicy policy;
+    private final MetricsRegistry.Counter publishedArticles;
+    private final MetricsRegistry.Counter publishedRetries;
     private static final Logger logger = LoggerFactory.getLogger(Parser.class);
-    private Channel channel;
 
     /**
-     * Конструктор.
+     * Конструктор. Парсер завершается, когда очередь ссылок опустела.
      *
      * @param factory   Фабрика соединений с RabbitMQ.
      * @param queryLink Очередь, из которой считываются ссылки.
      * @param queryInfo Очередь, в которую публикуется информация о статьях.
+     * @param fetchEngine Общий движок загрузки страниц.
+     * @param parseStage  Этап извлечения статей из загруженных страниц.
+     * @param codec       Формат публикуемых сообщений.
+     */
+    public Parser(ConnectionFactory factory, String queryLink, String queryInfo, FetchEngine fetchEngine,
+                  ParseStage parseStage, MessageCodec codec) {
+        this(factory, queryLink, queryInfo, fetchEngine, parseStage, codec,
+                DEFAULT_PREFETCH, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param factory           Фабрика соединений с RabbitMQ.
+     * @param queryLink         Очередь, из которой считываются ссылки.
+     * @param queryInfo         Очередь, в которую публикуется информация о статьях.
+     * @param fetchEngine       Общий движок загрузки страниц.
+     * @param parseStage        Этап извлечения статей из загруженных страниц.
+     * @param codec             Формат публикуемых сообщений.
+     * @param prefetch          Максимальное количество неподтвержденных ссылок, то есть одновременных загрузок.
+     * @param idleTimeoutMillis Время простоя очереди до завершения; 0 — работать непрерывно.
+     */
+    public Parser(ConnectionFactory factory, String queryLink, String queryInfo, FetchEngine fetchEngine,
+                  ParseStage parseStage, MessageCodec codec, int prefetch, long idleTimeoutMillis) {
+        this(factory, queryLink, queryInfo, fetchEngine, parseStage, codec, prefetch, idleTimeoutMillis, null, null);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param factory           Фабрика соединений с RabbitMQ.
+     * @param queryLink         Очередь, из которой считываются ссылки.
+     * @param queryInfo         Очередь, в которую публикуется информация о статьях.
+     * @param fetchEngine       Общий движок загрузки страниц.
+     * @param parseStage        Этап извлечения статей из загруженных страниц.
+     * @param codec             Формат публикуемых сообщений.
+     * @param prefetch          Максимальное количество неподтвержденных ссылок, то есть одновременных загрузок.
+     * @param idleTimeoutMillis Время простоя очереди до завершения; 0 — работать непрерывно.
+     * @param frontier          Фронтир обхода или null.
+     * @param policy            Правила приоритета и повторной загрузки или null.
      */
-    public Parser(ConnectionFactory factory, String queryLink, String queryInfo) {
-        this.factory = factory;
+    public Parser(ConnectionFactory factory, String queryLink, String queryInfo, FetchEngine fetchEngine,
+                  ParseStage parseStage, MessageCodec codec, int prefetch, long idleTimeoutMillis,
+                  CrawlFrontier frontier, RecrawlPolicy policy) {
+        super(factory, queryLink, prefetch, idleTimeoutMillis);
         this.queryLink = queryLink;
         this.queryInfo = queryInfo;
+        this.fetchEngine = fetchEngine;
+        this.parseStage = parseStage;
+        this.codec = codec;
+        this.prefetch = prefetch;
+        this.frontier = frontier;
+        this.policy = policy;
+        this.publishedArticles = CrawlMetrics.published(queryInfo);
+        this.publishedRetries = CrawlMetrics.published(delayQueue(queryLink));
     }
 
     /**
-     * Парсит статью по URL и хешу.
+     * Передает загруженную статью на этап разбора, который закрывает результат загрузки.
      *
-     * @param url  URL статьи.
-     * @param hash Хеш статьи.
-     * @return JSON объект с информацией о статье.
+     * @param result Результат загрузки страницы статьи.
+     * @param hash   Хеш статьи.
+     * @return Будущая статья; null, если страница не загружена или не разобрана.
      */
-    private JSONObject parseArticle(String url, String hash) {
-        try {
-            URL urlObj = new URL(url);
-            HttpURLConnection connection = (HttpURLConnection) urlObj.openConnection();
-            connection.setRequestMethod("GET");
-            connection.connect();
-
-            int statusCode = connection.getResponseCode();
-
-            switch (statusCode) {
-                case 200:
-                    Document doc = Jsoup.parse(connection.getInputStream(), "UTF-8", url);
-                    String title = doc.select("h1.tm-title.tm-title_h1 span").text().trim();
-                    String author = doc.select("a.tm-user-info__username").text().trim();
-                    String time = doc.select("span.tm-article-datetime-published time").attr("datetime");
-                    StringBuilder text = new StringBuilder();
-                    doc.select("div.article-formatted-body p").forEach(paragraph -> text.append(paragraph.text()).append("\n"));
-
-                    JSONObject articleJson = new JSONObject();
-                    articleJson.put("hash", hash);
-                    articleJson.put("url", url);
-                    articleJson.put("title", title);
-                    articleJson.put("author", author);
-                    articleJson.put("time", time);
-                    articleJson.put("text", text.toString());
-
-                    return articleJson;
-                case 403:
-                    logger.error("HTTP 403 Forbidden: Access is denied for URL {}", url);
-                    throw new IOException("HTTP 403 Forbidden: Access is denied");
-                case 404:
-                    logger.error("HTTP 404 Not Found: The requested URL {} was not found on this server", url);
-                    throw new IOException("HTTP 404 Not Found: URL not found");
-                case 503:
-                    logger.error("HTTP 503 Service Unavailable: The server is currently unable to handle the request for URL {}", url);
-                    throw new IOException("HTTP 503 Service Unavailable: Service unavailable");
-                default:
-                    logger.error("HTTP error code: {}", statusCode);
-                    throw new IOException("HTTP error code: " + statusCode);
+    private CompletableFuture<Article> parseArticle(FetchResult result, String hash) {
+        String url = result.getUrl();
+        if (!result.isOk()) {
+            result.close();
+            logger.error("Error parsing article from URL: " + url, FetchEngine.statusError(result));
+            return CompletableFuture.completedFuture(null);
+        }
+        return parseStage.parse(result, hash).exceptionally(error -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            logger.error("Error parsing article from URL: " + url, cause);
+            return null;
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        // Каждый парсер ведет до prefetch загрузок одновременно
+        fetchEngine.getStats().addCapacity(prefetch);
+    }
+
+    @Override
+    protected void onStop() {
+        fetchEngine.getStats().addCapacity(-prefetch);
+    }
+
+    @Override
+    protected void declareQueues(Channel channel) throws IOException {
+        declareQueue(channel, queryLink, policy != null ? policy.queueArguments() : null);
+
+        // Очереди отложенных повторов: по истечении TTL очереди сообщение возвращается в очередь ссылок
+        for (long delayMillis : RETRY_DELAYS_MILLIS) {
+            Map<String, Object> arguments = new HashMap<>();
+            arguments.put("x-message-ttl", delayMillis);
+            arguments.put("x-dead-letter-exchange", "");
+            arguments.put("x-dead-letter-routing-key", queryLink);
+            channel.queueDeclare(delayQueue(queryLink, delayMillis), true, false, false, arguments);
+        }
+    }
+
+    /**
+     * Возвращает общий префикс имен очередей отложенных повторов для очереди ссылок.
+     *
+     * @param queryLink Очередь ссылок.
+     * @return Префикс имен очередей отложенных повторов.
+     */
+    public static String delayQueue(String queryLink) {
+        return queryLink + ".delay";
+    }
+
+    /**
+     * Возвращает очередь отложенных повторов с наименьшей задержкой не меньше заданной.
+     * Задержка больше самой длинной округляется до нее.
+     *
+     * @param queryLink   Очередь ссылок.
+     * @param delayMillis Требуемая задержка в миллисекундах.
+     * @return Имя очереди отложенных повторов.
+     */
+    public static String delayQueue(String queryLink, long delayMillis) {
+        long tier = RETRY_DELAYS_MILLIS[RETRY_DELAYS_MILLIS.length - 1];
+        for (long candidate : RETRY_DELAYS_MILLIS) {
+            if (candidate >= delayMillis) {
+                tier = candidate;
+                break;
             }
-        } catch (IOException e) {
-            logger.error("Error parsing article from URL: " + url, e);
         }
-        return null;
+        return delayQueue(queryLink) + "." + tier;
+    }
+
+    /**
+     * Возвращает имена всех очередей отложенных повторов для очереди ссылок.
+     *
+     * @param queryLink Очередь ссылок.
+     * @return Имена очередей от самой короткой задержки к самой длинной.
+     */
+    public static List<String> delayQueues(String queryLink) {
+        List<String> queues = new ArrayList<>();
+        for (long delayMillis : RETRY_DELAYS_MILLIS) {
+            queues.add(delayQueue(queryLink, delayMillis));
+        }
+        return queues;
     }
 
     /**
      * Обрабатывает доставку сообщения из очереди.
+     * Загрузка выполняется асинхронно: поток получения сообщений не блокируется,
+     * а количество одновременных загрузок ограничено prefetch и лимитом на хост.
      *
-     * @param delivery Сообщение из очереди.
+     * @param envelope   Конверт сообщения.
+     * @param properties Свойства сообщения.
+     * @param body       Тело сообщения.
      * @throws IOException Если возникает ошибка при обработке сообщения.
      */
-    private void handleDelivery(GetResponse delivery) throws IOException {
+    @Override
+    protected void handleDelivery(Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+        long deliveryTag = envelope.getDeliveryTag();
         try {
-            String messageBody = new String(delivery.getBody(), StandardCharsets.UTF_8);
-            JSONObject jsonObjectLinkHash = new JSONObject(messageBody);
-            String link = jsonObjectLinkHash.getString("link");
-            String hash = jsonObjectLinkHash.getString("hash");
-
-            JSONObject articleJson = parseArticle(link, hash);
-            if (articleJson != null) {
-                String json = articleJson.toString();
-                channel.basicPublish("", queryInfo, null, json.getBytes(StandardCharsets.UTF_8));
-                logger.info("Published article info: {}", json);
-                channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+            LinkMessage message = MessageCodec.forContentType(properties.getContentType()).decodeLink(body);
+            String link = message.getLink();
+            // Ссылки, опубликованные до перехода на HashKey, несут хеш в Base64: приводим к одному виду _id
+            HashKey key = HashKey.parse(message.getHash());
+            String hash = key.toString();
+            if (frontier != null && !frontier.shouldFetch(key)) {
+                // Страница уже загружена до перезапуска, а ссылка осталась в очереди
+                logger.debug("Skipping already fetched URL: {}", link);
+                acks.ack(deliveryTag);
+                return;
             }
+
+            fetchEngine.fetch(link).whenComplete((result, error) -> {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof FetchEngine.RobotsDisallowedException) {
+                    logger.info("Skipping URL disallowed by robots.txt: {}", link);
+                    acks.ack(deliveryTag);
+                } else if (cause != null) {
+                    logger.error("Error parsing article from URL: " + link, cause);
+                    runOnChannel(() -> retryLater(link, key, properties, body, deliveryTag));
+                } else if (result.isNotModified()) {
+                    // Статья не изменилась с прошлой загрузки: разбор и запись не нужны
+                    result.close();
+                    logger.debug("Article not modified: {}", link);
+                    markFetched(link, key, null);
+                    acks.ack(deliveryTag);
+                } else if (FetchEngine.isRetryable(result.getStatusCode())) {
+                    // Сайт просит снизить нагрузку или ошибка сервера: повторяем позже, ошибки 4xx отбрасываются
+                    result.close();
+                    FetchEngine.statusError(result);
+                    runOnChannel(() -> retryLater(link, key, properties, body, deliveryTag));
+                } else if (result.isOk() && result.isTruncated()) {
+                    // Статья без конца страницы была бы записана как полная; повторная загрузка обрежется так же
+                    result.close();
+                    logger.warn("Skipping article with truncated response body: {}", link);
+                    reject(link, key, deliveryTag);
+                } else {
+                    // Страница попадет в кеш только после публикации статьи, иначе ответ 304 ее потеряет
+                    PageCache.Pending cacheEntry = result.takeCacheEntry();
+                    parseArticle(result, hash)
+                            .thenAccept(article -> publishArticle(article, link, key, deliveryTag, cacheEntry, result));
+                }
+            });
         } catch (Exception e) {
+            // Сообщение не разбирается или ссылка некорректна: повторная доставка закончится тем же,
+            // поэтому сообщение уходит в очередь отброшенных сообщений
             logger.error("Error handling delivery", e);
-            channel.basicReject(delivery.getEnvelope().getDeliveryTag(), true);
+            acks.nack(deliveryTag, false);
         }
     }
 
     /**
-     * Основной метод выполнения класса.
-     * Устанавливает соединение с RabbitMQ, считывает сообщения из очереди и обрабатывает их.
+     * Откладывает повторную загрузку ссылки вместо немедленного возврата в очередь.
+     * Сообщение публикуется в очередь отложенных повторов с ближайшей сверху задержкой для домена
+     * и по истечении TTL очереди возвращается в очередь ссылок. Исходное сообщение подтверждается.
+     * Вызывается в потоке-владельце канала.
+     *
+     * @param link        Ссылка на статью.
+     * @param key         Ключ ссылки.
+     * @param properties  Свойства исходного сообщения.
+     * @param body        Тело исходного сообщения.
+     * @param deliveryTag Тег доставки исходного сообщения.
      */
-    @Override
-    public void run() {
+    private void retryLater(String link, HashKey key, AMQP.BasicProperties properties, byte[] body,
+                            long deliveryTag) {
+        Map<String, Object> headers = properties.getHeaders() == null
+                ? new HashMap<>()
+                : new HashMap<>(properties.getHeaders());
+        Object previous = headers.get(RETRY_HEADER);
+        int retries = previous instanceof Number ? ((Number) previous).intValue() : 0;
+        if (retries >= MAX_RETRIES) {
+            logger.error("Giving up on URL {} after {} retries", link, retries);
+            reject(link, key, deliveryTag);
+            return;
+        }
+        headers.put(RETRY_HEADER, retries + 1);
+
+        long delayMillis = fetchEngine.retryDelayMillis(link);
+        AMQP.BasicProperties delayed = properties.builder()
+                .headers(headers)
+                .expiration(null)
+                .build();
         try {
-            Connection connection = factory.newConnection();
-            this.channel = connection.createChannel();
+            channel.basicPublish("", delayQueue(queryLink, delayMillis), delayed, body);
+            publishedRetries.increment();
+            logger.info("Retrying URL {} in {} ms (attempt {})", link, delayMillis, retries + 1);
+            acks.ack(deliveryTag);
+        } catch (IOException e) {
+            logger.error("Error scheduling retry for URL {}", link, e);
+            acks.nack(deliveryTag, true);
+        }
+    }
 
-            try {
-                channel.queueDeclare(queryLink, false, false, false, null);
+    /**
+     * Отбрасывает сообщение в очередь отброшенных сообщений и отмечает ссылку во фронтире как неудавшуюся,
+     * чтобы она не публиковалась заново после перезапуска.
+     *
+     * @param link        Ссылка на статью.
+     * @param key         Ключ ссылки.
+     * @param deliveryTag Тег доставки исходного сообщения.
+     */
+    private void reject(String link, HashKey key, long deliveryTag) {
+        if (frontier != null) {
+            frontier.markFailed(link, key);
+        }
+        acks.nack(deliveryTag, false);
+    }
 
-                GetResponse response = channel.basicGet(queryLink, false);
-                while (response != null) {
-                    handleDelivery(response);
-                    response = channel.basicGet(queryLink, false);
-                }
+    /**
+     * Отмечает загрузку страницы во фронтире и планирует повторную загрузку.
+     * Интервал сокращается, если содержимое изменилось с прошлой загрузки, и растет, если нет.
+     *
+     * @param link    Ссылка на статью.
+     * @param key     Ключ ссылки.
+     * @param article Разобранная статья или null, если страница не изменилась (ответ 304).
+     */
+    private void markFetched(String link, HashKey key, Article article) {
+        if (frontier == null) {
+            return;
+        }
+        CrawlFrontier.Entry previous = frontier.get(key);
+        long previousHash = previous != null ? previous.getContentHash() : 0;
+        long contentHash = article != null
+                ? ContentFingerprint.of(article).getContentHash().getHigh() : previousHash;
+        int priority = previous != null ? previous.getPriority() : CrawlFrontier.DEFAULT_PRIORITY;
+        long revisitMillis = 0;
+        if (policy != null) {
+            long now = System.currentTimeMillis();
+            long published = article != null ? RecrawlPolicy.parseTime(article.getTime()) : -1;
+            boolean changed = contentHash != previousHash;
+            priority = policy.freshnessPriority(published, priority, now);
+            revisitMillis = policy.revisitMillis(previous != null ? previous.getRevisitMillis() : 0,
+                    changed, published, now);
+        }
+        frontier.markFetched(link, key, priority, contentHash, revisitMillis);
+    }
 
-            } catch (IOException e) {
-                logger.error("Error in run method", e);
+    /**
+     * Публикует информацию о статье и подтверждает исходное сообщение.
+     * Статья кодируется в вызывающем потоке, а публикуется в потоке-владельце канала.
+     * Запись кеша страниц сохраняется после публикации и удаляется, если статья не опубликована.
+     *
+     * @param article     Статья или null, если статью не удалось загрузить.
+     * @param link        Ссылка на статью.
+     * @param key         Ключ ссылки.
+     * @param deliveryTag Тег доставки исходного сообщения.
+     * @param cacheEntry  Подготовленная запись кеша страниц или null.
+     * @param page        Результат загрузки страницы; закрывается, когда статья опубликована или отброшена,
+     *                    и до этого держит байты страницы в бюджете.
+     */
+    private void publishArticle(Article article, String link, HashKey key, long deliveryTag,
+                                PageCache.Pending cacheEntry, FetchResult page) {
+        if (article == null) {
+            // Ошибка загрузки уже записана в лог, повторная обработка той же ссылки не поможет
+            page.close();
+            discard(cacheEntry);
+            reject(link, key, deliveryTag);
+            return;
+        }
+        byte[] message;
+        try {
+            message = codec.encodeArticle(article);
+        } catch (Exception e) {
+            logger.error("Error encoding article info", e);
+            page.close();
+            discard(cacheEntry);
+            reject(link, key, deliveryTag);
+            return;
+        }
+        boolean scheduled = runOnChannel(() -> {
+            try {
+                publishEncoded(article, message, deliveryTag, cacheEntry);
             } finally {
-                channel.close();
-                connection.close();
+                page.close();
+            }
+        });
+        if (!scheduled) {
+            page.close();
+            discard(cacheEntry);
+        }
+    }
+
+    private static void discard(PageCache.Pending cacheEntry) {
+        if (cacheEntry != null) {
+            cacheEntry.discard();
+        }
+    }
+
+    /**
+     * Публикует закодированную статью. Вызывается в потоке-владельце канала.
+     *
+     * @param article     Статья.
+     * @param message     Закодированная статья.
+     * @param deliveryTag Тег доставки исходного сообщения.
+     * @param cacheEntry  Подготовленная запись кеша страниц или null.
+     */
+    private void publishEncoded(Article article, byte[] message, long deliveryTag, PageCache.Pending cacheEntry) {
+        try {
+            channel.basicPublish("", queryInfo, codec.properties(), message);
+            publishedArticles.increment();
+            if (cacheEntry != null) {
+                cacheEntry.commit();
             }
-        } catch (IOException | TimeoutException e) {
-            logger.error("Error establishing connection", e);
+            markFetched(article.getUrl(), HashKey.parse(article.getHash()), article);
+            // Полный текст статьи пишется в лог только на уровне TRACE
+            if (logger.isTraceEnabled()) {
+                logger.trace("Published article info: {}", article);
+            } else {
+                logger.debug("Published article info: {}", article.getUrl());
+            }
+            acks.ack(deliveryTag);
+        } catch (Exception e) {
+            logger.error("Error publishing article info", e);
+            discard(cacheEntry);
+            acks.nack(deliveryTag, true);
         }
     }
 }
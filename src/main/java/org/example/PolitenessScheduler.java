@@ -0,0 +1,220 @@
+package org.example;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Класс для вежливого планирования запросов к сайтам.
+ * Для каждого домена ведет token bucket, скорость которого адаптивно меняется:
+ * растет при быстрых успешных ответах, падает при медленных ответах и резко снижается
+ * при кодах 429/503, после которых домен блокируется с учетом заголовка Retry-After.
+ */
+public class PolitenessScheduler implements AutoCloseable {
+
+    private static final long SLOW_RESPONSE_MILLIS = 2000;
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final double maxRatePerSecond;
+    private final double minRatePerSecond;
+    private final double burst;
+    private final ScheduledExecutorService timer;
+    private final ConcurrentMap<String, HostState> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * Конструктор.
+     *
+     * @param maxRatePerSecond Максимальное количество запросов в секунду к одному домену.
+     * @param minRatePerSecond Минимальная скорость, до которой снижается скорость при перегрузке домена.
+     * @param burst            Количество запросов, которые можно отправить подряд без ожидания.
+     */
+    public PolitenessScheduler(double maxRatePerSecond, double minRatePerSecond, double burst) {
+        this.maxRatePerSecond = maxRatePerSecond;
+        this.minRatePerSecond = minRatePerSecond;
+        this.burst = burst;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "politeness-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Резервирует право отправить запрос к домену.
+     * Будущий результат завершается, когда запрос можно отправлять; поток при этом не блокируется.
+     *
+     * @param host Домен.
+     * @return Будущий результат, который завершится в момент, разрешенный для запроса.
+     */
+    public CompletableFuture<Void> acquire(String host) {
+        long delayMillis = state(host).reserve();
+        if (delayMillis <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        timer.schedule(() -> permit.complete(null), delayMillis, TimeUnit.MILLISECONDS);
+        return permit;
+    }
+
+    /**
+     * Учитывает ответ домена при расчете скорости.
+     *
+     * @param host             Домен.
+     * @param statusCode       Код ответа HTTP.
+     * @param latencyMillis    Время ответа в миллисекундах.
+     * @param retryAfterMillis Задержка из заголовка Retry-After или 0, если заголовка нет.
+     */
+    public void onResponse(String host, int statusCode, long latencyMillis, long retryAfterMillis) {
+        HostState state = state(host);
+        if (isThrottled(statusCode)) {
+            state.onThrottled(retryAfterMillis);
+        } else {
+            state.onSuccess(latencyMillis);
+        }
+    }
+
+    /**
+     * Учитывает сетевую ошибку или тайм-аут как признак перегрузки домена.
+     *
+     * @param host Домен.
+     */
+    public void onError(String host) {
+        state(host).onThrottled(0);
+    }
+
+    /**
+     * Ограничивает скорость домена значением Crawl-delay из robots.txt.
+     *
+     * @param host             Домен.
+     * @param crawlDelayMillis Задержка между запросами в миллисекундах.
+     */
+    public void setCrawlDelay(String host, long crawlDelayMillis) {
+        if (crawlDelayMillis > 0) {
+            state(host).limitRate(1000.0 / crawlDelayMillis);
+        }
+    }
+
+    /**
+     * Возвращает задержку, с которой стоит повторить запрос к домену.
+     *
+     * @param host Домен.
+     * @return Задержка в миллисекундах.
+     */
+    public long retryDelayMillis(String host) {
+        return state(host).retryDelayMillis();
+    }
+
+    /**
+     * Проверяет, означает ли код ответа, что сайт просит снизить нагрузку.
+     *
+     * @param statusCode Код ответа HTTP.
+     * @return true для кодов 429 и 503.
+     */
+    public static boolean isThrottled(int statusCode) {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * Разбирает значение заголовка Retry-After: число секунд или дату HTTP.
+     *
+     * @param value Значение заголовка.
+     * @return Задержка в миллисекундах или 0, если значение отсутствует или не разобрано.
+     */
+    public static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        String trimmed = value.trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(trimmed)));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+            } catch (DateTimeParseException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    private HostState state(String host) {
+        return hosts.computeIfAbsent(host, h -> new HostState());
+    }
+
+    /**
+     * Останавливает таймер планировщика.
+     */
+    @Override
+    public void close() {
+        timer.shutdown();
+    }
+
+    /**
+     * Состояние одного домена: token bucket, текущая скорость и блокировка после 429/503.
+     */
+    private final class HostState {
+        private double ratePerSecond = maxRatePerSecond;
+        private double rateLimit = maxRatePerSecond;
+        private double tokens = burst;
+        private long lastRefillNanos = System.nanoTime();
+        private long blockedUntilMillis;
+        private int consecutiveThrottles;
+
+        synchronized long reserve() {
+            refill();
+            long waitMillis = Math.max(0, blockedUntilMillis - System.currentTimeMillis());
+            // Токены могут уйти в минус: это очередь уже зарезервированных запросов
+            tokens -= 1;
+            if (tokens < 0) {
+                waitMillis = Math.max(waitMillis, (long) Math.ceil(-tokens / ratePerSecond * 1000));
+            }
+            return waitMillis;
+        }
+
+        synchronized void onSuccess(long latencyMillis) {
+            consecutiveThrottles = 0;
+            refill();
+            if (latencyMillis > SLOW_RESPONSE_MILLIS) {
+                ratePerSecond = Math.max(minRatePerSecond, ratePerSecond * 0.8);
+            } else {
+                ratePerSecond = Math.min(rateLimit, ratePerSecond + 0.1);
+            }
+        }
+
+        synchronized void onThrottled(long retryAfterMillis) {
+            refill();
+            consecutiveThrottles++;
+            ratePerSecond = Math.max(minRatePerSecond, ratePerSecond / 2);
+            long backoff = Math.max(retryAfterMillis, backoffMillis());
+            blockedUntilMillis = Math.max(blockedUntilMillis, System.currentTimeMillis() + backoff);
+        }
+
+        synchronized void limitRate(double limit) {
+            rateLimit = Math.max(minRatePerSecond, Math.min(maxRatePerSecond, limit));
+            ratePerSecond = Math.min(ratePerSecond, rateLimit);
+        }
+
+        synchronized long retryDelayMillis() {
+            return Math.max(blockedUntilMillis - System.currentTimeMillis(), backoffMillis());
+        }
+
+        private long backoffMillis() {
+            int exponent = Math.min(Math.max(consecutiveThrottles - 1, 0), 20);
+            return Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << exponent);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefillNanos) / 1e9 * ratePerSecond);
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -1,88 +1,258 @@
 package org.example;
 
 import com.rabbitmq.client.*;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.TimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Класс для публикации информации о статьях в базу данных Elasticsearch.
- * Считывает сообщения из очереди RabbitMQ и добавляет их в Elasticsearch.
+ * Получает сообщения из очереди RabbitMQ через basicConsume и добавляет их в Elasticsearch пакетами.
+ * Статьи, текст которых почти совпадает с недавно записанной статьей, отмечаются в логе и метриках.
+ * Пока выключатель Elasticsearch разомкнут из-за перегрузки, получение сообщений приостанавливается.
+ * Ответы на пакеты обрабатываются в потоке-владельце канала, как и остальные действия с каналом.
+ * Записанные статьи отмечаются во фронтире {@link CrawlFrontier}, если он задан.
  */
-public class PublishInfo {
-    private final ConnectionFactory factory;
+public class PublishInfo extends QueueConsumer {
+    private static final int DEFAULT_BULK_ACTIONS = 500;
+    private static final long DEFAULT_BULK_BYTES = 5L * 1024 * 1024;
+    private static final long DEFAULT_BULK_LINGER_MILLIS = 1000;
+    private static final int DEFAULT_PREFETCH = 1000;
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_BULK_MAX_IN_FLIGHT = 1;
+
+    private static final MetricsRegistry.Counter NEAR_DUPLICATES = CrawlMetrics.REGISTRY.counter(
+            "crawler_near_duplicates_total", "Articles whose text nearly matches a recently indexed article");
+
     private final String queryInfo;
     private static final Logger logger = LoggerFactory.getLogger(PublishInfo.class);
-    private Channel channel;
     private final ElasticSearchManager elasticsearchManager;
+    private final int bulkActions;
+    private final long bulkBytes;
+    private final long bulkLingerMillis;
+    private final int bulkMaxInFlight;
+    private final SimHashIndex nearDuplicates;
+    private final CrawlFrontier frontier;
+    // Статьи, ожидающие ответа Elasticsearch, по тегу доставки; нужны только для фронтира
+    private final Map<Long, Article> pendingArticles = new ConcurrentHashMap<>();
+    private final CircuitBreaker.Listener breakerListener = new CircuitBreaker.Listener() {
+        @Override
+        public void onOpen() {
+            pause();
+        }
+
+        @Override
+        public void onClose() {
+            resume();
+        }
+    };
+    private BulkIndexer bulkIndexer;
 
     /**
-     * Конструктор.
+     * Конструктор с настройками по умолчанию. Публикация завершается, когда очередь опустела.
      *
      * @param factory             Фабрика соединений с RabbitMQ.
      * @param queryInfo           Очередь, из которой считываются сообщения.
      * @param elasticsearchManager Менеджер для работы с Elasticsearch.
      */
     public PublishInfo(ConnectionFactory factory, String queryInfo, ElasticSearchManager elasticsearchManager) {
-        this.factory = factory;
-        this.queryInfo = queryInfo;
-        this.elasticsearchManager = elasticsearchManager;
+        this(factory, queryInfo, elasticsearchManager,
+                DEFAULT_BULK_ACTIONS, DEFAULT_BULK_BYTES, DEFAULT_BULK_LINGER_MILLIS,
+                DEFAULT_PREFETCH, DEFAULT_IDLE_TIMEOUT_MILLIS);
     }
 
     /**
-     * Обрабатывает доставку сообщения из очереди.
+     * Конструктор.
      *
-     * @param delivery Сообщение из очереди.
-     * @throws IOException Если возникает ошибка при обработке сообщения.
+     * @param factory              Фабрика соединений с RabbitMQ.
+     * @param queryInfo            Очередь, из которой считываются сообщения.
+     * @param elasticsearchManager Менеджер для работы с Elasticsearch.
+     * @param bulkActions          Максимальное количество документов в одном запросе _bulk.
+     * @param bulkBytes            Максимальный размер одного запроса _bulk в байтах.
+     * @param bulkLingerMillis     Максимальное время ожидания неполного пакета в миллисекундах.
+     * @param prefetch             Максимальное количество неподтвержденных сообщений;
+     *                             должно быть больше bulkActions, иначе пакеты будут отправляться по тайм-ауту.
+     * @param idleTimeoutMillis    Время простоя очереди до завершения; 0 — работать непрерывно.
      */
-    private void handleDelivery(GetResponse delivery) throws IOException {
-        try {
-            String messageBody = new String(delivery.getBody(), StandardCharsets.UTF_8);
-            JSONObject jsonObjectInfo = new JSONObject(messageBody);
-            Article article = Article.fromJsonString(jsonObjectInfo);
+    public PublishInfo(ConnectionFactory factory, String queryInfo, ElasticSearchManager elasticsearchManager,
+                       int bulkActions, long bulkBytes, long bulkLingerMillis, int prefetch, long idleTimeoutMillis) {
+        this(factory, queryInfo, elasticsearchManager, bulkActions, bulkBytes, bulkLingerMillis, prefetch,
+                idleTimeoutMillis, null);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param factory              Фабрика соединений с RabbitMQ.
+     * @param queryInfo            Очередь, из которой считываются сообщения.
+     * @param elasticsearchManager Менеджер для работы с Elasticsearch.
+     * @param bulkActions          Максимальное количество документов в одном запросе _bulk.
+     * @param bulkBytes            Максимальный размер одного запроса _bulk в байтах.
+     * @param bulkLingerMillis     Максимальное время ожидания неполного пакета в миллисекундах.
+     * @param prefetch             Максимальное количество неподтвержденных сообщений;
+     *                             должно быть больше bulkActions, иначе пакеты будут отправляться по тайм-ауту.
+     * @param idleTimeoutMillis    Время простоя очереди до завершения; 0 — работать непрерывно.
+     * @param nearDuplicates       Индекс SimHash для поиска почти дублей, общий для потребителей, или null.
+     */
+    public PublishInfo(ConnectionFactory factory, String queryInfo, ElasticSearchManager elasticsearchManager,
+                       int bulkActions, long bulkBytes, long bulkLingerMillis, int prefetch, long idleTimeoutMillis,
+                       SimHashIndex nearDuplicates) {
+        this(factory, queryInfo, elasticsearchManager, bulkActions, bulkBytes, bulkLingerMillis,
+                DEFAULT_BULK_MAX_IN_FLIGHT, prefetch, idleTimeoutMillis, nearDuplicates);
+    }
+
+    /**
+     * Конструктор.
+     *
+     * @param factory              Фабрика соединений с RabbitMQ.
+     * @param queryInfo            Очередь, из которой считываются сообщения.
+     * @param elasticsearchManager Менеджер для работы с Elasticsearch.
+     * @param bulkActions          Максимальное количество документов в одном запросе _bulk.
+     * @param bulkBytes            Максимальный размер одного запроса _bulk в байтах.
+     * @param bulkLingerMillis     Максимальное время ожидания неполного пакета в миллисекундах.
+     * @param bulkMaxInFlight      Максимальное количество запросов _bulk, ожидающих ответа;
+     *                             prefetch должен вмещать столько пакетов, иначе они будут неполными.
+     * @param prefetch             Максимальное количество неподтвержденных сообщений.
+     * @param idleTimeoutMillis    Время простоя очереди до завершения; 0 — работать непрерывно.
+     * @param nearDuplicates       Индекс SimHash для поиска почти дублей, общий для потребителей, или null.
+     */
+    public PublishInfo(ConnectionFactory factory, String queryInfo, ElasticSearchManager elasticsearchManager,
+                       int bulkActions, long bulkBytes, long bulkLingerMillis, int bulkMaxInFlight, int prefetch,
+                       long idleTimeoutMillis, SimHashIndex nearDuplicates) {
+        this(factory, queryInfo, elasticsearchManager, bulkActions, bulkBytes, bulkLingerMillis, bulkMaxInFlight,
+                prefetch, idleTimeoutMillis, nearDuplicates, null);
+    }
 
-            boolean documentExists = elasticsearchManager.checkDocumentExists(article);
+    /**
+     * Конструктор.
+     *
+     * @param factory              Фабрика соединений с RabbitMQ.
+     * @param queryInfo            Очередь, из которой считываются сообщения.
+     * @param elasticsearchManager Менеджер для работы с Elasticsearch.
+     * @param bulkActions          Максимальное количество документов в одном запросе _bulk.
+     * @param bulkBytes            Максимальный размер одного запроса _bulk в байтах.
+     * @param bulkLingerMillis     Максимальное время ожидания неполного пакета в миллисекундах.
+     * @param bulkMaxInFlight      Максимальное количество запросов _bulk, ожидающих ответа.
+     * @param prefetch             Максимальное количество неподтвержденных сообщений.
+     * @param idleTimeoutMillis    Время простоя очереди до завершения; 0 — работать непрерывно.
+     * @param nearDuplicates       Индекс SimHash для поиска почти дублей, общий для потребителей, или null.
+     * @param frontier             Фронтир обхода или null.
+     */
+    public PublishInfo(ConnectionFactory factory, String queryInfo, ElasticSearchManager elasticsearchManager,
+                       int bulkActions, long bulkBytes, long bulkLingerMillis, int bulkMaxInFlight, int prefetch,
+                       long idleTimeoutMillis, SimHashIndex nearDuplicates, CrawlFrontier frontier) {
+        super(factory, queryInfo, prefetch, idleTimeoutMillis);
+        this.queryInfo = queryInfo;
+        this.elasticsearchManager = elasticsearchManager;
+        this.bulkActions = bulkActions;
+        this.bulkBytes = bulkBytes;
+        this.bulkLingerMillis = bulkLingerMillis;
+        this.bulkMaxInFlight = bulkMaxInFlight;
+        this.nearDuplicates = nearDuplicates;
+        this.frontier = frontier;
+    }
 
-            if (!documentExists) {
-                elasticsearchManager.addDocument(article);
-            } else {
-                logger.info("Document with hash " + article.getHash() + " already exists in Elasticsearch. Skipping processing.");
+    /**
+     * Подтверждает записанные документы, возвращает в очередь те, которые не удалось записать
+     * из-за перегрузки или сбоя, и отбрасывает те, которые Elasticsearch отклонил окончательно.
+     *
+     * @param succeeded Теги доставки успешно записанных документов.
+     * @param retry     Теги доставки документов, которые нужно записать повторно.
+     * @param rejected  Теги доставки документов, которые записать невозможно.
+     */
+    private void handleBulkResult(List<Long> succeeded, List<Long> retry, List<Long> rejected) {
+        for (long deliveryTag : retry) {
+            pendingArticles.remove(deliveryTag);
+            acks.nack(deliveryTag, true);
+        }
+        for (long deliveryTag : rejected) {
+            pendingArticles.remove(deliveryTag);
+            acks.nack(deliveryTag, false);
+        }
+        for (long deliveryTag : succeeded) {
+            Article article = pendingArticles.remove(deliveryTag);
+            if (article != null) {
+                frontier.markIndexed(article.getUrl(), HashKey.parse(article.getHash()));
             }
-            channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
-        } catch (Exception e) {
-            logger.error("Error handling delivery", e);
-            channel.basicReject(delivery.getEnvelope().getDeliveryTag(), true);
+            acks.ack(deliveryTag);
         }
     }
 
     /**
-     * Основной метод выполнения класса.
-     * Устанавливает соединение с RabbitMQ, считывает сообщения из очереди и обрабатывает их.
+     * Записывает в лог статью, текст которой почти совпадает с текстом другой недавно записанной статьи.
      *
-     * @throws IOException Если возникает ошибка при установлении соединения.
-     * @throws TimeoutException Если возникает ошибка тайм-аута при установлении соединения.
+     * @param document Документ статьи.
      */
-    public void run() throws IOException, TimeoutException {
-        Connection connection = factory.newConnection();
-        this.channel = connection.createChannel();
+    private void reportNearDuplicate(ArticleDocument document) {
+        long simHash = document.getFingerprint().getSimHash();
+        if (nearDuplicates == null || simHash == 0) {
+            return;
+        }
+        SimHashIndex.Match match = nearDuplicates.addAndFind(document.getId(), simHash);
+        if (match != null) {
+            NEAR_DUPLICATES.increment();
+            logger.info("Article {} is a near duplicate of {} (distance {})",
+                    document.getArticle().getUrl(), match.getId(), match.getDistance());
+        }
+    }
+
+    @Override
+    protected void declareQueues(Channel channel) throws IOException {
+        declareQueue(channel, queryInfo, null);
+    }
 
+    @Override
+    protected void onStart() {
+        this.bulkIndexer = new BulkIndexer(elasticsearchManager, bulkActions, bulkBytes, bulkLingerMillis,
+                bulkMaxInFlight, this::runOnChannel, this::handleBulkResult);
+        CircuitBreaker circuitBreaker = elasticsearchManager.getCircuitBreaker();
+        circuitBreaker.addListener(breakerListener);
+        if (circuitBreaker.isOpen()) {
+            pause();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        elasticsearchManager.getCircuitBreaker().removeListener(breakerListener);
+        bulkIndexer.close();
+    }
+
+    /**
+     * Обрабатывает доставку сообщения из очереди.
+     *
+     * @param envelope   Конверт сообщения.
+     * @param properties Свойства сообщения.
+     * @param body       Тело сообщения.
+     * @throws IOException Если возникает ошибка при обработке сообщения.
+     */
+    @Override
+    protected void handleDelivery(Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
+        ArticleDocument document;
+        try {
+            document = MessageCodec.forContentType(properties.getContentType()).decodeDocument(body);
+        } catch (Exception e) {
+            // Повторная доставка неразбираемого сообщения закончится тем же: оно уходит в очередь отброшенных сообщений
+            logger.error("Error decoding article message", e);
+            acks.nack(envelope.getDeliveryTag(), false);
+            return;
+        }
         try {
-            channel.queueDeclare(queryInfo, false, false, false, null);
+            reportNearDuplicate(document);
 
-            GetResponse response = channel.basicGet(queryInfo, false);
-            while (response != null) {
-                handleDelivery(response);
-                response = channel.basicGet(queryInfo, false);
+            // _id документа равен хешу статьи; неизмененные статьи отсекает BulkIndexer по отпечатку
+            // Подтверждение придет после ответа Elasticsearch на пакетный запрос
+            if (frontier != null) {
+                pendingArticles.put(envelope.getDeliveryTag(), document.getArticle());
             }
-
-        } catch (IOException e) {
-            logger.error("Error in run method", e);
-        } finally {
-            channel.close();
-            connection.close();
+            bulkIndexer.add(document, envelope.getDeliveryTag());
+        } catch (Exception e) {
+            logger.error("Error handling delivery", e);
+            pendingArticles.remove(envelope.getDeliveryTag());
+            acks.nack(envelope.getDeliveryTag(), true);
         }
     }
 }
@@ -0,0 +1,393 @@
+package org.example;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Базовый класс для потребителей очередей RabbitMQ.
+ * Получает сообщения через basicConsume с ограничением basicQos (prefetch),
+ * подтверждает их пакетами через {@link AckBatcher} и поддерживает два режима:
+ * непрерывная работа до вызова {@link #shutdown()} и работа до опустошения очереди.
+ * Получение сообщений можно приостановить через {@link #pause()}, например при перегрузке
+ * следующего этапа: подписка отменяется, а уже полученные сообщения дообрабатываются.
+ * Канал RabbitMQ не используется из нескольких потоков: публикации, подтверждения, подписка
+ * и ее отмена выполняются в одном потоке-владельце канала через {@link #runOnChannel(Runnable)},
+ * а потоки загрузки, разбора и клиента Elasticsearch только передают ему действия.
+ * Сообщения, которые этап отклоняет без возврата в очередь, брокер перекладывает в очередь
+ * отброшенных сообщений {@link #deadLetterQueue(String)}, где их можно разобрать и опубликовать заново.
+ * Отдельной абстракции очереди нет: этапы опираются на возможности брокера (приоритеты, TTL очередей
+ * отложенных повторов, dead letter, prefetch), поэтому для запуска в одном процессе подменяется
+ * {@link ConnectionFactory} — так нагрузочный тест запускает те же этапы с брокером в памяти.
+ */
+public abstract class QueueConsumer implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueueConsumer.class);
+    private static final long ACK_FLUSH_MILLIS = 200;
+    private static final long IDLE_CHECK_MILLIS = 100;
+    private static final long DRAIN_TIMEOUT_MILLIS = 30000;
+    private static final long CHANNEL_SHUTDOWN_MILLIS = 5000;
+    private static final String DEAD_LETTER_SUFFIX = ".dead";
+
+    protected final ConnectionFactory factory;
+    protected final String queue;
+    private final int prefetch;
+    private final long idleTimeoutMillis;
+    private final CountDownLatch stopRequested = new CountDownLatch(1);
+    private volatile long lastDeliveryMillis;
+    private volatile BooleanSupplier upstreamDone = () -> true;
+    private final Object consumeLock = new Object();
+    private DefaultConsumer consumer;
+    private String consumerTag;
+    private volatile boolean paused;
+    private boolean stopping;
+
+    private ExecutorService channelExecutor;
+
+    protected Channel channel;
+    protected AckBatcher acks;
+
+    /**
+     * Конструктор.
+     *
+     * @param factory           Фабрика соединений с RabbitMQ.
+     * @param queue             Очередь, из которой считываются сообщения.
+     * @param prefetch          Максимальное количество неподтвержденных сообщений (basicQos).
+     * @param idleTimeoutMillis Время простоя очереди, после которого потребитель завершается;
+     *                          0 — работать непрерывно до вызова {@link #shutdown()}.
+     */
+    protected QueueConsumer(ConnectionFactory factory, String queue, int prefetch, long idleTimeoutMillis) {
+        this.factory = factory;
+        this.queue = queue;
+        this.prefetch = prefetch;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Объявляет очереди, с которыми работает потребитель.
+     *
+     * @param channel Канал RabbitMQ.
+     * @throws IOException Если возникает ошибка при объявлении очередей.
+     */
+    protected abstract void declareQueues(Channel channel) throws IOException;
+
+    /**
+     * Обрабатывает доставку сообщения из очереди.
+     * Реализация должна завершить сообщение через {@link #acks}: ack или nack.
+     *
+     * @param envelope   Конверт сообщения.
+     * @param properties Свойства сообщения.
+     * @param body       Тело сообщения.
+     * @throws IOException Если возникает ошибка при обработке сообщения.
+     */
+    protected abstract void handleDelivery(Envelope envelope, AMQP.BasicProperties properties, byte[] body)
+            throws IOException;
+
+    /**
+     * Вызывается после открытия канала и до начала получения сообщений.
+     */
+    protected void onStart() {
+    }
+
+    /**
+     * Вызывается после отмены подписки и до закрытия канала.
+     * Здесь нужно завершить обработку сообщений, которые еще не подтверждены.
+     */
+    protected void onStop() {
+    }
+
+    /**
+     * Запрашивает корректную остановку: подписка отменяется, полученные сообщения
+     * дообрабатываются и подтверждаются, затем канал закрывается.
+     */
+    public void shutdown() {
+        stopRequested.countDown();
+    }
+
+    /**
+     * Возвращает имя очереди отброшенных сообщений.
+     *
+     * @param queue Очередь.
+     * @return Очередь, куда попадают сообщения, отклоненные без возврата в очередь.
+     */
+    public static String deadLetterQueue(String queue) {
+        return queue + DEAD_LETTER_SUFFIX;
+    }
+
+    /**
+     * Объявляет долговечную очередь вместе с ее очередью отброшенных сообщений: сообщения,
+     * отклоненные без возврата (nack с requeue=false), брокер перекладывает туда, а не удаляет.
+     * Аргументы существующей очереди изменить нельзя, поэтому очередь, объявленная без них, удаляется заранее.
+     *
+     * @param channel   Канал.
+     * @param queue     Очередь.
+     * @param arguments Прочие аргументы очереди или null.
+     * @throws IOException Если возникает ошибка при объявлении очереди.
+     */
+    public static void declareQueue(Channel channel, String queue, Map<String, Object> arguments)
+            throws IOException {
+        channel.queueDeclare(deadLetterQueue(queue), true, false, false, null);
+        Map<String, Object> queueArguments = arguments != null ? new HashMap<>(arguments) : new HashMap<>();
+        queueArguments.put("x-dead-letter-exchange", "");
+        queueArguments.put("x-dead-letter-routing-key", deadLetterQueue(queue));
+        channel.queueDeclare(queue, true, false, false, queueArguments);
+    }
+
+    /**
+     * Выполняет действие с каналом в потоке-владельце канала, после ранее переданных действий.
+     * Ошибки действия записываются в лог. После остановки потребителя действие не выполняется:
+     * неподтвержденные сообщения вернутся в очередь при закрытии канала.
+     *
+     * @param action Действие с каналом.
+     * @return false, если потребитель остановлен и действие не будет выполнено.
+     */
+    protected boolean runOnChannel(Runnable action) {
+        try {
+            channelExecutor.execute(() -> {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    logger.error("Error in channel action of queue {}", queue, e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.warn("Consumer of queue {} is stopped, channel action skipped", queue);
+            return false;
+        }
+    }
+
+    /**
+     * Приостанавливает получение сообщений: подписка на очередь отменяется,
+     * неподтвержденные сообщения остаются за потребителем и дообрабатываются.
+     * Пока получение приостановлено, потребитель не завершается по простою очереди.
+     * Может вызываться из любого потока: подписка отменяется в потоке-владельце канала.
+     */
+    protected void pause() {
+        synchronized (consumeLock) {
+            if (paused) {
+                return;
+            }
+            paused = true;
+        }
+        runOnChannel(() -> {
+            synchronized (consumeLock) {
+                if (paused && consumerTag != null) {
+                    cancelConsumer();
+                    logger.info("Consuming from queue {} paused", queue);
+                }
+            }
+        });
+    }
+
+    /**
+     * Возобновляет получение сообщений после {@link #pause()}.
+     * Может вызываться из любого потока: подписка возобновляется в потоке-владельце канала.
+     */
+    protected void resume() {
+        synchronized (consumeLock) {
+            if (!paused) {
+                return;
+            }
+            paused = false;
+        }
+        runOnChannel(() -> {
+            synchronized (consumeLock) {
+                if (!paused && consumerTag == null && consumer != null && !stopping) {
+                    try {
+                        consumerTag = channel.basicConsume(queue, false, consumer);
+                        logger.info("Consuming from queue {} resumed", queue);
+                    } catch (IOException e) {
+                        logger.error("Error resuming consumption from queue {}", queue, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Задает условие завершения предыдущего этапа конвейера.
+     * Пока оно не выполнено, потребитель не завершается по простою очереди:
+     * пустая очередь означает лишь, что предыдущий этап еще не успел опубликовать сообщения.
+     *
+     * @param upstreamDone Условие завершения предыдущего этапа.
+     */
+    public void setUpstreamDone(BooleanSupplier upstreamDone) {
+        this.upstreamDone = upstreamDone;
+    }
+
+    /**
+     * Основной метод выполнения класса.
+     * Устанавливает соединение с RabbitMQ, подписывается на очередь и обрабатывает сообщения
+     * до остановки или до простоя очереди.
+     */
+    @Override
+    public void run() {
+        this.channelExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "channel-" + queue);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (Connection connection = factory.newConnection()) {
+            this.channel = connection.createChannel();
+            declareQueues(channel);
+            channel.basicQos(prefetch);
+
+            // Подтверждаем пакетами, но не больше половины prefetch, чтобы не останавливать доставку
+            this.acks = new AckBatcher(channel, queue, Math.max(1, prefetch / 2), ACK_FLUSH_MILLIS,
+                    this::runOnChannel);
+            onStart();
+
+            lastDeliveryMillis = System.currentTimeMillis();
+            DefaultConsumer deliveryConsumer = new DefaultConsumer(channel) {
+                @Override
+                public void handleDelivery(String consumerTag, Envelope envelope,
+                                           AMQP.BasicProperties properties, byte[] body) throws IOException {
+                    lastDeliveryMillis = System.currentTimeMillis();
+                    acks.track(envelope.getDeliveryTag());
+                    try {
+                        QueueConsumer.this.handleDelivery(envelope, properties, body);
+                    } catch (Exception e) {
+                        logger.error("Error handling delivery", e);
+                        acks.nack(envelope.getDeliveryTag(), true);
+                    }
+                }
+            };
+            callOnChannel(() -> {
+                synchronized (consumeLock) {
+                    consumer = deliveryConsumer;
+                    if (!paused) {
+                        consumerTag = channel.basicConsume(queue, false, deliveryConsumer);
+                    }
+                }
+            });
+            logger.info("Consuming from queue {} with prefetch {}", queue, prefetch);
+
+            awaitStop();
+
+            callOnChannel(() -> {
+                synchronized (consumeLock) {
+                    stopping = true;
+                    if (consumerTag != null) {
+                        cancelConsumer();
+                    }
+                }
+            });
+            onStop();
+            awaitDrained();
+            acks.close();
+            // Канал закрывается после того, как поток-владелец выполнил переданные подтверждения
+            channelExecutor.shutdown();
+            if (!channelExecutor.awaitTermination(CHANNEL_SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS)) {
+                logger.warn("Channel actions of queue {} did not finish in {} ms", queue, CHANNEL_SHUTDOWN_MILLIS);
+            }
+            channel.close();
+            logger.info("Consumer of queue {} stopped", queue);
+        } catch (IOException | TimeoutException e) {
+            logger.error("Error in run method", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Consumer of queue {} interrupted", queue);
+        } finally {
+            channelExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Выполняет действие с каналом в потоке-владельце канала и ждет его завершения.
+     *
+     * @param action Действие с каналом.
+     * @throws IOException          Если действие завершилось ошибкой ввода-вывода.
+     * @throws InterruptedException Если поток прерван.
+     */
+    private void callOnChannel(ChannelAction action) throws IOException, InterruptedException {
+        try {
+            channelExecutor.submit(() -> {
+                action.run();
+                return null;
+            }).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Действие с каналом, которое может завершиться ошибкой ввода-вывода.
+     */
+    @FunctionalInterface
+    private interface ChannelAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Отменяет подписку на очередь. Вызывается под consumeLock в потоке-владельце канала.
+     */
+    private void cancelConsumer() {
+        try {
+            channel.basicCancel(consumerTag);
+        } catch (IOException e) {
+            logger.error("Error cancelling consumer of queue {}", queue, e);
+        }
+        consumerTag = null;
+    }
+
+    /**
+     * Ожидает завершения обработки уже полученных сообщений, но не дольше тайм-аута.
+     * Неподтвержденные сообщения после закрытия канала вернутся в очередь.
+     *
+     * @throws InterruptedException Если поток прерван.
+     */
+    private void awaitDrained() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (acks.pending() > 0 && System.currentTimeMillis() < deadline) {
+            acks.flush();
+            Thread.sleep(IDLE_CHECK_MILLIS);
+        }
+        if (acks.pending() > 0) {
+            logger.warn("Consumer of queue {} stopped with {} unacknowledged messages", queue, acks.pending());
+        }
+    }
+
+    /**
+     * Ожидает запроса остановки или, если задан тайм-аут простоя,
+     * момента, когда предыдущий этап завершен, очередь пуста и все полученные сообщения подтверждены.
+     *
+     * @throws InterruptedException Если поток прерван.
+     */
+    private void awaitStop() throws InterruptedException {
+        while (!stopRequested.await(IDLE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (paused || !upstreamDone.getAsBoolean()) {
+                // Простой отсчитывается не раньше завершения предыдущего этапа и не во время паузы
+                lastDeliveryMillis = System.currentTimeMillis();
+                continue;
+            }
+            if (idleTimeoutMillis > 0
+                    && acks.pending() == 0
+                    && System.currentTimeMillis() - lastDeliveryMillis >= idleTimeoutMillis) {
+                logger.info("Queue {} is idle, draining consumer", queue);
+                return;
+            }
+        }
+    }
+}
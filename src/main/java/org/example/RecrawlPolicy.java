@@ -0,0 +1,142 @@
+package org.example;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Правила приоритета и частоты повторной загрузки страниц.
+ * Приоритет сообщения в очереди ссылок (RabbitMQ, x-max-priority) зависит от свежести статьи:
+ * - новая ссылка получает приоритет по позиции в списке статей: чем выше, тем новее статья;
+ * - повторная загрузка получает приоритет по возрасту статьи: каждое удвоение возраста
+ *   в часах снижает приоритет на единицу.
+ * Интервал повторной загрузки адаптивный: первый равен возрасту статьи, затем он уменьшается вдвое,
+ * если содержимое изменилось, и увеличивается вдвое, если нет. Интервал ограничен снизу и сверху.
+ */
+public final class RecrawlPolicy {
+
+    private static final long HOUR_MILLIS = 3600_000L;
+    private static final String MAX_PRIORITY_ARGUMENT = "x-max-priority";
+
+    private final int maxPriority;
+    private final int listingStep;
+    private final long minRevisitMillis;
+    private final long maxRevisitMillis;
+
+    /**
+     * Конструктор.
+     *
+     * @param maxPriority      Максимальный приоритет очереди ссылок; 0 — очередь без приоритетов.
+     * @param listingStep      Количество позиций в списке статей, на которые приходится одна ступень приоритета.
+     * @param minRevisitMillis Минимальный интервал повторной загрузки в миллисекундах.
+     * @param maxRevisitMillis Максимальный интервал повторной загрузки в миллисекундах;
+     *                         0 — не загружать страницы повторно.
+     */
+    public RecrawlPolicy(int maxPriority, int listingStep, long minRevisitMillis, long maxRevisitMillis) {
+        this.maxPriority = maxPriority;
+        this.listingStep = Math.max(1, listingStep);
+        this.minRevisitMillis = minRevisitMillis;
+        this.maxRevisitMillis = maxRevisitMillis;
+    }
+
+    public int getMaxPriority() {
+        return maxPriority;
+    }
+
+    /**
+     * Возвращает аргументы объявления очереди ссылок.
+     *
+     * @return Аргументы с x-max-priority или null для очереди без приоритетов.
+     */
+    public Map<String, Object> queueArguments() {
+        if (maxPriority <= 0) {
+            return null;
+        }
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put(MAX_PRIORITY_ARGUMENT, maxPriority);
+        return arguments;
+    }
+
+    /**
+     * Возвращает приоритет новой ссылки по ее позиции в списке статей.
+     *
+     * @param position Позиция с начала первой страницы списка, начиная с 0.
+     * @return Приоритет от 1 до максимального.
+     */
+    public int listingPriority(int position) {
+        return clampPriority(maxPriority - position / listingStep);
+    }
+
+    /**
+     * Возвращает приоритет повторной загрузки по времени публикации статьи.
+     *
+     * @param publishedMillis Время публикации в миллисекундах эпохи или -1, если неизвестно.
+     * @param fallback        Приоритет, если время публикации неизвестно.
+     * @param nowMillis       Текущее время.
+     * @return Приоритет от 1 до максимального.
+     */
+    public int freshnessPriority(long publishedMillis, int fallback, long nowMillis) {
+        if (publishedMillis < 0) {
+            return clampPriority(fallback);
+        }
+        long hours = Math.max(0, nowMillis - publishedMillis) / HOUR_MILLIS;
+        // Ступень — номер старшего бита возраста в часах: 0 до часа, 1 для часа, 2 для 2–3 часов, 3 для 4–7 и т. д.
+        int level = Long.SIZE - Long.numberOfLeadingZeros(hours);
+        return clampPriority(maxPriority - level);
+    }
+
+    /**
+     * Возвращает следующий интервал повторной загрузки.
+     *
+     * @param previousMillis  Предыдущий интервал или 0, если страница загружена впервые.
+     * @param changed         true, если содержимое изменилось с прошлой загрузки.
+     * @param publishedMillis Время публикации в миллисекундах эпохи или -1, если неизвестно.
+     * @param nowMillis       Текущее время.
+     * @return Интервал в миллисекундах; 0, если повторные загрузки отключены.
+     */
+    public long revisitMillis(long previousMillis, boolean changed, long publishedMillis, long nowMillis) {
+        if (maxRevisitMillis <= 0) {
+            return 0;
+        }
+        long interval;
+        if (previousMillis <= 0) {
+            // Свежие статьи чаще правят и комментируют; статью неизвестного возраста считаем старой
+            interval = publishedMillis < 0 ? maxRevisitMillis : nowMillis - publishedMillis;
+        } else if (changed) {
+            interval = previousMillis / 2;
+        } else {
+            interval = previousMillis > maxRevisitMillis / 2 ? maxRevisitMillis : previousMillis * 2;
+        }
+        return Math.max(minRevisitMillis, Math.min(maxRevisitMillis, interval));
+    }
+
+    /**
+     * Разбирает время публикации статьи в формате ISO 8601, например из атрибута datetime.
+     *
+     * @param time Время публикации или пустая строка.
+     * @return Время в миллисекундах эпохи или -1, если время не указано или не распознано.
+     */
+    public static long parseTime(String time) {
+        if (time == null || time.isBlank()) {
+            return -1;
+        }
+        try {
+            return Instant.parse(time.trim()).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            try {
+                return OffsetDateTime.parse(time.trim()).toInstant().toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
+    }
+
+    private int clampPriority(int priority) {
+        if (maxPriority <= 0) {
+            return 0;
+        }
+        return Math.max(1, Math.min(maxPriority, priority));
+    }
+}
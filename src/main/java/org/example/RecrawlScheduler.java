@@ -0,0 +1,158 @@
+package org.example;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Планировщик повторных загрузок.
+ * Периодически забирает из фронтира {@link CrawlFrontier} ссылки, время повторной загрузки которых
+ * наступило, и публикует их в очередь ссылок с приоритетом, назначенным {@link RecrawlPolicy}.
+ * Ссылки, которые не удалось опубликовать, возвращаются во фронтир с задержкой, растущей
+ * с каждой неудачей подряд, а канал открывается заново.
+ */
+public class RecrawlScheduler implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecrawlScheduler.class);
+    private static final long MIN_RETRY_DELAY_MILLIS = 5_000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 600_000;
+
+    private final CrawlFrontier frontier;
+    private final ConnectionFactory factory;
+    private final String queue;
+    private final MessageCodec codec;
+    private final int batchSize;
+    private final MetricsRegistry.Counter publishedLinks;
+    private final MetricsRegistry.Counter revisits;
+    private final ScheduledExecutorService scheduler;
+    private Connection connection;
+    private Channel channel;
+    // Неудачные публикации подряд; меняется только в потоке планировщика
+    private int failures;
+
+    /**
+     * Конструктор.
+     *
+     * @param frontier  Фронтир обхода.
+     * @param factory   Фабрика соединений с RabbitMQ.
+     * @param queue     Очередь ссылок.
+     * @param codec     Формат публикуемых сообщений.
+     * @param batchSize Максимальное количество ссылок за одну проверку.
+     */
+    public RecrawlScheduler(CrawlFrontier frontier, ConnectionFactory factory, String queue, MessageCodec codec,
+                            int batchSize) {
+        this.frontier = frontier;
+        this.factory = factory;
+        this.queue = queue;
+        this.codec = codec;
+        this.batchSize = batchSize;
+        this.publishedLinks = CrawlMetrics.published(queue);
+        this.revisits = CrawlMetrics.REGISTRY.counter("crawler_revisits_total",
+                "Links republished for a scheduled recrawl");
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "recrawl-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Подключается к RabbitMQ и запускает периодическую проверку.
+     *
+     * @param intervalMillis Период проверки в миллисекундах.
+     * @throws IOException      Если возникает ошибка при открытии канала.
+     * @throws TimeoutException Если не удалось подключиться к RabbitMQ.
+     */
+    public void start(long intervalMillis) throws IOException, TimeoutException {
+        connection = factory.newConnection();
+        channel = connection.createChannel();
+        scheduler.scheduleWithFixedDelay(this::publishDue, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Публикует ссылки, время повторной загрузки которых наступило.
+     * Если публикация не удалась, эта и оставшиеся ссылки пачки возвращаются во фронтир с задержкой.
+     */
+    private void publishDue() {
+        int published = 0;
+        List<CrawlFrontier.Entry> due;
+        do {
+            due = frontier.takeDue(System.currentTimeMillis(), batchSize);
+            for (int i = 0; i < due.size(); i++) {
+                CrawlFrontier.Entry entry = due.get(i);
+                LinkMessage message = new LinkMessage(entry.getUrl(), entry.getKey().toString());
+                try {
+                    openChannel();
+                    channel.basicPublish("", queue, codec.properties(entry.getPriority()), codec.encodeLink(message));
+                    publishedLinks.increment();
+                    revisits.increment();
+                    published++;
+                    failures = 0;
+                } catch (IOException | TimeoutException | RuntimeException e) {
+                    long delayMillis = retryDelayMillis();
+                    logger.error("Error publishing recrawl of {}, retrying {} links in {} ms",
+                            entry.getUrl(), due.size() - i, delayMillis, e);
+                    for (CrawlFrontier.Entry failed : due.subList(i, due.size())) {
+                        frontier.retryLater(failed, delayMillis);
+                    }
+                    return;
+                }
+            }
+        } while (due.size() == batchSize);
+        if (published > 0) {
+            logger.info("Scheduled {} links for recrawl", published);
+        }
+    }
+
+    /**
+     * Открывает канал заново, если он закрыт после ошибки.
+     */
+    private void openChannel() throws IOException, TimeoutException {
+        if (channel != null && channel.isOpen()) {
+            return;
+        }
+        if (connection == null || !connection.isOpen()) {
+            if (connection != null) {
+                connection.abort();
+            }
+            connection = factory.newConnection();
+        }
+        channel = connection.createChannel();
+    }
+
+    /**
+     * Задержка следующей попытки: удваивается с каждой неудачей подряд от минимальной до максимальной.
+     */
+    private long retryDelayMillis() {
+        long delayMillis = MIN_RETRY_DELAY_MILLIS << Math.min(failures, 16);
+        failures++;
+        return Math.min(delayMillis, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * Останавливает проверку и закрывает соединение.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (IOException e) {
+            logger.error("Error closing recrawl scheduler connection", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
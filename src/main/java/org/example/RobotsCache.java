@@ -0,0 +1,262 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Класс для кеширования разобранных файлов robots.txt.
+ * Файл каждого сайта загружается один раз и хранится заданное время;
+ * параллельные запросы к одному сайту ждут одну и ту же загрузку.
+ */
+public class RobotsCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RobotsCache.class);
+    private static final Duration ERROR_TTL = Duration.ofMinutes(5);
+
+    private final String userAgent;
+    private final Duration ttl;
+    private final Function<String, CompletableFuture<FetchResult>> loader;
+    private final ConcurrentMap<String, CacheEntry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Конструктор.
+     *
+     * @param userAgent Имя робота, для которого выбираются правила.
+     * @param ttl       Время хранения разобранного файла.
+     * @param loader    Функция загрузки файла robots.txt по URL.
+     */
+    public RobotsCache(String userAgent, Duration ttl, Function<String, CompletableFuture<FetchResult>> loader) {
+        this.userAgent = userAgent.toLowerCase(Locale.ROOT);
+        this.ttl = ttl;
+        this.loader = loader;
+    }
+
+    /**
+     * Возвращает правила robots.txt для сайта, загружая их при отсутствии в кеше.
+     *
+     * @param uri Адрес страницы сайта.
+     * @return Будущий результат с правилами сайта.
+     */
+    public CompletableFuture<Rules> rules(URI uri) {
+        String origin = uri.getScheme() + "://" + uri.getRawAuthority();
+        long now = System.currentTimeMillis();
+        CacheEntry entry = entries.get(origin);
+        if (entry != null && entry.expiresAtMillis > now) {
+            return entry.rules;
+        }
+
+        CacheEntry fresh = new CacheEntry(new CompletableFuture<>(), now + ttl.toMillis());
+        boolean installed = entry == null
+                ? entries.putIfAbsent(origin, fresh) == null
+                : entries.replace(origin, entry, fresh);
+        if (!installed) {
+            // Другой поток уже начал загрузку
+            return entries.getOrDefault(origin, fresh).rules;
+        }
+        load(origin, fresh.rules);
+        return fresh.rules;
+    }
+
+    private void load(String origin, CompletableFuture<Rules> target) {
+        String robotsUrl = origin + "/robots.txt";
+        loader.apply(robotsUrl).whenComplete((result, error) -> {
+            if (error != null) {
+                logger.error("Error loading {}", robotsUrl, error);
+                expireSoon(origin);
+                target.complete(Rules.ALLOW_ALL);
+                return;
+            }
+            int statusCode = result.getStatusCode();
+            if (statusCode >= 200 && statusCode < 300) {
+                String content = new String(result.getBodyArray(), 0, result.getBodyLength(), StandardCharsets.UTF_8);
+                result.close();
+                target.complete(parse(content));
+                return;
+            }
+            result.close();
+            if (statusCode >= 500 || statusCode == 429) {
+                // Сайт временно недоступен: повторим загрузку позже
+                expireSoon(origin);
+            }
+            // Отсутствие robots.txt разрешает обход всего сайта
+            target.complete(Rules.ALLOW_ALL);
+        });
+    }
+
+    private void expireSoon(String origin) {
+        entries.computeIfPresent(origin, (key, current) ->
+                new CacheEntry(current.rules, System.currentTimeMillis() + ERROR_TTL.toMillis()));
+    }
+
+    /**
+     * Разбирает содержимое robots.txt и выбирает группу правил для нашего робота или для "*".
+     *
+     * @param content Содержимое файла.
+     * @return Правила для нашего робота.
+     */
+    Rules parse(String content) {
+        List<Rule> ownRules = null;
+        List<Rule> wildcardRules = null;
+        long ownDelay = 0;
+        long wildcardDelay = 0;
+
+        List<String> groupAgents = new ArrayList<>();
+        List<Rule> groupRules = new ArrayList<>();
+        long groupDelay = 0;
+        boolean inRules = false;
+
+        for (String rawLine : (content + "\nuser-agent: \n").split("\n")) {
+            int comment = rawLine.indexOf('#');
+            String line = (comment >= 0 ? rawLine.substring(0, comment) : rawLine).trim();
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String field = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+
+            if (field.equals("user-agent")) {
+                if (inRules) {
+                    // Группа закончилась: запоминаем ее, если она относится к нам
+                    for (String agent : groupAgents) {
+                        if (agent.equals("*") && wildcardRules == null) {
+                            wildcardRules = groupRules;
+                            wildcardDelay = groupDelay;
+                        } else if (!agent.equals("*") && userAgent.contains(agent) && ownRules == null) {
+                            ownRules = groupRules;
+                            ownDelay = groupDelay;
+                        }
+                    }
+                    groupAgents = new ArrayList<>();
+                    groupRules = new ArrayList<>();
+                    groupDelay = 0;
+                    inRules = false;
+                }
+                groupAgents.add(value.toLowerCase(Locale.ROOT));
+            } else if (field.equals("allow") || field.equals("disallow")) {
+                inRules = true;
+                if (!value.isEmpty()) {
+                    groupRules.add(new Rule(value, field.equals("allow")));
+                }
+            } else if (field.equals("crawl-delay")) {
+                inRules = true;
+                try {
+                    groupDelay = (long) (Double.parseDouble(value) * 1000);
+                } catch (NumberFormatException ignored) {
+                    // Некорректное значение игнорируется
+                }
+            }
+        }
+
+        if (ownRules != null) {
+            return new Rules(ownRules, ownDelay);
+        }
+        if (wildcardRules != null) {
+            return new Rules(wildcardRules, wildcardDelay);
+        }
+        return Rules.ALLOW_ALL;
+    }
+
+    /**
+     * Правила robots.txt для одного сайта.
+     */
+    public static class Rules {
+        static final Rules ALLOW_ALL = new Rules(List.of(), 0);
+
+        private final List<Rule> rules;
+        private final long crawlDelayMillis;
+
+        Rules(List<Rule> rules, long crawlDelayMillis) {
+            this.rules = rules;
+            this.crawlDelayMillis = crawlDelayMillis;
+        }
+
+        /**
+         * Проверяет, разрешен ли обход адреса. Побеждает самое длинное совпавшее правило,
+         * при равной длине — разрешающее.
+         *
+         * @param uri Адрес страницы.
+         * @return true, если обход разрешен.
+         */
+        public boolean isAllowed(URI uri) {
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            if (uri.getRawQuery() != null) {
+                path += "?" + uri.getRawQuery();
+            }
+            Rule best = null;
+            for (Rule rule : rules) {
+                if (rule.matches(path) && (best == null
+                        || rule.length() > best.length()
+                        || (rule.length() == best.length() && rule.allow))) {
+                    best = rule;
+                }
+            }
+            return best == null || best.allow;
+        }
+
+        public long getCrawlDelayMillis() {
+            return crawlDelayMillis;
+        }
+    }
+
+    /**
+     * Одно правило Allow или Disallow с поддержкой шаблонов "*" и "$".
+     */
+    private static class Rule {
+        private final String value;
+        private final boolean allow;
+        private final Pattern pattern;
+
+        Rule(String value, boolean allow) {
+            this.value = value;
+            this.allow = allow;
+            if (value.contains("*") || value.endsWith("$")) {
+                StringBuilder regex = new StringBuilder();
+                boolean anchored = value.endsWith("$");
+                String body = anchored ? value.substring(0, value.length() - 1) : value;
+                for (String part : body.split("\\*", -1)) {
+                    if (regex.length() > 0) {
+                        regex.append(".*");
+                    }
+                    regex.append(Pattern.quote(part));
+                }
+                if (anchored) {
+                    regex.append('$');
+                }
+                this.pattern = Pattern.compile(regex.toString());
+            } else {
+                this.pattern = null;
+            }
+        }
+
+        boolean matches(String path) {
+            return pattern == null ? path.startsWith(value) : pattern.matcher(path).lookingAt();
+        }
+
+        int length() {
+            return value.length();
+        }
+    }
+
+    private static class CacheEntry {
+        private final CompletableFuture<Rules> rules;
+        private final long expiresAtMillis;
+
+        CacheEntry(CompletableFuture<Rules> rules, long expiresAtMillis) {
+            this.rules = rules;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
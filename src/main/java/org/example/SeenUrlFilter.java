@@ -0,0 +1,165 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Класс для хранения множества уже известных ссылок в виде фильтра Блума в файле,
+ * отображенном в память. Фильтр загружается при запуске за время чтения файла
+ * и занимает около 14 бит на ссылку при доле ложных срабатываний 0.1%.
+ * Ложные срабатывания возможны (новая ссылка изредка считается известной),
+ * пропуск известной ссылки — нет.
+ */
+public class SeenUrlFilter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SeenUrlFilter.class);
+    private static final int MAGIC = 0x53454531; // "SEE1"
+    private static final int HEADER_SIZE = 24;
+
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer buffer;
+    private final long numBits;
+    private final int numHashes;
+    private long count;
+
+    /**
+     * Открывает фильтр из файла или создает новый, рассчитанный на заданное количество ссылок.
+     * Если файл уже существует, используются параметры из его заголовка.
+     *
+     * @param path          Путь к файлу фильтра.
+     * @param expectedItems Ожидаемое количество ссылок.
+     * @param fpp           Допустимая доля ложных срабатываний.
+     * @throws IOException Если возникает ошибка при работе с файлом.
+     */
+    public SeenUrlFilter(Path path, long expectedItems, double fpp) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        boolean exists = Files.exists(path) && Files.size(path) > HEADER_SIZE;
+        this.fileChannel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (exists) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            fileChannel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a seen-URL filter file: " + path);
+            }
+            this.numHashes = header.getInt();
+            this.numBits = header.getLong();
+            this.count = header.getLong();
+        } else {
+            long bits = (long) Math.ceil(-expectedItems * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.numBits = Math.max(64, (bits + 63) / 64 * 64);
+            this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedItems * Math.log(2)));
+            this.count = 0;
+        }
+
+        long size = HEADER_SIZE + numBits / 8;
+        this.buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        writeHeader();
+        logger.info("Seen-URL filter {} loaded: {} entries, {} bits, {} hashes", path, count, numBits, numHashes);
+    }
+
+    /**
+     * Проверяет, встречалась ли ссылка раньше.
+     *
+     * @param key Ключ ссылки.
+     * @return true, если ссылка, вероятно, уже известна; false, если точно новая.
+     */
+    public synchronized boolean mightContain(HashKey key) {
+        for (int i = 0; i < numHashes; i++) {
+            if (!getBit(bitIndex(key, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Добавляет ссылку в множество известных.
+     *
+     * @param key Ключ ссылки.
+     * @return true, если ссылка раньше не встречалась.
+     */
+    public synchronized boolean put(HashKey key) {
+        boolean changed = false;
+        for (int i = 0; i < numHashes; i++) {
+            changed |= setBit(bitIndex(key, i));
+        }
+        if (changed) {
+            count++;
+            buffer.putLong(16, count);
+        }
+        return changed;
+    }
+
+    /**
+     * Возвращает количество добавленных ссылок.
+     *
+     * @return Количество ссылок.
+     */
+    public synchronized long size() {
+        return count;
+    }
+
+    /**
+     * Двойное хеширование по двум половинам ключа.
+     * Ключ — первые 16 байт SHA-256, поэтому файлы, созданные до перехода на {@link HashKey}, остаются верными.
+     */
+    private long bitIndex(HashKey key, int i) {
+        return Math.floorMod(key.getHigh() + i * key.getLow(), numBits);
+    }
+
+    private boolean getBit(long index) {
+        int position = HEADER_SIZE + (int) (index >>> 3);
+        return (buffer.get(position) & (1 << (index & 7))) != 0;
+    }
+
+    private boolean setBit(long index) {
+        int position = HEADER_SIZE + (int) (index >>> 3);
+        byte current = buffer.get(position);
+        byte updated = (byte) (current | (1 << (index & 7)));
+        if (current == updated) {
+            return false;
+        }
+        buffer.put(position, updated);
+        return true;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, numHashes);
+        buffer.putLong(8, numBits);
+        buffer.putLong(16, count);
+    }
+
+    /**
+     * Сбрасывает изменения на диск.
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    /**
+     * Сбрасывает изменения на диск и закрывает файл.
+     *
+     * @throws IOException Если возникает ошибка при закрытии файла.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        fileChannel.close();
+    }
+}
@@ -0,0 +1,127 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Индекс SimHash недавно записанных статей для поиска почти дублей.
+ * 64-битный SimHash делится на четыре части по 16 бит. Если два отпечатка отличаются
+ * не больше чем в трех битах, хотя бы одна часть у них совпадает, поэтому кандидаты ищутся
+ * по совпадению частей, а расстояние Хэмминга проверяется только для них.
+ * Индекс хранит ограниченное количество последних статей; самые старые вытесняются.
+ */
+public class SimHashIndex {
+
+    private static final int BANDS = 4;
+    private static final int BAND_BITS = Long.SIZE / BANDS;
+
+    /**
+     * Найденный почти дубль.
+     */
+    public static final class Match {
+        private final String id;
+        private final int distance;
+
+        private Match(String id, int distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final long simHash;
+
+        private Entry(String id, long simHash) {
+            this.id = id;
+            this.simHash = simHash;
+        }
+    }
+
+    private final int maxEntries;
+    private final int maxDistance;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final List<Map<Integer, List<Entry>>> bands = new ArrayList<>(BANDS);
+
+    /**
+     * Конструктор.
+     *
+     * @param maxEntries  Максимальное количество статей в индексе.
+     * @param maxDistance Максимальное расстояние Хэмминга для почти дубля, не больше 3.
+     */
+    public SimHashIndex(int maxEntries, int maxDistance) {
+        if (maxDistance >= BANDS) {
+            throw new IllegalArgumentException("maxDistance must be less than " + BANDS);
+        }
+        this.maxEntries = maxEntries;
+        this.maxDistance = maxDistance;
+        for (int i = 0; i < BANDS; i++) {
+            bands.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Ищет почти дубль статьи среди других статей индекса и добавляет статью в индекс.
+     *
+     * @param id      Идентификатор статьи.
+     * @param simHash SimHash текста статьи.
+     * @return Ближайший почти дубль или null.
+     */
+    public synchronized Match addAndFind(String id, long simHash) {
+        Match best = null;
+        for (int band = 0; band < BANDS; band++) {
+            List<Entry> candidates = bands.get(band).get(band(simHash, band));
+            if (candidates == null) {
+                continue;
+            }
+            for (Entry candidate : candidates) {
+                int distance = ContentFingerprint.distance(simHash, candidate.simHash);
+                if (distance <= maxDistance && !candidate.id.equals(id)
+                        && (best == null || distance < best.distance)) {
+                    best = new Match(candidate.id, distance);
+                }
+            }
+        }
+
+        Entry entry = new Entry(id, simHash);
+        entries.addLast(entry);
+        for (int band = 0; band < BANDS; band++) {
+            bands.get(band).computeIfAbsent(band(simHash, band), key -> new ArrayList<>(1)).add(entry);
+        }
+        if (entries.size() > maxEntries) {
+            evict(entries.removeFirst());
+        }
+        return best;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict(Entry entry) {
+        for (int band = 0; band < BANDS; band++) {
+            Map<Integer, List<Entry>> map = bands.get(band);
+            int key = band(entry.simHash, band);
+            List<Entry> list = map.get(key);
+            list.remove(entry);
+            if (list.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    private static int band(long simHash, int band) {
+        return (int) ((simHash >>> (band * BAND_BITS)) & 0xFFFF);
+    }
+}
@@ -0,0 +1,116 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчики одного этапа конвейера: глубина очереди, количество выполняемых задач,
+ * пропускная способность и загрузка. Загрузка — доля времени, которое слоты этапа
+ * (потоки или разрешенные одновременные запросы) были заняты за период между отчетами.
+ */
+public class StageStats {
+
+    private final String name;
+    private final AtomicInteger capacity;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+
+    private long lastReportNanos = System.nanoTime();
+    private long lastBusyNanos;
+    private long lastCompleted;
+
+    /**
+     * Конструктор.
+     *
+     * @param name     Имя этапа.
+     * @param capacity Количество слотов этапа.
+     */
+    public StageStats(String name, int capacity) {
+        this.name = name;
+        this.capacity = new AtomicInteger(capacity);
+    }
+
+    /**
+     * Изменяет количество слотов этапа, например при запуске или остановке потребителя.
+     *
+     * @param delta Изменение количества слотов.
+     */
+    public void addCapacity(int delta) {
+        capacity.addAndGet(delta);
+    }
+
+    /**
+     * Отмечает задачу, поставленную в очередь этапа.
+     */
+    public void queued() {
+        queued.incrementAndGet();
+    }
+
+    /**
+     * Отмечает начало выполнения задачи из очереди.
+     *
+     * @return Время начала для {@link #finished(long)}.
+     */
+    public long started() {
+        queued.decrementAndGet();
+        active.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Отмечает завершение задачи.
+     *
+     * @param startNanos Время начала, полученное от {@link #started()}.
+     */
+    public void finished(long startNanos) {
+        active.decrementAndGet();
+        completed.increment();
+        busyNanos.add(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Отмечает задачу, которая покинула очередь, так и не начав выполняться.
+     */
+    public void dropped() {
+        queued.decrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    /**
+     * Формирует строку отчета за период с предыдущего отчета.
+     *
+     * @return Строка отчета.
+     */
+    public synchronized String report() {
+        long now = System.nanoTime();
+        long busy = busyNanos.sum();
+        long done = completed.sum();
+        double elapsedNanos = Math.max(1, now - lastReportNanos);
+        int slots = Math.max(1, capacity.get());
+        double utilization = (busy - lastBusyNanos) / (elapsedNanos * slots);
+        double throughput = (done - lastCompleted) * 1e9 / elapsedNanos;
+
+        lastReportNanos = now;
+        lastBusyNanos = busy;
+        lastCompleted = done;
+        return String.format("%s: queued=%d active=%d/%d completed=%d rate=%.1f/s utilization=%.0f%%",
+                name, queued.get(), active.get(), slots, done, throughput, Math.min(1.0, utilization) * 100);
+    }
+}
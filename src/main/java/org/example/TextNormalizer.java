@@ -0,0 +1,160 @@
+package org.example;
+
+import java.net.URI;
+import java.text.Normalizer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Нормализация текста извлеченной статьи перед публикацией на запись.
+ * Для заголовка и каждого абзаца текста:
+ * - Unicode приводится к форме NFKC (лигатуры, полноширинные символы, составные буквы);
+ * - неразрывные и прочие пробелы заменяются обычным, невидимые символы (нулевой ширины,
+ *   мягкий перенос, управляющие) удаляются, повторяющиеся пробелы схлопываются;
+ * - пустые абзацы, повторы уже встреченных абзацев и абзацы, совпадающие с шаблонами
+ *   служебного текста сайта ({@link ExtractionRules.SiteProfile#getBoilerplate()}), отбрасываются.
+ * Документ становится меньше, а отпечатки {@link ContentFingerprint} не зависят от разметки пробелов.
+ * Экземпляр не изменяется после создания и может использоваться из нескольких потоков.
+ */
+public class TextNormalizer {
+
+    private static final String LANGUAGE_RUSSIAN = "ru";
+    private static final String LANGUAGE_ENGLISH = "en";
+    private static final String LANGUAGE_UNDEFINED = "und";
+    // Меньше букв — язык не определяется: слишком короткий текст
+    private static final int MIN_LANGUAGE_LETTERS = 20;
+
+    private final ExtractionRules rules;
+
+    /**
+     * Конструктор.
+     *
+     * @param rules Правила извлечения с шаблонами служебного текста сайтов.
+     */
+    public TextNormalizer(ExtractionRules rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Нормализует заголовок и текст статьи.
+     *
+     * @param article Извлеченная статья.
+     * @return Статья с нормализованным заголовком и текстом.
+     */
+    public Article normalize(Article article) {
+        String title = normalizeLine(article.getTitle());
+        String text = normalizeText(article.getText(), boilerplate(article.getUrl()));
+        return new Article(article.getHash(), article.getUrl(), title, text, article.getAuthor(), article.getTime());
+    }
+
+    private List<Pattern> boilerplate(String url) {
+        String host;
+        try {
+            host = URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
+        ExtractionRules.SiteProfile profile = host == null ? null : rules.forHost(host);
+        return profile == null ? List.of() : profile.getBoilerplate();
+    }
+
+    /**
+     * Нормализует текст из абзацев, разделенных переводом строки.
+     *
+     * @param text        Текст статьи.
+     * @param boilerplate Шаблоны служебных абзацев.
+     * @return Нормализованные абзацы, каждый с переводом строки в конце.
+     */
+    static String normalizeText(String text, List<Pattern> boilerplate) {
+        StringBuilder result = new StringBuilder(text.length());
+        Set<String> seen = new HashSet<>();
+        int start = 0;
+        while (start <= text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String paragraph = normalizeLine(text.substring(start, end));
+            start = end + 1;
+            if (paragraph.isEmpty() || isBoilerplate(paragraph, boilerplate) || !seen.add(paragraph)) {
+                continue;
+            }
+            result.append(paragraph).append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Нормализует одну строку: Unicode NFKC, пробелы и невидимые символы.
+     *
+     * @param line Строка без перевода строки.
+     * @return Строка без пробелов по краям и без повторяющихся пробелов.
+     */
+    static String normalizeLine(String line) {
+        String normalized = Normalizer.isNormalized(line, Normalizer.Form.NFKC)
+                ? line : Normalizer.normalize(line, Normalizer.Form.NFKC);
+        StringBuilder result = new StringBuilder(normalized.length());
+        boolean space = false;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                space = result.length() > 0;
+            } else if (isInvisible(c)) {
+                continue;
+            } else {
+                if (space) {
+                    result.append(' ');
+                    space = false;
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static boolean isInvisible(char c) {
+        int type = Character.getType(c);
+        // FORMAT — символы нулевой ширины, мягкий перенос, BOM; CONTROL — управляющие символы
+        return type == Character.FORMAT || type == Character.CONTROL;
+    }
+
+    private static boolean isBoilerplate(String paragraph, List<Pattern> boilerplate) {
+        for (Pattern pattern : boilerplate) {
+            if (pattern.matcher(paragraph).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Определяет язык текста по алфавиту: преобладает кириллица — русский, латиница — английский.
+     * Этого достаточно, чтобы выбрать анализатор для сайтов на русском и английском языках.
+     *
+     * @param text Текст.
+     * @return Код языка ISO 639-1 или "und", если язык не определен.
+     */
+    public static String detectLanguage(String text) {
+        int cyrillic = 0;
+        int latin = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isLetter(c)) {
+                continue;
+            }
+            Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+            if (block == Character.UnicodeBlock.CYRILLIC) {
+                cyrillic++;
+            } else if (block == Character.UnicodeBlock.BASIC_LATIN || block == Character.UnicodeBlock.LATIN_1_SUPPLEMENT) {
+                latin++;
+            }
+        }
+        if (cyrillic + latin < MIN_LANGUAGE_LETTERS) {
+            return LANGUAGE_UNDEFINED;
+        }
+        // Русские тексты о технологиях содержат много латиницы в названиях и коде
+        return cyrillic * 3 >= latin ? LANGUAGE_RUSSIAN : LANGUAGE_ENGLISH;
+    }
+}
@@ -0,0 +1,86 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Служба хеширования ссылок.
+ * У каждого потока свой экземпляр MessageDigest, кодировщик UTF-8 и буферы, поэтому
+ * хеширование не ищет провайдера SHA-256 и не создает промежуточных массивов на каждую ссылку.
+ * Результат — {@link HashKey} из первых 16 байт SHA-256 от строки в UTF-8.
+ */
+public final class UrlHasher {
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private static final ThreadLocal<UrlHasher> LOCAL = ThreadLocal.withInitial(UrlHasher::new);
+
+    private final MessageDigest digest;
+    private final CharsetEncoder encoder;
+    private final byte[] result;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    private UrlHasher() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 обязан поддерживаться любой реализацией Java
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        // Замена некорректных символов совпадает с поведением String.getBytes
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.result = new byte[digest.getDigestLength()];
+    }
+
+    /**
+     * Вычисляет ключ для строки в текущем потоке.
+     *
+     * @param input Строка (обычно URL).
+     * @return 128-битный ключ.
+     */
+    public static HashKey hash(CharSequence input) {
+        return LOCAL.get().compute(input);
+    }
+
+    private HashKey compute(CharSequence input) {
+        encode(input);
+        digest.update(buffer);
+        try {
+            digest.digest(result, 0, result.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return HashKey.fromBytes(result, 0);
+    }
+
+    /**
+     * Кодирует строку в UTF-8 в переиспользуемый буфер; буфер растет только для длинных строк.
+     */
+    private void encode(CharSequence input) {
+        CharBuffer chars = CharBuffer.wrap(input);
+        encoder.reset();
+        buffer.clear();
+        while (true) {
+            CoderResult coderResult = encoder.encode(chars, buffer, true);
+            if (coderResult.isUnderflow()) {
+                coderResult = encoder.flush(buffer);
+            }
+            if (coderResult.isUnderflow()) {
+                break;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,66 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Полный и потоковый разбор извлекают из одной страницы одинаковую статью.
+ */
+class ArticleExtractorTest {
+
+    private static final String ARTICLE_PAGE = "fixtures/habr-article.html";
+    private static final String ARTICLE_URL = "https://habr.com/ru/news/000000/";
+
+    @Test
+    void domAndStreamExtractSameArticle() throws IOException {
+        ExtractionRules rules = ExtractionRules.load(null);
+        byte[] page = load(ARTICLE_PAGE);
+        String hash = UrlHasher.hash(ARTICLE_URL).toString();
+
+        Article dom = new ArticleExtractor(ArticleExtractor.Mode.DOM, rules).extract(page, ARTICLE_URL, hash);
+        Article stream = new ArticleExtractor(ArticleExtractor.Mode.STREAM, rules).extract(page, ARTICLE_URL, hash);
+
+        assertFalse(dom.getTitle().isEmpty());
+        assertFalse(dom.getAuthor().isEmpty());
+        assertFalse(dom.getTime().isEmpty());
+        assertFalse(dom.getText().isEmpty());
+        assertEquals(dom, stream);
+    }
+
+    @Test
+    void domAndStreamTakeFirstMatch() throws IOException {
+        // Автор и время повторяются в блоке соавтора: значением поля остается первое совпадение
+        String page = "<html><body>"
+                + "<h1 class=\"tm-title tm-title_h1\"><span>Заголовок</span></h1>"
+                + "<a class=\"tm-user-info__username\">alice</a>"
+                + "<span class=\"tm-article-datetime-published\"><time datetime=\"2026-10-18T10:00:00.000Z\"></time></span>"
+                + "<a class=\"tm-user-info__username\">bob</a>"
+                + "<span class=\"tm-article-datetime-published\"><time datetime=\"2026-10-18T11:00:00.000Z\"></time></span>"
+                + "<div class=\"article-formatted-body\"><p>Первый абзац.</p><p>Второй абзац.</p></div>"
+                + "</body></html>";
+        byte[] body = page.getBytes(StandardCharsets.UTF_8);
+        ExtractionRules rules = ExtractionRules.load(null);
+        String hash = UrlHasher.hash(ARTICLE_URL).toString();
+
+        Article dom = new ArticleExtractor(ArticleExtractor.Mode.DOM, rules).extract(body, ARTICLE_URL, hash);
+        Article stream = new ArticleExtractor(ArticleExtractor.Mode.STREAM, rules).extract(body, ARTICLE_URL, hash);
+
+        assertEquals(new Article(hash, ARTICLE_URL, "Заголовок", "Первый абзац.\nВторой абзац.\n", "alice",
+                "2026-10-18T10:00:00.000Z"), dom);
+        assertEquals(dom, stream);
+    }
+
+    private static byte[] load(String name) throws IOException {
+        try (InputStream input = ArticleExtractorTest.class.getClassLoader().getResourceAsStream(name)) {
+            assertNotNull(input, name);
+            return input.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Двоичный формат сообщений: кодирование и разбор без потерь и отказ на поврежденных сообщениях
+ * исключением IOException, без выделения памяти по длине из сообщения.
+ */
+class BinaryMessageCodecTest {
+
+    private static final String HASH = new HashKey(0x0123456789abcdefL, 0xfedcba9876543210L).toString();
+    private static final int VERSION = 1;
+    private static final int FLAG_TEXT_LZ4 = 1;
+
+    @Test
+    void roundTripsLink() throws IOException {
+        LinkMessage message = new LinkMessage("https://habr.com/ru/articles/700000/?статья=1", HASH);
+        for (BinaryMessageCodec codec : new BinaryMessageCodec[]{BinaryMessageCodec.UNCOMPRESSED,
+                BinaryMessageCodec.LZ4}) {
+            LinkMessage decoded = codec.decodeLink(codec.encodeLink(message));
+            assertEquals(message.getLink(), decoded.getLink());
+            assertEquals(HASH, decoded.getHash());
+        }
+    }
+
+    @Test
+    void roundTripsShortArticleUncompressed() throws IOException {
+        Article article = article("Короткий текст.\n");
+        byte[] plain = BinaryMessageCodec.UNCOMPRESSED.encodeArticle(article);
+        // Текст короче порога сжатия записывается как есть
+        assertArrayEquals(plain, BinaryMessageCodec.LZ4.encodeArticle(article));
+        assertEquals(article, BinaryMessageCodec.LZ4.decodeArticle(plain));
+    }
+
+    @Test
+    void roundTripsLongArticleCompressed() throws IOException {
+        Article article = article(paragraphs(200));
+        byte[] plain = BinaryMessageCodec.UNCOMPRESSED.encodeArticle(article);
+        byte[] compressed = BinaryMessageCodec.LZ4.encodeArticle(article);
+        assertTrue(compressed.length < plain.length / 2, "text is not compressed: " + compressed.length);
+        assertEquals(FLAG_TEXT_LZ4, compressed[1]);
+        // Флаг сжатия в сообщении: получателю не нужны настройки отправителя
+        assertEquals(article, BinaryMessageCodec.UNCOMPRESSED.decodeArticle(compressed));
+        assertEquals(article, BinaryMessageCodec.LZ4.decodeArticle(plain));
+    }
+
+    @Test
+    void rejectsEveryTruncatedPrefix() {
+        byte[] link = BinaryMessageCodec.LZ4.encodeLink(new LinkMessage("https://habr.com/ru/articles/1/", HASH));
+        for (int length = 0; length < link.length; length++) {
+            byte[] prefix = Arrays.copyOf(link, length);
+            assertThrows(IOException.class, () -> BinaryMessageCodec.LZ4.decodeLink(prefix), "prefix " + length);
+        }
+        for (Article article : new Article[]{article("Текст.\n"), article(paragraphs(50))}) {
+            byte[] message = BinaryMessageCodec.LZ4.encodeArticle(article);
+            for (int length = 0; length < message.length; length++) {
+                byte[] prefix = Arrays.copyOf(message, length);
+                assertThrows(IOException.class, () -> BinaryMessageCodec.LZ4.decodeArticle(prefix),
+                        "prefix " + length);
+            }
+        }
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] message = BinaryMessageCodec.LZ4.encodeArticle(article("Текст.\n"));
+        message[0] = 2;
+        assertThrows(IOException.class, () -> BinaryMessageCodec.LZ4.decodeArticle(message));
+    }
+
+    @Test
+    void rejectsStringLengthBeyondMessage() {
+        ByteArrayOutputStream message = header(0);
+        writeVarInt(message, Integer.MAX_VALUE);
+        message.write('x');
+        assertThrows(IOException.class, () -> BinaryMessageCodec.LZ4.decodeArticle(message.toByteArray()));
+    }
+
+    @Test
+    void rejectsMalformedVarInt() {
+        ByteArrayOutputStream message = header(0);
+        // Пять байт с признаком продолжения: длина не помещается в int
+        for (int i = 0; i < 5; i++) {
+            message.write(0xff);
+        }
+        message.write(0x01);
+        assertThrows(IOException.class, () -> BinaryMessageCodec.LZ4.decodeArticle(message.toByteArray()));
+
+        ByteArrayOutputStream negative = header(0);
+        // Длина со старшим битом int отрицательна
+        writeVarInt(negative, -1);
+        assertThrows(IOException.class, () -> BinaryMessageCodec.LZ4.decodeArticle(negative.toByteArray()));
+    }
+
+    @Test
+    void rejectsCompressedLengthOutOfBounds() {
+        // Длина распакованного текста больше, чем LZ4 может получить из 4 байт
+        ByteArrayOutputStream ratio = compressedHeader();
+        writeVarInt(ratio, 4 * 255 + 1);
+        writeVarInt(ratio, 4);
+        ratio.write(new byte[4], 0, 4);
+        assertThrows(IOException.class, () -> BinaryMessageCodec.LZ4.decodeArticle(ratio.toByteArray()));
+
+        // Длина больше предела сообщения RabbitMQ, хотя по длине сжатого текста она возможна
+        int compressedLength = 600_000;
+        ByteArrayOutputStream huge = compressedHeader();
+        writeVarInt(huge, 129 * 1024 * 1024);
+        writeVarInt(huge, compressedLength);
+        huge.write(new byte[compressedLength], 0, compressedLength);
+        assertThrows(IOException.class, () -> BinaryMessageCodec.LZ4.decodeArticle(huge.toByteArray()));
+
+        // Сжатый текст длиннее сообщения
+        ByteArrayOutputStream longer = compressedHeader();
+        writeVarInt(longer, 100);
+        writeVarInt(longer, 50);
+        longer.write(new byte[10], 0, 10);
+        assertThrows(IOException.class, () -> BinaryMessageCodec.LZ4.decodeArticle(longer.toByteArray()));
+    }
+
+    @Test
+    void rejectsCorruptedCompressedText() {
+        // Токен 0xff с продолжением длины литералов уводит чтение за конец блока
+        ByteArrayOutputStream message = compressedHeader();
+        writeVarInt(message, 100);
+        writeVarInt(message, 8);
+        for (int i = 0; i < 8; i++) {
+            message.write(0xff);
+        }
+        assertThrows(IOException.class, () -> BinaryMessageCodec.LZ4.decodeArticle(message.toByteArray()));
+    }
+
+    private static Article article(String text) {
+        return new Article(HASH, "https://habr.com/ru/articles/700000/", "Заголовок статьи", text,
+                "author", "2026-10-18T12:00:00.000Z");
+    }
+
+    private static String paragraphs(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append("Абзац ").append(i).append(": повторяющийся текст статьи для сжатия LZ4.\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Заголовок сообщения статьи и ключ; дальше идет ссылка.
+     */
+    private static ByteArrayOutputStream header(int flags) {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        message.write(VERSION);
+        message.write(flags);
+        message.write(new byte[HashKey.BYTES], 0, HashKey.BYTES);
+        return message;
+    }
+
+    /**
+     * Сообщение статьи со сжатым текстом до длин текста: пустые ссылка, заголовок, автор и время.
+     */
+    private static ByteArrayOutputStream compressedHeader() {
+        ByteArrayOutputStream message = header(FLAG_TEXT_LZ4);
+        for (int i = 0; i < 4; i++) {
+            writeVarInt(message, 0);
+        }
+        return message;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+}
@@ -0,0 +1,249 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Восстановление фронтира из журнала, отброшенные ссылки, обрезка поврежденного конца журнала, сжатие и блокировка.
+ */
+class CrawlFrontierTest {
+
+    private static final long FLUSH_MILLIS = 60_000;
+    // Длина и CRC32 записи журнала
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+    // Ключ, состояние, приоритет, время загрузки, интервал, хеш содержимого и длина ссылки
+    private static final int RECORD_FIELDS_BYTES = 2 * Long.BYTES + 1 + Integer.BYTES + 3 * Long.BYTES + 2;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recoversStateFromLog() throws IOException {
+        Path path = dir.resolve("frontier.log");
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            frontier.offer(url(1), key(1), 5);
+            frontier.offer(url(2), key(2), 1);
+            frontier.markFetched(url(2), key(2), 1, 42, 1);
+            frontier.offer(url(3), key(3), 0);
+            frontier.markFetched(url(3), key(3), 0, 7, 0);
+            frontier.markIndexed(url(3), key(3));
+        }
+
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            assertEquals(3, frontier.size());
+            CrawlFrontier.Entry queued = frontier.get(key(1));
+            assertEquals(CrawlFrontier.Status.QUEUED, queued.getStatus());
+            assertEquals(5, queued.getPriority());
+            assertEquals(url(1), queued.getUrl());
+            CrawlFrontier.Entry fetched = frontier.get(key(2));
+            assertEquals(CrawlFrontier.Status.FETCHED, fetched.getStatus());
+            assertEquals(42, fetched.getContentHash());
+            assertEquals(1, fetched.getRevisitMillis());
+            assertEquals(CrawlFrontier.Status.INDEXED, frontier.get(key(3)).getStatus());
+
+            // Повторная загрузка из восстановленной кучи
+            List<CrawlFrontier.Entry> due = frontier.takeDue(Long.MAX_VALUE, 10);
+            assertEquals(1, due.size());
+            assertEquals(key(2), due.get(0).getKey());
+            assertEquals(List.of(queued, due.get(0)), frontier.queued());
+        }
+    }
+
+    @Test
+    void retriesUnpublishedRecrawlLater() throws IOException {
+        Path path = dir.resolve("frontier.log");
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            frontier.offer(url(1), key(1), 2);
+            frontier.markFetched(url(1), key(1), 2, 42, 1);
+            List<CrawlFrontier.Entry> due = frontier.takeDue(Long.MAX_VALUE, 10);
+            assertEquals(1, due.size());
+
+            long now = System.currentTimeMillis();
+            frontier.retryLater(due.get(0), 60_000);
+            CrawlFrontier.Entry retry = frontier.get(key(1));
+            assertTrue(retry.getNextFetchMillis() >= now + 60_000);
+            assertEquals(42, retry.getContentHash());
+            assertEquals(1, retry.getRevisitMillis());
+            assertTrue(frontier.takeDue(now, 10).isEmpty());
+            List<CrawlFrontier.Entry> again = frontier.takeDue(Long.MAX_VALUE, 10);
+            assertEquals(1, again.size());
+            assertEquals(key(1), again.get(0).getKey());
+            assertEquals(2, again.get(0).getPriority());
+        }
+    }
+
+    @Test
+    void doesNotRequeueFailedUrls() throws IOException {
+        Path path = dir.resolve("frontier.log");
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            frontier.offer(url(1), key(1), 0);
+            frontier.offer(url(2), key(2), 0);
+            frontier.markFailed(url(1), key(1));
+            // Повторная загрузка, взятая из расписания и не удавшаяся
+            frontier.offer(url(3), key(3), 0);
+            frontier.markFetched(url(3), key(3), 0, 42, 60_000);
+            List<CrawlFrontier.Entry> due = frontier.takeDue(Long.MAX_VALUE, 10);
+            assertEquals(1, due.size());
+            long now = System.currentTimeMillis();
+            frontier.markFailed(url(3), key(3));
+
+            assertEquals(List.of(frontier.get(key(2))), frontier.queued());
+            assertEquals(CrawlFrontier.Status.FAILED, frontier.get(key(1)).getStatus());
+            assertFalse(frontier.shouldFetch(key(1)));
+            assertFalse(frontier.offer(url(1), key(1), 0));
+            // Ранее загруженная страница остается в расписании с прежним интервалом
+            CrawlFrontier.Entry recrawl = frontier.get(key(3));
+            assertEquals(CrawlFrontier.Status.FAILED, recrawl.getStatus());
+            assertTrue(recrawl.getNextFetchMillis() >= now + 60_000);
+            assertEquals(42, recrawl.getContentHash());
+            assertTrue(frontier.takeDue(now, 10).isEmpty());
+        }
+
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            assertEquals(CrawlFrontier.Status.FAILED, frontier.get(key(1)).getStatus());
+            assertEquals(1, frontier.queued().size());
+            List<CrawlFrontier.Entry> due = frontier.takeDue(Long.MAX_VALUE, 10);
+            assertEquals(1, due.size());
+            assertEquals(key(3), due.get(0).getKey());
+        }
+    }
+
+    @Test
+    void dropsIncompleteTail() throws IOException {
+        Path path = dir.resolve("frontier.log");
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            frontier.offer(url(1), key(1), 0);
+        }
+        long complete = Files.size(path);
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            frontier.offer(url(2), key(2), 0);
+        }
+        // Запись второй ссылки прервана остановкой процесса
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(path) - 3);
+        }
+
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            assertEquals(1, frontier.size());
+            assertNull(frontier.get(key(2)));
+            assertEquals(complete, Files.size(path));
+            frontier.offer(url(3), key(3), 0);
+        }
+
+        // Запись после обрезки читается при следующем открытии
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            assertEquals(2, frontier.size());
+            assertEquals(url(3), frontier.get(key(3)).getUrl());
+        }
+    }
+
+    @Test
+    void stopsAtUndecodableRecord() throws IOException {
+        Path path = dir.resolve("frontier.log");
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            frontier.offer(url(1), key(1), 0);
+        }
+        long complete = Files.size(path);
+        // Запись с верной контрольной суммой, но несуществующим состоянием, и запись за ней
+        appendRecord(path, 2, 9);
+        appendRecord(path, 3, CrawlFrontier.Status.QUEUED.ordinal());
+
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            assertEquals(1, frontier.size());
+            assertNull(frontier.get(key(3)));
+            assertEquals(complete, Files.size(path));
+        }
+    }
+
+    @Test
+    void compactsLogToOneRecordPerUrl() throws IOException {
+        Path path = dir.resolve("frontier.log");
+        int urls = 5000;
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 2, FLUSH_MILLIS)) {
+            for (int i = 0; i < urls; i++) {
+                frontier.offer(url(i), key(i), 0);
+                frontier.markFetched(url(i), key(i), 0, i, 0);
+                frontier.markIndexed(url(i), key(i));
+            }
+            // Записей втрое больше, чем ссылок
+            frontier.flush();
+        }
+
+        // После сжатия в журнале по одной записи на ссылку
+        long compacted = Integer.BYTES;
+        for (int i = 0; i < urls; i++) {
+            compacted += RECORD_HEADER_BYTES + RECORD_FIELDS_BYTES + url(i).length();
+        }
+        assertEquals(compacted, Files.size(path));
+        assertTrue(Files.notExists(path.resolveSibling("frontier.log.tmp")));
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 2, FLUSH_MILLIS)) {
+            assertEquals(urls, frontier.size());
+            for (int i = 0; i < urls; i++) {
+                CrawlFrontier.Entry entry = frontier.get(key(i));
+                assertEquals(CrawlFrontier.Status.INDEXED, entry.getStatus());
+                assertEquals(i, entry.getContentHash());
+            }
+        }
+    }
+
+    @Test
+    void failsWhenAlreadyOpen() throws IOException {
+        Path path = dir.resolve("frontier.log");
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            frontier.offer(url(1), key(1), 0);
+            assertThrows(IOException.class, () -> new CrawlFrontier(path, 3, FLUSH_MILLIS));
+        }
+        // После закрытия блокировка снята
+        try (CrawlFrontier frontier = new CrawlFrontier(path, 3, FLUSH_MILLIS)) {
+            assertEquals(1, frontier.size());
+        }
+    }
+
+    private static String url(int i) {
+        return "https://example.org/news/" + i + "/";
+    }
+
+    private static HashKey key(int i) {
+        return new HashKey(i, ~i);
+    }
+
+    /**
+     * Дописывает в журнал запись ссылки в формате журнала с заданным номером состояния.
+     */
+    private static void appendRecord(Path path, int i, int status) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeLong(key(i).getHigh());
+        payload.writeLong(key(i).getLow());
+        payload.writeByte(status);
+        payload.writeInt(0);
+        payload.writeLong(0);
+        payload.writeLong(0);
+        payload.writeLong(0);
+        payload.writeUTF(url(i));
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        try (DataOutputStream output = new DataOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.APPEND))) {
+            output.writeInt(bytes.size());
+            output.writeInt((int) crc.getValue());
+            bytes.writeTo(output);
+        }
+    }
+}